@@ -0,0 +1,44 @@
+package com.kovisoft.simple.connection.pool.benchmarks;
+
+import com.kovisoft.simple.connection.pool.exports.PoolConfig;
+import com.kovisoft.simple.connection.pool.exports.PoolFactory;
+import com.kovisoft.simple.connection.pool.exports.SimplePgConnectionPool;
+import com.kovisoft.simple.connection.pool.exports.SimulatedBackendConfig;
+
+/**
+ * Shared pool configuration for the benchmarks.
+ */
+public final class BenchmarkConfigs {
+
+    private BenchmarkConfigs(){}
+
+    /**
+     * A pool pinned at exactly poolSize connections to a zero latency simulated backend, with
+     * background management slowed right down so it doesn't add noise to the measurement.
+     * @param poolSize The number of connections.
+     * @return The config.
+     */
+    public static PoolConfig fixedSize(int poolSize){
+        PoolConfig config = new PoolConfig("simulated", "bench", "bench");
+        config.setConnectionFactory(PoolFactory.createSimulatedBackend(new SimulatedBackendConfig()));
+        config.setMinConnections(poolSize);
+        config.setMaxConnections(poolSize);
+        config.setConnectionCheckIntervals(60_000);
+        config.setReclaimIntervalMaxMillis(60_000);
+        config.setConnectionLifeSpan(24 * 60);
+        return config;
+    }
+
+    /**
+     * A fixedSize pool that has finished opening its connections, so every suite measures
+     * the same steady pool on the simulated backend rather than its warmup.
+     * @param poolSize The number of connections.
+     * @return The ready pool.
+     * @throws Exception if the pool can't be created.
+     */
+    public static SimplePgConnectionPool readyPool(int poolSize) throws Exception {
+        SimplePgConnectionPool pool = PoolFactory.createPgPool(fixedSize(poolSize));
+        pool.whenReady().join();
+        return pool;
+    }
+}
@@ -0,0 +1,66 @@
+package com.kovisoft.simple.connection.pool.benchmarks;
+
+import com.kovisoft.simple.connection.pool.exports.ConnectionWrapper;
+import com.kovisoft.simple.connection.pool.exports.SimplePgConnectionPool;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of a borrow immediately followed by a release, from 1 up to 64 threads
+ * sharing a pool of poolSize connections. Past poolSize threads this measures the
+ * waiting and hand-off path rather than the uncontended fast path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BorrowReleaseBenchmark {
+
+    @Param({"8", "32"})
+    public int poolSize;
+
+    private SimplePgConnectionPool pool;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        pool = BenchmarkConfigs.readyPool(poolSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        pool.shutDownPool();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public ConnectionWrapper borrowRelease_1() throws Exception {
+        return borrowRelease();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ConnectionWrapper borrowRelease_4() throws Exception {
+        return borrowRelease();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public ConnectionWrapper borrowRelease_16() throws Exception {
+        return borrowRelease();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public ConnectionWrapper borrowRelease_64() throws Exception {
+        return borrowRelease();
+    }
+
+    private ConnectionWrapper borrowRelease() throws Exception {
+        ConnectionWrapper cw = pool.borrowConnection(1000);
+        cw.release();
+        return cw;
+    }
+}
@@ -0,0 +1,57 @@
+package com.kovisoft.simple.connection.pool.benchmarks;
+
+import com.kovisoft.simple.connection.pool.exports.ConnectionWrapper;
+import com.kovisoft.simple.connection.pool.exports.SimplePgConnectionPool;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.PreparedStatement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of getPreparedStatement for a key registered through addPreparedStatementsToPool,
+ * with a small and a full statement cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StatementLookupBenchmark {
+
+    @Param({"10", "200"})
+    public int cachedStatements;
+
+    private SimplePgConnectionPool pool;
+    private ConnectionWrapper cw;
+    private String[] keys;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        pool = BenchmarkConfigs.readyPool(1);
+        Map<String, String> statements = new HashMap<>();
+        keys = new String[cachedStatements];
+        for(int i = 0; i < cachedStatements; i++){
+            keys[i] = "Table_" + i + "-select-one";
+            statements.put(keys[i], "SELECT * FROM table_" + i + " WHERE id = ?");
+        }
+        pool.addPreparedStatementsToPool(statements);
+        cw = pool.borrowConnection(1000);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        cw.release();
+        pool.shutDownPool();
+    }
+
+    @Benchmark
+    public PreparedStatement cachedKeyLookup() throws Exception {
+        String key = keys[next];
+        next = (next + 1) % keys.length;
+        return cw.getPreparedStatement(key);
+    }
+}
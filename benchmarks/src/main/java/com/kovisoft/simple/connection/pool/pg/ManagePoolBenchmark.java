@@ -0,0 +1,40 @@
+package com.kovisoft.simple.connection.pool.pg;
+
+import com.kovisoft.simple.connection.pool.benchmarks.BenchmarkConfigs;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a single managePool() pass on a steady pool (nothing to open, close or rotate)
+ * at different pool sizes. Lives in the pg package since managePool is package private.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ManagePoolBenchmark {
+
+    @Param({"2", "10", "50"})
+    public int poolSize;
+
+    private SimplePgConnectionPoolImpl pool;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        pool = new SimplePgConnectionPoolImpl(BenchmarkConfigs.fixedSize(poolSize));
+        pool.whenReady().join();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        pool.shutDownPool();
+    }
+
+    @Benchmark
+    public void managePool() {
+        pool.managePool();
+    }
+}
@@ -0,0 +1,11 @@
+package com.kovisoft.simple.connection.pool.exports;
+
+/**
+ * What a borrower intends to do with the connection, lets the pool route reads to replicas.
+ */
+public enum AccessMode {
+    /** Served by the primary. */
+    READ_WRITE,
+    /** Served by the least loaded healthy replica, or the primary when there is none. */
+    READ_ONLY
+}
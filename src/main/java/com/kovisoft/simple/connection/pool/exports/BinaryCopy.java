@@ -0,0 +1,149 @@
+package com.kovisoft.simple.connection.pool.exports;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.UUID;
+
+/**
+ * Helpers for Postgres' binary COPY format (COPY ... FROM STDIN (FORMAT binary)). Binary skips the
+ * server side text parsing, which matters most for numeric, timestamp and uuid columns.
+ * Wrap the per row encoder with encoder(fieldCount, fields) so the header, field counts and trailer are
+ * written for you, then write every field with the matching method here in column order.
+ */
+public final class BinaryCopy {
+
+    private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+    private static final Instant PG_EPOCH = Instant.parse("2000-01-01T00:00:00Z");
+    private static final LocalDate PG_EPOCH_DATE = LocalDate.of(2000, 1, 1);
+
+    private BinaryCopy(){}
+
+    /**
+     * @param fieldCount Number of columns in every row.
+     * @param fields Writes the row's fields, one write call per column.
+     * @return An encoder for copyIn that frames each row and writes the binary header and trailer.
+     */
+    public static <T> CopyRowEncoder<T> encoder(int fieldCount, CopyRowEncoder<T> fields){
+        return new CopyRowEncoder<>() {
+            @Override
+            public void begin(DataOutput out) throws IOException {
+                writeHeader(out);
+            }
+
+            @Override
+            public void encode(T row, DataOutput out) throws IOException {
+                out.writeShort(fieldCount);
+                fields.encode(row, out);
+            }
+
+            @Override
+            public void end(DataOutput out) throws IOException {
+                writeTrailer(out);
+            }
+        };
+    }
+
+    public static void writeHeader(DataOutput out) throws IOException {
+        out.write(SIGNATURE);
+        out.writeInt(0);
+        out.writeInt(0);
+    }
+
+    public static void writeTrailer(DataOutput out) throws IOException {
+        out.writeShort(-1);
+    }
+
+    public static void writeNull(DataOutput out) throws IOException {
+        out.writeInt(-1);
+    }
+
+    /** For boolean columns. */
+    public static void writeBoolean(DataOutput out, boolean value) throws IOException {
+        out.writeInt(1);
+        out.writeBoolean(value);
+    }
+
+    /** For smallint columns. */
+    public static void writeShort(DataOutput out, short value) throws IOException {
+        out.writeInt(2);
+        out.writeShort(value);
+    }
+
+    /** For integer columns. */
+    public static void writeInt(DataOutput out, int value) throws IOException {
+        out.writeInt(4);
+        out.writeInt(value);
+    }
+
+    /** For bigint columns. */
+    public static void writeLong(DataOutput out, long value) throws IOException {
+        out.writeInt(8);
+        out.writeLong(value);
+    }
+
+    /** For real columns. */
+    public static void writeFloat(DataOutput out, float value) throws IOException {
+        out.writeInt(4);
+        out.writeFloat(value);
+    }
+
+    /** For double precision columns. */
+    public static void writeDouble(DataOutput out, double value) throws IOException {
+        out.writeInt(8);
+        out.writeDouble(value);
+    }
+
+    /** For text and varchar columns, null values are written as NULL. */
+    public static void writeText(DataOutput out, String value) throws IOException {
+        if(value == null){
+            writeNull(out);
+            return;
+        }
+        writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** For bytea columns, null values are written as NULL. */
+    public static void writeBytes(DataOutput out, byte[] value) throws IOException {
+        if(value == null){
+            writeNull(out);
+            return;
+        }
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    /** For uuid columns, null values are written as NULL. */
+    public static void writeUuid(DataOutput out, UUID value) throws IOException {
+        if(value == null){
+            writeNull(out);
+            return;
+        }
+        out.writeInt(16);
+        out.writeLong(value.getMostSignificantBits());
+        out.writeLong(value.getLeastSignificantBits());
+    }
+
+    /** For timestamptz (and UTC timestamp) columns, microsecond precision, null values are written as NULL. */
+    public static void writeTimestamp(DataOutput out, Instant value) throws IOException {
+        if(value == null){
+            writeNull(out);
+            return;
+        }
+        out.writeInt(8);
+        out.writeLong(ChronoUnit.MICROS.between(PG_EPOCH, value));
+    }
+
+    /** For date columns, null values are written as NULL. */
+    public static void writeDate(DataOutput out, LocalDate value) throws IOException {
+        if(value == null){
+            writeNull(out);
+            return;
+        }
+        out.writeInt(4);
+        out.writeInt((int) ChronoUnit.DAYS.between(PG_EPOCH_DATE, value));
+    }
+}
@@ -0,0 +1,13 @@
+package com.kovisoft.simple.connection.pool.exports;
+
+/**
+ * State of a pool's connection creation circuit breaker, see PoolConfig.setCreationFailureThreshold.
+ */
+public enum CircuitState {
+    /** Connections are opened as needed. */
+    CLOSED,
+    /** Creation kept failing, nothing is opened until the backoff passes and borrows that would wait fail fast. */
+    OPEN,
+    /** The backoff passed and a single probe connection is being opened, its result closes or reopens the circuit. */
+    HALF_OPEN
+}
@@ -0,0 +1,18 @@
+package com.kovisoft.simple.connection.pool.exports;
+
+import java.sql.SQLException;
+
+/**
+ * Work to run against a borrowed connection, see {@link SimpleConnectionPool#withConnection(ConnectionCallback)}.
+ * @param <T> The result type of the work.
+ */
+@FunctionalInterface
+public interface ConnectionCallback<T> {
+
+    /**
+     * @param cw The borrowed connection wrapper, only valid until this method returns.
+     * @return Whatever the work produces.
+     * @throws SQLException Passed through to the caller of the pool.
+     */
+    T apply(ConnectionWrapper cw) throws SQLException;
+}
@@ -0,0 +1,32 @@
+package com.kovisoft.simple.connection.pool.exports;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+/**
+ * Opens the physical connections the pool wraps. The default opens a JDBC url through the DriverManager,
+ * set your own on the PoolConfig to open connections some other way (a DataSource, a simulated backend
+ * from PoolFactory.createSimulatedBackend for load testing, etc.).
+ * Implementations must be thread safe, the pool opens connections in parallel.
+ */
+@FunctionalInterface
+public interface ConnectionFactory {
+
+    /**
+     * @return A new open connection, the pool owns it from here and closes it when done.
+     * @throws SQLException Thrown when the connection could not be opened.
+     */
+    Connection createConnection() throws SQLException;
+
+    /**
+     * The default factory, opens connections with DriverManager.getConnection(url, user, pass).
+     * @param url The url to the db.
+     * @param user The user
+     * @param pass the pass
+     * @return The factory.
+     */
+    static ConnectionFactory forUrl(String url, String user, String pass){
+        return () -> DriverManager.getConnection(url, user, pass);
+    }
+}
@@ -1,5 +1,9 @@
 package com.kovisoft.simple.connection.pool.exports;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
@@ -19,39 +23,86 @@ public interface ConnectionWrapper {
 
 
     /**
-     * Allows you to explicitly release a connection, can help with pool management,
-     * not necessary in default pool implementation, but completely necessary if
+     * Allows you to explicitly release a connection. In the default pool implementation the
+     * connection goes straight back into the pool (or to the longest waiting borrower), without
+     * it the pool only gets it back once pg_stat_activity reports it idle. Completely necessary if
      * using a single instance wrapper in things like db initialization.
+     * Pooled connections go back the way they were handed out: an open transaction is rolled back and
+     * any auto commit, isolation, read only, schema or SET changes made through the wrapper are undone.
+     * Once the pool has reclaimed a connection the wrapper is revoked: releasing or closing it does nothing
+     * and its connection and statement lookups throw, statements already handed out are closed. The
+     * connection itself has moved on to a new wrapper.
      */
     void release();
 
     /**
      * Gets a prepared statement either as a key for a cached statement or as a raw string statement.
-     * If the statement is not explicitly cached using addPreparedStatement on pool this statement
-     * will not ever be cached
+     * Raw strings not added with addPreparedStatement on the pool are kept in a small per connection
+     * LRU cache, so asking for the same string again returns the same statement.
      * @param keyOrStmtString The short key, in my case it is something like Table_Name-insert-many
      *                        or a full prepared statement string. The string is not checked for validity.
-     * @return The statement prepared on the connection, no need to close unless you desire to, or
-     * you used a non cached statement.
+     * @return The statement prepared on the connection, no need to close it. A closed statement
+     * is prepared again on the next request, evicted ones are closed by the cache.
      * @throws NullPointerException Exception thrown for a null key
      */
     PreparedStatement getPreparedStatement(String keyOrStmtString) throws NullPointerException, SQLException;
 
     /**
      * Gets a prepared statement either as a key for a cached statement or as a raw string statement.
-     * If the statement is not explicitly cached using addPreparedStatement on pool this statement
-     * will not ever be cached
+     * Raw strings not added with addPreparedStatement on the pool are kept in a small per connection
+     * LRU cache, so asking for the same string again returns the same statement.
      * @param keyOrStmtString The short key, in my case it is something like Table_Name-insert-many
      *                        or a full prepared statement string. The string is not checked for validity.
-     * @param statementConst This is the Statement.Constant for a non cached statement, if the statement
-     *                       is cached already with the const use the single variable version.
-     * @return The statement prepared on the connection, no need to close unless you desire to, or
-     * you used a non cached statement.
+     * @param statementConst This is the Statement.Constant for a raw string statement, it is part of the
+     *                       cache key. If the statement is registered with the const use the single variable version.
+     * @return The statement prepared on the connection, no need to close it. A closed statement
+     * is prepared again on the next request, evicted ones are closed by the cache.
      * @throws NullPointerException Exception thrown for a null key
      */
     PreparedStatement getPreparedStatement(String keyOrStmtString, int statementConst)
             throws NullPointerException, SQLException;
 
+    /**
+     * Streams COPY ... FROM STDIN data from the input stream until it ends, far faster than batched inserts
+     * for bulk loads. Uses pgjdbc's CopyManager on this connection, the data is sent in the format the
+     * statement names (text, csv or binary) without being parsed here. A failed copy is cancelled.
+     * @param copySql The COPY ... FROM STDIN statement.
+     * @param in The data to send, not closed.
+     * @return The number of rows the server copied.
+     * @throws SQLException Thrown by the server, or if the connection is not a PostgreSQL connection.
+     * @throws IOException Thrown reading the input.
+     */
+    long copyIn(String copySql, InputStream in) throws SQLException, IOException;
+
+    /**
+     * Same as the InputStream version, reading from a channel such as a FileChannel. The channel is read
+     * until it reports end of stream so it should be in blocking mode.
+     */
+    long copyIn(String copySql, ReadableByteChannel in) throws SQLException, IOException;
+
+    /**
+     * Encodes the rows straight into the COPY stream as they are iterated, so they never need to be held
+     * on the heap together. Pair with BinaryCopy.encoder for COPY ... (FORMAT binary).
+     * @param copySql The COPY ... FROM STDIN statement.
+     * @param rows The rows to send, iterated once.
+     * @param encoder Writes each row in the format the statement names.
+     * @return The number of rows the server copied.
+     * @throws SQLException Thrown by the server, or if the connection is not a PostgreSQL connection.
+     * @throws IOException Thrown by the encoder.
+     */
+    <T> long copyIn(String copySql, Iterable<? extends T> rows, CopyRowEncoder<? super T> encoder)
+            throws SQLException, IOException;
+
+    /**
+     * Streams the result of COPY ... TO STDOUT into the output stream as the server sends it.
+     * @param copySql The COPY ... TO STDOUT statement.
+     * @param out Where the data is written, not closed.
+     * @return The number of rows the server copied.
+     * @throws SQLException Thrown by the server, or if the connection is not a PostgreSQL connection.
+     * @throws IOException Thrown writing the output.
+     */
+    long copyOut(String copySql, OutputStream out) throws SQLException, IOException;
+
     /**
      * When dealing with an individual CW it is useful to be able to add statements.
      * That being said these statements do not propagate to other connections.
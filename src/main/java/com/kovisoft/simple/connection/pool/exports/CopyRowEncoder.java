@@ -0,0 +1,27 @@
+package com.kovisoft.simple.connection.pool.exports;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes rows straight into a COPY FROM STDIN stream, in whatever format the COPY statement asked for.
+ * For text or csv write the delimited line including its newline, for binary use BinaryCopy.
+ * The output is buffered by the connection and flushed to the server as it fills, so rows are never
+ * collected on the heap.
+ * @param <T> The row type.
+ */
+@FunctionalInterface
+public interface CopyRowEncoder<T> {
+
+    void encode(T row, DataOutput out) throws IOException;
+
+    /**
+     * Written once before the first row, nothing by default.
+     */
+    default void begin(DataOutput out) throws IOException {}
+
+    /**
+     * Written once after the last row, nothing by default.
+     */
+    default void end(DataOutput out) throws IOException {}
+}
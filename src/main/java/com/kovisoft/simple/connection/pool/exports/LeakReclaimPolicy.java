@@ -0,0 +1,13 @@
+package com.kovisoft.simple.connection.pool.exports;
+
+/**
+ * What the pool does with a connection held past PoolConfig.setLeakDetectionThresholdMillis that postgres
+ * doesn't report idle, typically one left idle in transaction. Connections with a query still running are
+ * only reported, never taken back.
+ */
+public enum LeakReclaimPolicy {
+    /** Roll back the open transaction and return the connection to the pool. */
+    ROLLBACK_AND_RETURN,
+    /** Close the connection, the pool opens a replacement on its next management pass. */
+    CLOSE_AND_REPLACE
+}
@@ -1,19 +1,56 @@
 package com.kovisoft.simple.connection.pool.exports;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
 
 public class PoolConfig  implements Serializable {
 
     private int minConnections = 2;
     private int maxConnections = 10;
     private int requestsPerMinutePerConn = 20;
+    private int sizingIntervalMillis = 1000;
+    private int borrowWaitTargetMillis = 5;
+    private transient PoolSizingController sizingController;
     private int connectionLifeSpan = 30;
+    private int connectionLifeSpanJitterPercent = 10;
     private int connectionCheckIntervals = 10;
+    private int reclaimIntervalMaxMillis = 1000;
+    private int connectionCreatorThreads = 4;
+    private int validationIntervalMillis = 60000;
+    private int validationSkipWindowMillis = 30000;
+    private int validationTimeoutMillis = 5000;
+    private int validationThreads = 2;
+    private boolean asyncStartup = false;
+    private boolean registerMBean = true;
+    private String poolName = "";
+    private boolean borrowEventsEnabled = false;
+    private int borrowEventSampleRate = 1;
+    private transient PoolEventListener eventListener;
     private int maxCharacters = 2048;
     private int maxCachedStatements = 200;
+    private boolean lazyStatementPreparation = false;
+    private int hotStatementPrepareCount = 10;
+    private int statementPromotionThreshold = 0;
+    private ArrayList<String> replicaUrls = new ArrayList<>();
+    private int maxReplicaLagMillis = 5000;
+    private int replicaLagCheckIntervalMillis = 1000;
+    private int leakDetectionThresholdMillis = 0;
+    private int idleReclaimGraceMillis = 30000;
+    private int highPriorityReservedPercent = 0;
+    private int maxWaiters = 0;
+    private boolean rejectUnreachableBorrows = false;
+    private int creationFailureThreshold = 5;
+    private int creationBackoffMillis = 100;
+    private int creationBackoffMaxMillis = 30000;
+    private int leakStackSampleRate = 100;
+    private LeakReclaimPolicy leakReclaimPolicy = LeakReclaimPolicy.ROLLBACK_AND_RETURN;
     private String url;
     private String user;
     private String pass;
+    // Not serialized, factories are runtime wiring rather than configuration.
+    private transient ConnectionFactory connectionFactory;
+    private transient List<ConnectionFactory> replicaConnectionFactories;
 
     public PoolConfig(){
         url = "";
@@ -51,6 +88,41 @@ public class PoolConfig  implements Serializable {
         this.requestsPerMinutePerConn = requestsPerMinutePerConn;
     }
 
+    public int getSizingIntervalMillis() {
+        return sizingIntervalMillis;
+    }
+
+    /**
+     * @param sizingIntervalMillis How often the sizing controller decides the target connection count.
+     */
+    public void setSizingIntervalMillis(int sizingIntervalMillis) {
+        this.sizingIntervalMillis = sizingIntervalMillis;
+    }
+
+    public int getBorrowWaitTargetMillis() {
+        return borrowWaitTargetMillis;
+    }
+
+    /**
+     * @param borrowWaitTargetMillis Average borrow wait the default sizing controller grows the pool to stay under.
+     */
+    public void setBorrowWaitTargetMillis(int borrowWaitTargetMillis) {
+        this.borrowWaitTargetMillis = borrowWaitTargetMillis;
+    }
+
+    public PoolSizingController getSizingController() {
+        return sizingController;
+    }
+
+    /**
+     * @param sizingController Decides the target connection count, when null (the default) a Little's law
+     *                         controller using the borrow wait target. For the older requests per minute
+     *                         sizing use PoolFactory.createRequestsPerMinuteSizingController.
+     */
+    public void setSizingController(PoolSizingController sizingController) {
+        this.sizingController = sizingController;
+    }
+
     public int getConnectionLifeSpan() {
         return connectionLifeSpan;
     }
@@ -59,6 +131,18 @@ public class PoolConfig  implements Serializable {
         this.connectionLifeSpan = connectionLifeSpan;
     }
 
+    public int getConnectionLifeSpanJitterPercent() {
+        return connectionLifeSpanJitterPercent;
+    }
+
+    /**
+     * @param connectionLifeSpanJitterPercent Each connection's lifespan is shortened by a random amount up to
+     *                                        this percentage, so connections opened together don't expire together.
+     */
+    public void setConnectionLifeSpanJitterPercent(int connectionLifeSpanJitterPercent) {
+        this.connectionLifeSpanJitterPercent = connectionLifeSpanJitterPercent;
+    }
+
     public int getConnectionCheckIntervals() {
         return connectionCheckIntervals;
     }
@@ -67,6 +151,130 @@ public class PoolConfig  implements Serializable {
         this.connectionCheckIntervals = connectionCheckIntervals;
     }
 
+    public int getReclaimIntervalMaxMillis() {
+        return reclaimIntervalMaxMillis;
+    }
+
+    public void setReclaimIntervalMaxMillis(int reclaimIntervalMaxMillis) {
+        this.reclaimIntervalMaxMillis = reclaimIntervalMaxMillis;
+    }
+
+    public int getConnectionCreatorThreads() {
+        return connectionCreatorThreads;
+    }
+
+    public void setConnectionCreatorThreads(int connectionCreatorThreads) {
+        this.connectionCreatorThreads = connectionCreatorThreads;
+    }
+
+    public int getValidationIntervalMillis() {
+        return validationIntervalMillis;
+    }
+
+    /**
+     * @param validationIntervalMillis How often idle connections are validated.
+     */
+    public void setValidationIntervalMillis(int validationIntervalMillis) {
+        this.validationIntervalMillis = validationIntervalMillis;
+    }
+
+    public int getValidationSkipWindowMillis() {
+        return validationSkipWindowMillis;
+    }
+
+    /**
+     * @param validationSkipWindowMillis Connections returned or validated within this window are known good
+     *                                   and skipped.
+     */
+    public void setValidationSkipWindowMillis(int validationSkipWindowMillis) {
+        this.validationSkipWindowMillis = validationSkipWindowMillis;
+    }
+
+    public int getValidationTimeoutMillis() {
+        return validationTimeoutMillis;
+    }
+
+    /**
+     * @param validationTimeoutMillis How long one check may take before the connection counts as invalid,
+     *                                rounded up to whole seconds as the driver takes seconds.
+     */
+    public void setValidationTimeoutMillis(int validationTimeoutMillis) {
+        this.validationTimeoutMillis = validationTimeoutMillis;
+    }
+
+    public int getValidationThreads() {
+        return validationThreads;
+    }
+
+    /**
+     * @param validationThreads How many connections are validated in parallel. Pools in a PoolRegistry use the
+     *                          registry's validator threads instead.
+     */
+    public void setValidationThreads(int validationThreads) {
+        this.validationThreads = validationThreads;
+    }
+
+    public boolean isAsyncStartup() {
+        return asyncStartup;
+    }
+
+    public void setAsyncStartup(boolean asyncStartup) {
+        this.asyncStartup = asyncStartup;
+    }
+
+    public boolean isRegisterMBean() {
+        return registerMBean;
+    }
+
+    public void setRegisterMBean(boolean registerMBean) {
+        this.registerMBean = registerMBean;
+    }
+
+    public String getPoolName() {
+        return poolName;
+    }
+
+    /**
+     * @param poolName Used to name the pool's metrics MBean, a unique name is generated when blank.
+     */
+    public void setPoolName(String poolName) {
+        this.poolName = poolName;
+    }
+
+    public boolean isBorrowEventsEnabled() {
+        return borrowEventsEnabled;
+    }
+
+    /**
+     * @param borrowEventsEnabled Deliver onBorrow/onRelease to the event listener, off by default
+     *                            since they fire on every request.
+     */
+    public void setBorrowEventsEnabled(boolean borrowEventsEnabled) {
+        this.borrowEventsEnabled = borrowEventsEnabled;
+    }
+
+    public int getBorrowEventSampleRate() {
+        return borrowEventSampleRate;
+    }
+
+    /**
+     * @param borrowEventSampleRate Deliver roughly 1 in this many borrow/release events, 1 delivers all of them.
+     */
+    public void setBorrowEventSampleRate(int borrowEventSampleRate) {
+        this.borrowEventSampleRate = borrowEventSampleRate;
+    }
+
+    public PoolEventListener getEventListener() {
+        return eventListener;
+    }
+
+    /**
+     * @param eventListener Receives pool events, when null (the default) events go to the pool log.
+     */
+    public void setEventListener(PoolEventListener eventListener) {
+        this.eventListener = eventListener;
+    }
+
     public int getMaxCharacters() {
         return maxCharacters;
     }
@@ -83,6 +291,216 @@ public class PoolConfig  implements Serializable {
         this.maxCachedStatements = maxCachedStatements;
     }
 
+    public boolean isLazyStatementPreparation() {
+        return lazyStatementPreparation;
+    }
+
+    /**
+     * @param lazyStatementPreparation If true registering statements only records the SQL and each connection
+     *                                 prepares a statement the first time it is requested by key.
+     */
+    public void setLazyStatementPreparation(boolean lazyStatementPreparation) {
+        this.lazyStatementPreparation = lazyStatementPreparation;
+    }
+
+    public int getHotStatementPrepareCount() {
+        return hotStatementPrepareCount;
+    }
+
+    /**
+     * @param hotStatementPrepareCount In lazy mode, how many of the most used keys are prepared ahead of time
+     *                                 on new and idle connections in the background, 0 disables it.
+     */
+    public void setHotStatementPrepareCount(int hotStatementPrepareCount) {
+        this.hotStatementPrepareCount = hotStatementPrepareCount;
+    }
+
+    public int getStatementPromotionThreshold() {
+        return statementPromotionThreshold;
+    }
+
+    /**
+     * @param statementPromotionThreshold Uses within about a minute before ad-hoc SQL is promoted to a pool
+     *                                    registered statement, 0 (the default) disables promotion.
+     */
+    public void setStatementPromotionThreshold(int statementPromotionThreshold) {
+        this.statementPromotionThreshold = statementPromotionThreshold;
+    }
+
+    public List<String> getReplicaUrls() {
+        return replicaUrls;
+    }
+
+    /**
+     * @param replicaUrls Read replicas of the primary at url, each gets its own set of connections sized like
+     *                    the primary's and opened with the same user and pass. Read only borrows go to the least
+     *                    loaded healthy replica and fall back to the primary when none is healthy.
+     */
+    public void setReplicaUrls(List<String> replicaUrls) {
+        this.replicaUrls = replicaUrls == null ? new ArrayList<>() : new ArrayList<>(replicaUrls);
+    }
+
+    public int getMaxReplicaLagMillis() {
+        return maxReplicaLagMillis;
+    }
+
+    /**
+     * @param maxReplicaLagMillis A replica further behind the primary than this stops receiving read only borrows
+     *                            until it catches up.
+     */
+    public void setMaxReplicaLagMillis(int maxReplicaLagMillis) {
+        this.maxReplicaLagMillis = maxReplicaLagMillis;
+    }
+
+    public int getReplicaLagCheckIntervalMillis() {
+        return replicaLagCheckIntervalMillis;
+    }
+
+    /**
+     * @param replicaLagCheckIntervalMillis How often each replica's lag is queried on its manager connection.
+     */
+    public void setReplicaLagCheckIntervalMillis(int replicaLagCheckIntervalMillis) {
+        this.replicaLagCheckIntervalMillis = replicaLagCheckIntervalMillis;
+    }
+
+    public int getLeakDetectionThresholdMillis() {
+        return leakDetectionThresholdMillis;
+    }
+
+    /**
+     * @param leakDetectionThresholdMillis A connection borrowed for longer than this is reported as leaked and,
+     *                                     unless a query is still running on it, reclaimed with the leak reclaim
+     *                                     policy. Idle borrowed connections are also left alone until this
+     *                                     long. 0 (the default) disables leak detection.
+     */
+    public void setLeakDetectionThresholdMillis(int leakDetectionThresholdMillis) {
+        this.leakDetectionThresholdMillis = leakDetectionThresholdMillis;
+    }
+
+    public int getIdleReclaimGraceMillis() {
+        return idleReclaimGraceMillis;
+    }
+
+    /**
+     * @param idleReclaimGraceMillis How long a borrowed connection postgres reports idle stays with its borrower
+     *                               before it is taken back and the borrower's handle revoked, the leak threshold
+     *                               if that is longer. Keep it well above the longest pause a borrower makes
+     *                               between statements.
+     */
+    public void setIdleReclaimGraceMillis(int idleReclaimGraceMillis) {
+        this.idleReclaimGraceMillis = idleReclaimGraceMillis;
+    }
+
+    public int getLeakStackSampleRate() {
+        return leakStackSampleRate;
+    }
+
+    /**
+     * @param leakStackSampleRate Capture the borrower's stack for roughly 1 in this many borrows so leak reports
+     *                            can say where the connection was borrowed, 1 captures every borrow and 0 none.
+     */
+    public void setLeakStackSampleRate(int leakStackSampleRate) {
+        this.leakStackSampleRate = leakStackSampleRate;
+    }
+
+    public LeakReclaimPolicy getLeakReclaimPolicy() {
+        return leakReclaimPolicy;
+    }
+
+    /**
+     * @param leakReclaimPolicy What to do with leaked connections, rolled back and returned by default.
+     */
+    public void setLeakReclaimPolicy(LeakReclaimPolicy leakReclaimPolicy) {
+        this.leakReclaimPolicy = leakReclaimPolicy;
+    }
+
+    public int getHighPriorityReservedPercent() {
+        return highPriorityReservedPercent;
+    }
+
+    /**
+     * @param highPriorityReservedPercent Share of the pool's connections, rounded up, that only Priority.HIGH
+     *                                    borrowers may use so lower priority work can never drain the pool.
+     *                                    0 (the default) reserves nothing.
+     */
+    public void setHighPriorityReservedPercent(int highPriorityReservedPercent) {
+        this.highPriorityReservedPercent = highPriorityReservedPercent;
+    }
+
+    public int getMaxWaiters() {
+        return maxWaiters;
+    }
+
+    /**
+     * @param maxWaiters Most borrowers that may wait for a connection at once, any more are rejected straight
+     *                   away with a PoolOverloadedException. 0 (the default) lets any number wait.
+     */
+    public void setMaxWaiters(int maxWaiters) {
+        this.maxWaiters = maxWaiters;
+    }
+
+    public boolean isRejectUnreachableBorrows() {
+        return rejectUnreachableBorrows;
+    }
+
+    /**
+     * @param rejectUnreachableBorrows True to reject a borrow with a PoolOverloadedException instead of queueing
+     *                                 it when the recent hold times say it would wait longer than its timeout.
+     *                                 Off by default.
+     */
+    public void setRejectUnreachableBorrows(boolean rejectUnreachableBorrows) {
+        this.rejectUnreachableBorrows = rejectUnreachableBorrows;
+    }
+
+    public int getCreationFailureThreshold() {
+        return creationFailureThreshold;
+    }
+
+    /**
+     * @param creationFailureThreshold Connection creations failing in a row that open the pool's circuit breaker,
+     *                                 5 by default. While open the pool stops opening connections until a backoff
+     *                                 passes and borrows that would wait fail with a PoolUnavailableException.
+     *                                 0 never opens it.
+     */
+    public void setCreationFailureThreshold(int creationFailureThreshold) {
+        this.creationFailureThreshold = creationFailureThreshold;
+    }
+
+    public int getCreationBackoffMillis() {
+        return creationBackoffMillis;
+    }
+
+    /**
+     * @param creationBackoffMillis Backoff after the circuit breaker first opens, doubled each time a probe
+     *                              connection fails and jittered down by up to half. 100 by default.
+     */
+    public void setCreationBackoffMillis(int creationBackoffMillis) {
+        this.creationBackoffMillis = creationBackoffMillis;
+    }
+
+    public int getCreationBackoffMaxMillis() {
+        return creationBackoffMaxMillis;
+    }
+
+    /**
+     * @param creationBackoffMaxMillis Most the circuit breaker's backoff grows to, 30000 by default.
+     */
+    public void setCreationBackoffMaxMillis(int creationBackoffMaxMillis) {
+        this.creationBackoffMaxMillis = creationBackoffMaxMillis;
+    }
+
+    public List<ConnectionFactory> getReplicaConnectionFactories() {
+        return replicaConnectionFactories;
+    }
+
+    /**
+     * @param replicaConnectionFactories Open the replicas' connections instead of replicaUrls, one factory per
+     *                                   replica. Mostly for tests against simulated backends.
+     */
+    public void setReplicaConnectionFactories(List<ConnectionFactory> replicaConnectionFactories) {
+        this.replicaConnectionFactories = replicaConnectionFactories;
+    }
+
     public String getUrl() {
         return url;
     }
@@ -107,5 +525,17 @@ public class PoolConfig  implements Serializable {
         this.pass = pass;
     }
 
+    public ConnectionFactory getConnectionFactory() {
+        return connectionFactory;
+    }
+
+    /**
+     * @param connectionFactory Opens the pool's connections, when null (the default) the pool opens
+     *                          url, user and pass through the DriverManager.
+     */
+    public void setConnectionFactory(ConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
 
 }
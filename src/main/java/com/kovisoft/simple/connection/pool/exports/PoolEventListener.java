@@ -0,0 +1,84 @@
+package com.kovisoft.simple.connection.pool.exports;
+
+/**
+ * Receives pool lifecycle events, set one with PoolConfig.setEventListener. Every method defaults to
+ * doing nothing so only the events you care about need implementing.
+ * Events are delivered asynchronously on a single pool event thread, in order, but after the fact:
+ * the wrapper may already be borrowed by someone else or closed by the time you see it, so only read from it.
+ * Events are dropped rather than ever blocking the pool if the listener can't keep up.
+ * Borrow and release events are off unless PoolConfig.setBorrowEventsEnabled is set and can be sampled
+ * with PoolConfig.setBorrowEventSampleRate, they are the only per request events.
+ */
+public interface PoolEventListener {
+
+    enum EvictionReason {
+        /** The connection reached the end of its lifespan. */
+        EXPIRED,
+        /** The pool is above its target size. */
+        SURPLUS,
+        /** The driver reported the connection closed. */
+        CLOSED,
+        /** The connection failed validation. */
+        VALIDATION_FAILED,
+        /** Postgres no longer has a backend for the connection's pid. */
+        BACKEND_GONE,
+        /** The connection was held past the leak threshold and the policy is to close it. */
+        LEAKED
+    }
+
+    /**
+     * @param cw The borrowed wrapper.
+     * @param waitNanos How long the borrower waited.
+     */
+    default void onBorrow(ConnectionWrapper cw, long waitNanos){}
+
+    /**
+     * @param cw The released wrapper.
+     * @param holdNanos How long it was borrowed.
+     */
+    default void onRelease(ConnectionWrapper cw, long holdNanos){}
+
+    /**
+     * @param cw The newly opened wrapper.
+     * @param creationNanos How long opening and preparing it took.
+     */
+    default void onCreate(ConnectionWrapper cw, long creationNanos){}
+
+    /**
+     * @param cause Why the connection could not be opened.
+     */
+    default void onCreateFailure(Exception cause){}
+
+    /**
+     * @param cw The wrapper removed from the pool and closed.
+     * @param reason Why it was removed.
+     */
+    default void onEvict(ConnectionWrapper cw, EvictionReason reason){}
+
+    /**
+     * @param cw A borrowed wrapper returned to the pool after postgres reported it idle.
+     */
+    default void onReclaim(ConnectionWrapper cw){}
+
+    /**
+     * Sent once per borrow, before the leak reclaim policy is applied.
+     * @param cw A wrapper borrowed for longer than the leak detection threshold.
+     * @param holdNanos How long it had been borrowed.
+     * @param borrowSite Where it was borrowed, null unless this borrow was sampled for a stack.
+     */
+    default void onLeak(ConnectionWrapper cw, long holdNanos, Exception borrowSite){}
+
+    /**
+     * @param cw The wrapper that failed validation.
+     * @param cause The exception thrown by validation, null if the connection simply reported invalid.
+     */
+    default void onValidationFailure(ConnectionWrapper cw, Exception cause){}
+
+    /**
+     * @param from The connection creation circuit breaker's previous state.
+     * @param to Its new state.
+     * @param retryInMillis When opening, how long until the next probe, 0 otherwise.
+     * @param cause When opening, the creation failure that opened it, null otherwise.
+     */
+    default void onCircuitStateChange(CircuitState from, CircuitState to, long retryInMillis, Exception cause){}
+}
@@ -1,7 +1,11 @@
 package com.kovisoft.simple.connection.pool.exports;
 
 import com.kovisoft.simple.connection.pool.pg.ConnectionWrapperImpl;
+import com.kovisoft.simple.connection.pool.pg.LittlesLawSizingController;
+import com.kovisoft.simple.connection.pool.pg.PoolRegistryImpl;
+import com.kovisoft.simple.connection.pool.pg.RequestsPerMinuteSizingController;
 import com.kovisoft.simple.connection.pool.pg.SimplePgConnectionPoolImpl;
+import com.kovisoft.simple.connection.pool.pg.SimulatedPgBackend;
 
 import java.sql.SQLException;
 import java.util.Map;
@@ -24,8 +28,62 @@ public class PoolFactory {
         return new SimplePgConnectionPoolImpl(poolConfig, prepStatements, statementConstants);
     }
 
+    /**
+     * Creates a registry of keyed pools sharing two maintenance threads, two validator threads, four creator
+     * threads and one connection budget.
+     * @param globalMaxConnections Most connections all the registry's pools together may hold open.
+     * @return The registry, close it to shut every pool down.
+     */
+    public static PoolRegistry createPoolRegistry(int globalMaxConnections){
+        return createPoolRegistry(globalMaxConnections, 2, 4);
+    }
+
+    /**
+     * @param globalMaxConnections Most connections all the registry's pools together may hold open.
+     * @param maintenanceThreads Threads running management, reclaiming and async borrow timeouts for every pool, and
+     *                           as many again validating connections.
+     * @param creatorThreads Threads opening connections for every pool.
+     * @return The registry, close it to shut every pool down.
+     */
+    public static PoolRegistry createPoolRegistry(int globalMaxConnections, int maintenanceThreads, int creatorThreads){
+        return new PoolRegistryImpl(globalMaxConnections, maintenanceThreads, creatorThreads);
+    }
+
     public static ConnectionWrapper createSingleConnectionWrapper(String url, String user, String pass) throws SQLException {
         return new ConnectionWrapperImpl(url, user, pass);
     }
 
+    public static ConnectionWrapper createSingleConnectionWrapper(ConnectionFactory connectionFactory) throws SQLException {
+        return new ConnectionWrapperImpl(connectionFactory);
+    }
+
+    /**
+     * Creates an in-process simulated postgres to use as the ConnectionFactory of a PoolConfig,
+     * handy for load testing and tuning pool settings without a server.
+     * @param config Latency, failure and pid settings of the simulated server.
+     * @return The simulated backend.
+     */
+    public static SimulatedBackend createSimulatedBackend(SimulatedBackendConfig config){
+        return new SimulatedPgBackend(config);
+    }
+
+    /**
+     * The default sizing controller, sizes from arrival rate times hold time plus a burst reserve and
+     * grows whenever borrowers wait longer than the target.
+     * @param borrowWaitTargetMillis The average borrow wait to stay under.
+     * @return The controller, for PoolConfig.setSizingController.
+     */
+    public static PoolSizingController createLittlesLawSizingController(long borrowWaitTargetMillis){
+        return new LittlesLawSizingController(borrowWaitTargetMillis);
+    }
+
+    /**
+     * Sizing as it worked before the controllers, re-evaluated once per minute from the request count.
+     * @param requestsPerMinutePerConn Requests per minute one connection is expected to serve.
+     * @return The controller, for PoolConfig.setSizingController.
+     */
+    public static PoolSizingController createRequestsPerMinuteSizingController(int requestsPerMinutePerConn){
+        return new RequestsPerMinuteSizingController(requestsPerMinutePerConn);
+    }
+
 }
@@ -0,0 +1,131 @@
+package com.kovisoft.simple.connection.pool.exports;
+
+import javax.management.MXBean;
+
+/**
+ * Live statistics of a pool, get them from SimpleConnectionPool.getMetrics(). The default pool also
+ * registers them as a JMX MXBean named com.kovisoft.simple.connection.pool:type=PoolMetrics,name=(poolName).
+ * Latency percentiles come from histograms accurate to within 12.5% and cover everything recorded since
+ * the pool started or the last reset(). Counters are totals over the same period.
+ */
+@MXBean
+public interface PoolMetrics {
+
+    /**
+     * @return Connections currently borrowed.
+     */
+    int getActiveConnections();
+
+    /**
+     * @return Connections currently available to borrow.
+     */
+    int getIdleConnections();
+
+    /**
+     * @return All connections owned by the pool, including ones being validated or retired.
+     */
+    int getTotalConnections();
+
+    /**
+     * @return Borrowers currently waiting for a connection.
+     */
+    int getPendingBorrowers();
+
+    long getBorrowCount();
+
+    long getBorrowTimeoutCount();
+
+    /**
+     * @return Borrows turned away with a PoolOverloadedException or PoolUnavailableException instead of waiting.
+     */
+    long getBorrowRejectedCount();
+
+    /**
+     * @return Times the connection creation circuit breaker opened, each failed probe counts again.
+     */
+    long getCircuitOpenCount();
+
+    long getBorrowWaitP50Micros();
+
+    long getBorrowWaitP99Micros();
+
+    long getBorrowWaitP999Micros();
+
+    /**
+     * @return Borrowers of the priority currently waiting for a connection.
+     */
+    int getPendingBorrowers(Priority priority);
+
+    /**
+     * @return Borrows of the priority, borrows that didn't name one count as NORMAL.
+     */
+    long getBorrowCount(Priority priority);
+
+    long getBorrowTimeoutCount(Priority priority);
+
+    long getBorrowWaitP50Micros(Priority priority);
+
+    long getBorrowWaitP99Micros(Priority priority);
+
+    /**
+     * @return Median time between a borrow and its release (or reclaim).
+     */
+    long getHoldTimeP50Micros();
+
+    long getHoldTimeP99Micros();
+
+    long getHoldTimeP999Micros();
+
+    long getConnectionsCreated();
+
+    long getConnectionCreationFailures();
+
+    long getConnectionCreationP50Micros();
+
+    long getConnectionCreationP99Micros();
+
+    /**
+     * @return Borrowed connections given back after postgres reported them idle.
+     */
+    long getReclaimedCount();
+
+    /**
+     * @return Borrows held past the leak detection threshold, counted once per borrow.
+     */
+    long getLeakCount();
+
+    /**
+     * @return Connections retired because they reached the end of their lifespan.
+     */
+    long getExpiredCount();
+
+    /**
+     * @return Validation checks run, only idle connections not used recently are checked.
+     */
+    long getValidationCount();
+
+    /**
+     * @return Connections removed because they failed validation.
+     */
+    long getValidationEvictionCount();
+
+    /**
+     * @return Ad-hoc statements served from a connection's statement cache.
+     */
+    long getStatementCacheHits();
+
+    /**
+     * @return Ad-hoc statements that had to be prepared, including ones too long to cache.
+     */
+    long getStatementCacheMisses();
+
+    /**
+     * @return Cached ad-hoc statements closed to stay within the cache limits.
+     */
+    long getStatementCacheEvictions();
+
+    /**
+     * Clears every histogram and counter, gauges are unaffected.
+     */
+    void reset();
+}
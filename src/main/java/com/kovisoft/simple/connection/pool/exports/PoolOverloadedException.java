@@ -0,0 +1,49 @@
+package com.kovisoft.simple.connection.pool.exports;
+
+import java.sql.SQLTransientConnectionException;
+
+/**
+ * Thrown instead of queueing a borrow the pool has no realistic chance of serving, so an overloaded service
+ * fails fast and can degrade rather than pile threads up behind the database. Transient, nothing was
+ * borrowed or waited for and the same borrow may succeed once load drops.
+ */
+public class PoolOverloadedException extends SQLTransientConnectionException {
+
+    private static final String SQL_STATE_REJECTED = "08004";
+
+    public enum Reason {
+        /** The pool already had its maximum number of waiters. */
+        TOO_MANY_WAITERS,
+        /** The estimated wait, from recent hold times and the borrowers ahead, was longer than the timeout. */
+        WAIT_EXCEEDS_TIMEOUT
+    }
+
+    private final Reason reason;
+    private final int waiters;
+    private final long estimatedWaitMillis;
+
+    public PoolOverloadedException(Reason reason, int waiters, long estimatedWaitMillis, String message){
+        super(message, SQL_STATE_REJECTED);
+        this.reason = reason;
+        this.waiters = waiters;
+        this.estimatedWaitMillis = estimatedWaitMillis;
+    }
+
+    public Reason getReason(){
+        return reason;
+    }
+
+    /**
+     * @return How many borrowers were waiting when this one was turned away.
+     */
+    public int getWaiters(){
+        return waiters;
+    }
+
+    /**
+     * @return How long the pool expected this borrow to wait, 0 if it wasn't estimated.
+     */
+    public long getEstimatedWaitMillis(){
+        return estimatedWaitMillis;
+    }
+}
@@ -0,0 +1,54 @@
+package com.kovisoft.simple.connection.pool.exports;
+
+import java.sql.SQLException;
+import java.util.Set;
+
+/**
+ * Keyed pools, for example one per tenant database, that share what a standalone pool keeps to itself.
+ * Management, reclaiming and async borrow timeouts run on one shared scheduler, connections are validated
+ * on shared validator threads and opened on shared creator threads, and pools reaching the same server as
+ * the same user share one manager connection. All pools together never hold more than the global connection
+ * budget, each pool always keeps its minConnections and the rest is rebalanced between pools about once a
+ * second by demand.
+ */
+public interface PoolRegistry extends AutoCloseable {
+
+    /**
+     * Returns the pool for the key, creating it from the config if there is none yet. Pools for different
+     * keys are created concurrently, concurrent callers for the same key wait for the one pool being created
+     * and all get it. The config is ignored if the pool already exists or is already being created.
+     * @param key The pool's key, also used as its name when the config doesn't name it.
+     * @param config The pool settings, its maxConnections is still the most the pool will ever get.
+     * @return The pool, don't shut it down directly if you want the registry to keep tracking its budget,
+     * use remove.
+     * @throws SQLException If the pool could not be started, or its minConnections don't fit in the budget
+     * left by the other pools' minimums.
+     */
+    SimplePgConnectionPool getOrCreate(String key, PoolConfig config) throws SQLException;
+
+    /**
+     * @return The pool for the key, or null if there is none.
+     */
+    SimplePgConnectionPool get(String key);
+
+    /**
+     * Shuts the pool for the key down and gives its share of the budget back to the others.
+     * @return True if there was a pool for the key.
+     */
+    boolean remove(String key) throws Exception;
+
+    Set<String> keys();
+
+    int getGlobalMaxConnections();
+
+    /**
+     * @return Pool connections open across every pool right now, manager connections not included.
+     */
+    int getOpenConnections();
+
+    /**
+     * Shuts every pool down along with the shared threads.
+     */
+    @Override
+    void close() throws Exception;
+}
@@ -0,0 +1,18 @@
+package com.kovisoft.simple.connection.pool.exports;
+
+/**
+ * Decides how many connections the pool should keep open, set one with PoolConfig.setSizingController.
+ * The pool calls it from its management thread every PoolConfig.getSizingIntervalMillis with what happened
+ * since the previous call, and opens or retires idle connections to reach the returned target (clamped to the
+ * configured min and max). Calls never overlap so implementations may keep state without locking.
+ * PoolFactory creates the two built in controllers, Little's law (the default) and the older requests per minute one.
+ */
+@FunctionalInterface
+public interface PoolSizingController {
+
+    /**
+     * @param sample Activity since the previous call plus the current pool state.
+     * @return The number of connections the pool should have.
+     */
+    int targetConnections(PoolSizingSample sample);
+}
@@ -0,0 +1,23 @@
+package com.kovisoft.simple.connection.pool.exports;
+
+/**
+ * What the pool saw since the previous sizing decision, handed to a PoolSizingController.
+ * @param nowNanos System.nanoTime when the sample was taken.
+ * @param elapsedNanos Time covered by the sample.
+ * @param borrows Successful borrows.
+ * @param borrowTimeouts Borrows that gave up waiting.
+ * @param totalBorrowWaitNanos Time the successful borrows spent waiting, summed.
+ * @param releases Connections given back, released or reclaimed.
+ * @param totalHoldNanos Time the given back connections were held, summed.
+ * @param totalConnections Open connections right now.
+ * @param activeConnections Borrowed connections right now.
+ * @param pendingBorrowers Borrowers waiting right now.
+ * @param currentTarget The target the pool is working towards.
+ * @param minConnections The configured minimum.
+ * @param maxConnections The configured maximum.
+ */
+public record PoolSizingSample(long nowNanos, long elapsedNanos, long borrows, long borrowTimeouts,
+                               long totalBorrowWaitNanos, long releases, long totalHoldNanos, int totalConnections,
+                               int activeConnections, int pendingBorrowers, int currentTarget, int minConnections,
+                               int maxConnections) {
+}
@@ -0,0 +1,39 @@
+package com.kovisoft.simple.connection.pool.exports;
+
+import java.sql.SQLTransientConnectionException;
+
+/**
+ * Thrown when a borrow waited its whole timeout without getting a connection. Transient, the same borrow
+ * may well succeed later, the reason says what the pool was doing while the borrower waited.
+ */
+public class PoolTimeoutException extends SQLTransientConnectionException {
+
+    private static final String SQL_STATE_TIMEOUT = "HYT00";
+
+    public enum Reason {
+        /** Every connection was in use and the pool was already at its target size. */
+        EXHAUSTED,
+        /** The pool was below its target size and still opening connections. */
+        REFILLING
+    }
+
+    private final Reason reason;
+    private final long waitedMillis;
+
+    public PoolTimeoutException(Reason reason, long waitedMillis, String message){
+        super(message, SQL_STATE_TIMEOUT);
+        this.reason = reason;
+        this.waitedMillis = waitedMillis;
+    }
+
+    public Reason getReason(){
+        return reason;
+    }
+
+    /**
+     * @return How long the borrower waited before giving up.
+     */
+    public long getWaitedMillis(){
+        return waitedMillis;
+    }
+}
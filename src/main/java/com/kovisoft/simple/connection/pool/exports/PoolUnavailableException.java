@@ -0,0 +1,33 @@
+package com.kovisoft.simple.connection.pool.exports;
+
+import java.sql.SQLTransientConnectionException;
+
+/**
+ * Thrown instead of waiting when nothing is idle and the pool can't open connections because its creation
+ * circuit breaker isn't closed, the database is most likely down or restarting. Transient, borrows wait as
+ * usual again once a probe connection succeeds.
+ */
+public class PoolUnavailableException extends SQLTransientConnectionException {
+
+    private static final String SQL_STATE_UNABLE_TO_CONNECT = "08001";
+
+    private final CircuitState circuitState;
+    private final long retryInMillis;
+
+    public PoolUnavailableException(CircuitState circuitState, long retryInMillis, String message, Throwable cause){
+        super(message, SQL_STATE_UNABLE_TO_CONNECT, cause);
+        this.circuitState = circuitState;
+        this.retryInMillis = retryInMillis;
+    }
+
+    public CircuitState getCircuitState(){
+        return circuitState;
+    }
+
+    /**
+     * @return How long until the pool tries to open a connection again, 0 if a probe is already underway.
+     */
+    public long getRetryInMillis(){
+        return retryInMillis;
+    }
+}
@@ -0,0 +1,15 @@
+package com.kovisoft.simple.connection.pool.exports;
+
+/**
+ * How urgently a borrower needs its connection. While the pool is saturated waiting borrowers are served
+ * HIGH first, then NORMAL, then LOW, in arrival order within each class. With
+ * PoolConfig.setHighPriorityReservedPercent set, that share of the pool is only ever lent to HIGH borrowers.
+ */
+public enum Priority {
+    /** Latency critical work, may use the reserved share. */
+    HIGH,
+    /** The default for borrows that don't name a priority. */
+    NORMAL,
+    /** Batch and background work, served last. */
+    LOW
+}
@@ -1,16 +1,20 @@
 package com.kovisoft.simple.connection.pool.exports;
 
 
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
 
 public interface SimpleConnectionPool {
 
     /**
      * Borrows a connection from the pool. The default pg implementation
      * marks this connection in use, then reclaims it when the connection
-     * becomes idle as returned by pg_stat_activity. Default 20 ms poll time.
+     * becomes idle as returned by pg_stat_activity. Waits up to 50 ms.
      * @return The borrowed connection wrapper
-     * @throws SQLException Thrown when no adequate connections were available for use in the queue.
+     * @throws PoolTimeoutException Thrown when no connection became available in time.
+     * @throws SQLException Thrown when the pool has been shut down.
      * @throws InterruptedException If interrupted while waiting for connection.
      */
     ConnectionWrapper borrowConnection() throws SQLException, InterruptedException;
@@ -18,16 +22,150 @@ public interface SimpleConnectionPool {
     /**
      * Borrows a connection from the pool. The default pg implementation
      * marks this connection in use, then reclaims it when the connection
-     * becomes idle as returned by pg_stat_activity
-     * @param millis The amount of time (in milliseconds) before testing next connection.
-     *               This can result in up to millis * maxConnections wait time.
+     * becomes idle as returned by pg_stat_activity. Borrowers that have to wait are served
+     * in the order they arrived.
+     * @param millis The most time (in milliseconds) to wait for a connection, the call never waits longer.
      * @return The borrowed connection wrapper
-     * @throws SQLException Thrown when no adequate connections were available for use in the queue.
+     * @throws PoolTimeoutException Thrown when no connection became available in time, the reason says
+     *                              whether the pool was exhausted or still opening connections.
+     * @throws PoolOverloadedException Thrown without waiting when nothing was idle and the pool turned the
+     *                                 borrow away, see PoolConfig.setMaxWaiters and setRejectUnreachableBorrows.
+     * @throws PoolUnavailableException Thrown without waiting when nothing was idle and the pool can't open
+     *                                  connections, see getCircuitState.
+     * @throws SQLException Thrown when the pool has been shut down.
      * @throws InterruptedException If interrupted while waiting for connection.
      */
     ConnectionWrapper borrowConnection(long millis) throws SQLException, InterruptedException;
 
 
+    /**
+     * Borrows a connection for the given access mode. READ_ONLY goes to the least loaded replica whose lag is
+     * within maxReplicaLagMillis, falling back to the primary when no replica is configured or healthy, or when
+     * the replica times out, sheds or is unavailable, with whatever is left of millis. Writes made through it
+     * may fail. READ_WRITE is the same as borrowConnection(millis).
+     * @param mode What the connection will be used for.
+     * @param millis The most time (in milliseconds) to wait for a connection.
+     * @return The borrowed connection wrapper
+     * @throws PoolTimeoutException Thrown when no connection became available in time.
+     * @throws SQLException Thrown when the pool has been shut down.
+     * @throws InterruptedException If interrupted while waiting for connection.
+     */
+    ConnectionWrapper borrowConnection(AccessMode mode, long millis) throws SQLException, InterruptedException;
+
+    /**
+     * Borrows with a priority, waiting up to millis. While the pool is saturated waiting HIGH borrowers are
+     * served before NORMAL ones and NORMAL before LOW, and only HIGH borrowers may use the share reserved by
+     * PoolConfig.setHighPriorityReservedPercent. borrowConnection(millis) is a NORMAL borrow.
+     * @param priority The borrower's priority.
+     * @param millis How long to wait at most.
+     * @return The borrowed connection wrapper
+     * @throws PoolTimeoutException If no connection became available in time.
+     * @throws SQLException If the pool has been shut down.
+     * @throws InterruptedException If interrupted while waiting for connection.
+     */
+    ConnectionWrapper borrowConnection(Priority priority, long millis) throws SQLException, InterruptedException;
+
+    /**
+     * Borrows with a priority, waiting up to 50 ms. See borrowConnection(Priority, long).
+     */
+    default ConnectionWrapper borrowConnection(Priority priority) throws SQLException, InterruptedException {
+        return borrowConnection(priority, 50);
+    }
+
+    /**
+     * Borrows a read only connection, waiting up to 50 ms. See borrowConnection(AccessMode, long).
+     */
+    default ConnectionWrapper borrowReadOnly() throws SQLException, InterruptedException {
+        return borrowConnection(AccessMode.READ_ONLY, 50);
+    }
+
+    /**
+     * Borrows a connection without blocking the calling thread. If none is idle the future joins the same
+     * FIFO queue as blocking borrowers and is completed by the thread that frees a connection, so pending
+     * borrows cost memory rather than threads. Dependent stages added without an executor run on that
+     * thread, use the async variants for anything slow. Cancelling the future gives up the place in the queue.
+     * @param timeout The most time to wait for a connection.
+     * @return A future completed with the borrowed connection wrapper, release it as with borrowConnection.
+     * Completes exceptionally with a PoolTimeoutException if the timeout elapsed first, a PoolOverloadedException
+     * if the pool wouldn't queue it, a PoolUnavailableException if it can't open connections and none was idle,
+     * or with an SQLException if the pool has been shut down.
+     */
+    CompletableFuture<ConnectionWrapper> borrowAsync(Duration timeout);
+
+    /**
+     * Same as borrowAsync(timeout) with the waiter queued by priority, see borrowConnection(Priority, long).
+     */
+    CompletableFuture<ConnectionWrapper> borrowAsync(Priority priority, Duration timeout);
+
+    /**
+     * Borrows a connection, runs the work and always returns the connection to the pool afterward,
+     * even if the work throws. Waiting for a connection never pins a virtual thread's carrier,
+     * so this is safe to call from a virtual thread per request. The default pg implementation never
+     * reclaims the connection while the work runs, however long it sits idle.
+     * @param work The work to run with the borrowed connection, don't hold on to the wrapper after it returns.
+     * @return The result of the work.
+     * @throws SQLException Thrown when no connection was available or by the work itself.
+     * @throws InterruptedException If interrupted while waiting for connection.
+     */
+    default <T> T withConnection(ConnectionCallback<T> work) throws SQLException, InterruptedException {
+        ConnectionWrapper cw = borrowConnection();
+        try{
+            return work.apply(cw);
+        } finally {
+            cw.release();
+        }
+    }
+
+    /**
+     * Same as withConnection but the work runs inside a transaction. The transaction is committed
+     * if the work returns normally and rolled back if it throws, auto commit is restored either way.
+     * @param work The work to run inside the transaction.
+     * @return The result of the work.
+     * @throws SQLException Thrown when no connection was available, by the work, or by commit/rollback.
+     * @throws InterruptedException If interrupted while waiting for connection.
+     */
+    default <T> T inTransaction(ConnectionCallback<T> work) throws SQLException, InterruptedException {
+        return withConnection(cw -> {
+            Connection conn = cw.borrowConnection();
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try{
+                T result = work.apply(cw);
+                conn.commit();
+                return result;
+            } catch (SQLException | RuntimeException e){
+                try{
+                    conn.rollback();
+                } catch (SQLException rollbackException){
+                    e.addSuppressed(rollbackException);
+                }
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        });
+    }
+
+    /**
+     * Connections are opened in parallel, with asyncStartup set on the PoolConfig the pool is handed
+     * back as soon as minConnections are open while the remainder keep warming in the background.
+     * @return A future completed once the initial warm up has finished. Completes exceptionally if
+     * warm up could not open minConnections.
+     */
+    CompletableFuture<Void> whenReady();
+
+    /**
+     * @return Live metrics for this pool, safe to poll as often as you like.
+     */
+    PoolMetrics getMetrics();
+
+    /**
+     * @return The state of the pool's connection creation circuit breaker. Anything but CLOSED means recent
+     * attempts to open connections failed, borrows then only get an idle connection and otherwise fail fast
+     * with a PoolUnavailableException.
+     */
+    CircuitState getCircuitState();
+
     /**
      * Tells the connection pool to shut down. Exception comes from the mostly graceful shutdown.
      */
@@ -0,0 +1,30 @@
+package com.kovisoft.simple.connection.pool.exports;
+
+/**
+ * An in-process stand in for a postgres server, created with PoolFactory.createSimulatedBackend.
+ * It answers the queries the pool itself runs (backend pid, pg_stat_activity state) and treats every
+ * other statement as a query returning a single row containing 1, after the configured latency.
+ * Use it as the ConnectionFactory on a PoolConfig to load test or tune pool settings without a server.
+ */
+public interface SimulatedBackend extends ConnectionFactory {
+
+    /**
+     * @return The live config, changes to it apply to the next connect or query.
+     */
+    SimulatedBackendConfig getConfig();
+
+    /**
+     * @return The number of connections currently open against the backend.
+     */
+    int getOpenConnections();
+
+    /**
+     * @return The total number of connections ever opened.
+     */
+    long getConnectionsOpened();
+
+    /**
+     * @return The total number of statements executed, including the pool's own queries.
+     */
+    long getQueriesExecuted();
+}
@@ -0,0 +1,108 @@
+package com.kovisoft.simple.connection.pool.exports;
+
+/**
+ * Settings for a SimulatedBackend. Fields are volatile so a running test can change latency,
+ * failure rates or availability and the backend picks them up on the next connect or query.
+ */
+public class SimulatedBackendConfig {
+
+    private volatile int connectLatencyMillis = 0;
+    private volatile int queryLatencyMillis = 0;
+    private volatile double connectFailureRate = 0;
+    private volatile double queryFailureRate = 0;
+    private volatile int firstBackendPid = 10000;
+    private volatile int maxServerConnections = 100;
+    private volatile boolean available = true;
+    private volatile long replicationLagMillis = 0;
+
+    public SimulatedBackendConfig(){
+    }
+
+    public SimulatedBackendConfig(int connectLatencyMillis, int queryLatencyMillis){
+        this.connectLatencyMillis = connectLatencyMillis;
+        this.queryLatencyMillis = queryLatencyMillis;
+    }
+
+    public int getConnectLatencyMillis() {
+        return connectLatencyMillis;
+    }
+
+    public void setConnectLatencyMillis(int connectLatencyMillis) {
+        this.connectLatencyMillis = connectLatencyMillis;
+    }
+
+    public int getQueryLatencyMillis() {
+        return queryLatencyMillis;
+    }
+
+    public void setQueryLatencyMillis(int queryLatencyMillis) {
+        this.queryLatencyMillis = queryLatencyMillis;
+    }
+
+    public double getConnectFailureRate() {
+        return connectFailureRate;
+    }
+
+    /**
+     * @param connectFailureRate Fraction (0 to 1) of connection attempts that fail.
+     */
+    public void setConnectFailureRate(double connectFailureRate) {
+        this.connectFailureRate = connectFailureRate;
+    }
+
+    public double getQueryFailureRate() {
+        return queryFailureRate;
+    }
+
+    /**
+     * @param queryFailureRate Fraction (0 to 1) of statements that fail, the pool's own queries included.
+     */
+    public void setQueryFailureRate(double queryFailureRate) {
+        this.queryFailureRate = queryFailureRate;
+    }
+
+    public int getFirstBackendPid() {
+        return firstBackendPid;
+    }
+
+    /**
+     * @param firstBackendPid The pid given to the first connection, each following connection gets the next one.
+     */
+    public void setFirstBackendPid(int firstBackendPid) {
+        this.firstBackendPid = firstBackendPid;
+    }
+
+    public int getMaxServerConnections() {
+        return maxServerConnections;
+    }
+
+    /**
+     * @param maxServerConnections Like postgres max_connections, connection attempts beyond it are refused.
+     */
+    public void setMaxServerConnections(int maxServerConnections) {
+        this.maxServerConnections = maxServerConnections;
+    }
+
+    public boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * @param available When false the backend acts like a server that went down, connection attempts fail,
+     *                  validation fails and open connections are dropped on their next statement.
+     */
+    public void setAvailable(boolean available) {
+        this.available = available;
+    }
+
+    public long getReplicationLagMillis() {
+        return replicationLagMillis;
+    }
+
+    /**
+     * @param replicationLagMillis What the backend reports as its replication lag when used as a read replica.
+     */
+    public void setReplicationLagMillis(long replicationLagMillis) {
+        this.replicationLagMillis = replicationLagMillis;
+    }
+}
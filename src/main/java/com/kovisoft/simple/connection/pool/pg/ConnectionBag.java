@@ -0,0 +1,581 @@
+package com.kovisoft.simple.connection.pool.pg;
+
+import com.kovisoft.logger.exports.Logger;
+import com.kovisoft.simple.connection.pool.exports.PoolOverloadedException;
+import com.kovisoft.simple.connection.pool.exports.Priority;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.kovisoft.simple.connection.pool.pg.ConnectionWrapperImpl.*;
+
+/**
+ * Holds every wrapper owned by the pool and hands them out without a shared lock.
+ * Each wrapper carries its own state which is flipped with a CAS, so a borrow is
+ * "find a NOT_IN_USE wrapper and win the CAS". Borrowers first try the wrapper they
+ * used last on this thread, then scan the shared array starting at a thread specific
+ * offset so concurrent borrowers don't all fight over the first entry.
+ * The array is copy on write, adds and removes are rare (management thread only)
+ * while reads happen on every borrow.
+ * When nothing is idle the borrower joins a FIFO queue of waiters for its priority, any wrapper
+ * that becomes available (release, reclaim, new connection) is claimed by the releasing thread
+ * and completes the longest waiting borrower of the highest priority directly. While anyone of the
+ * same or a higher priority is queued new borrowers queue behind them instead of scanning, so waiters
+ * are served in arrival order within each priority.
+ * With a reserved share set, borrowers below HIGH hold a shared slot for each wrapper they have and
+ * can't borrow once the shared slots (everything outside the reserved share) are all taken.
+ * A connection reclaimed from a borrower that never released it goes back under a new wrapper, the
+ * borrower's one is revoked so nothing it still does can reach the next borrower.
+ * Admission is checked only once a borrower is about to queue: past the waiter limit, or when the wait
+ * estimated from the mean hold time is longer than its timeout, it is rejected instead of joining the queue.
+ * Waiting only uses java.util.concurrent primitives (no monitors) so virtual threads never
+ * pin their carrier here. Virtual threads skip the thread local fast path, they are rarely
+ * reused so it would only cost memory per thread.
+ */
+final class ConnectionBag implements AutoCloseable {
+
+    private static final Logger logger = PoolLogger.LOGGER;
+    private static final ConnectionWrapperImpl[] EMPTY = new ConnectionWrapperImpl[0];
+
+    private final ThreadLocal<ConnectionWrapperImpl> lastUsed = new ThreadLocal<>();
+    private final ThreadLocal<ArrayDeque<ConnectionWrapperImpl>> handingOff = new ThreadLocal<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // One FIFO queue per priority, indexed by ordinal so HIGH is looked at first.
+    private final Queue<CompletableFuture<ConnectionWrapperImpl>>[] waitQueues;
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final AtomicInteger[] waitersByPriority;
+    private final AtomicInteger sharedInUse = new AtomicInteger();
+    private volatile int highPriorityReservedPercent;
+    private volatile int maxWaiters;
+    private volatile boolean rejectUnreachable;
+    // Recent mean hold time, kept up to date by the pool's sizing pass.
+    private volatile long meanHoldNanos;
+    private volatile ConnectionWrapperImpl[] entries = EMPTY;
+    private volatile boolean closed = false;
+    private final String poolName;
+    private final PoolMetricsImpl metrics;
+    private final PoolEventDispatcher events;
+
+    ConnectionBag(String poolName, PoolMetricsImpl metrics, PoolEventDispatcher events){
+        this.poolName = poolName;
+        this.metrics = metrics;
+        this.events = events;
+        int priorities = Priority.values().length;
+        this.waitQueues = newWaitQueues(priorities);
+        this.waitersByPriority = new AtomicInteger[priorities];
+        for(int i = 0; i < priorities; i++){
+            waitersByPriority[i] = new AtomicInteger();
+        }
+        metrics.attach(this);
+    }
+
+    /**
+     * Generic arrays can't be created directly, the cast is safe since every slot is filled here.
+     */
+    @SuppressWarnings("unchecked")
+    private static Queue<CompletableFuture<ConnectionWrapperImpl>>[] newWaitQueues(int priorities){
+        Queue<CompletableFuture<ConnectionWrapperImpl>>[] queues =
+                (Queue<CompletableFuture<ConnectionWrapperImpl>>[]) new Queue<?>[priorities];
+        for(int i = 0; i < priorities; i++){
+            queues[i] = new ConcurrentLinkedQueue<>();
+        }
+        return queues;
+    }
+
+    /**
+     * @param percent Share of the bag, rounded up, only lent to HIGH borrowers. 0 turns the slot accounting off.
+     */
+    void setHighPriorityReservedPercent(int percent){
+        this.highPriorityReservedPercent = Math.max(0, Math.min(100, percent));
+    }
+
+    /**
+     * @param maxWaiters Most borrowers allowed to queue at once, 0 for no limit.
+     * @param rejectUnreachable True to reject borrowers whose estimated wait is longer than their timeout.
+     */
+    void setAdmission(int maxWaiters, boolean rejectUnreachable){
+        this.maxWaiters = Math.max(0, maxWaiters);
+        this.rejectUnreachable = rejectUnreachable;
+    }
+
+    void setMeanHoldNanos(long meanHoldNanos){
+        this.meanHoldNanos = Math.max(0, meanHoldNanos);
+    }
+
+    long getMeanHoldNanos(){
+        return meanHoldNanos;
+    }
+
+    /**
+     * Borrows a wrapper, waiting up to the timeout for one to become available. The timeout is
+     * an absolute budget for the whole call, it is never restarted.
+     * @param timeout How long to wait.
+     * @param unit The unit of the timeout.
+     * @return A wrapper now in the IN_USE state, or null if the timeout elapsed or the bag was closed.
+     * @throws InterruptedException If interrupted while waiting.
+     * @throws PoolOverloadedException If nothing was idle and the borrower wasn't admitted to the queue.
+     */
+    ConnectionWrapperImpl borrow(long timeout, TimeUnit unit) throws InterruptedException, PoolOverloadedException {
+        return borrow(timeout, unit, Priority.NORMAL);
+    }
+
+    /**
+     * @param priority Decides the borrower's place among waiters and whether it may use the reserved share.
+     * @see #borrow(long, TimeUnit)
+     */
+    ConnectionWrapperImpl borrow(long timeout, TimeUnit unit, Priority priority)
+            throws InterruptedException, PoolOverloadedException {
+        final long timeoutNanos = unit.toNanos(timeout);
+        final long deadline = System.nanoTime() + timeoutNanos;
+        final boolean virtual = Thread.currentThread().isVirtual();
+        ConnectionWrapperImpl cw = tryBorrow(virtual, priority);
+        if(cw != null) return cw;
+
+        CompletableFuture<ConnectionWrapperImpl> waiter = enqueue(priority, timeoutNanos);
+        try{
+            cw = waiter.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if(!virtual) lastUsed.set(cw);
+            return cw;
+        } catch (TimeoutException | ExecutionException | CancellationException e){
+            return abandon(waiter);
+        } catch (InterruptedException e){
+            cw = abandon(waiter);
+            // Handed over just as we were interrupted, it was never used so pass it on untouched.
+            if(cw != null) giveBack(cw);
+            throw e;
+        }
+    }
+
+    /**
+     * Borrows an idle wrapper without ever queueing or checking admission.
+     * @return A wrapper now in the IN_USE state, or null if none was idle.
+     */
+    ConnectionWrapperImpl poll(Priority priority){
+        return tryBorrow(Thread.currentThread().isVirtual(), priority);
+    }
+
+    /**
+     * Borrows a wrapper without blocking. If none is idle the returned future is a waiter in the same FIFO
+     * queue the blocking borrowers use, it is completed by whichever thread frees a wrapper.
+     * A caller that stops waiting must call cancel, and giveBack if the future completed anyway.
+     * @return A future completed with a wrapper in the IN_USE state, cancelled if the bag is closed.
+     */
+    CompletableFuture<ConnectionWrapperImpl> borrowAsync(){
+        return borrowAsync(Priority.NORMAL, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param timeoutNanos How long the caller will wait, only used to decide whether to admit it.
+     * @return As borrowAsync(), or a future failed with a PoolOverloadedException if it wasn't admitted.
+     */
+    CompletableFuture<ConnectionWrapperImpl> borrowAsync(Priority priority, long timeoutNanos){
+        ConnectionWrapperImpl cw = tryBorrow(Thread.currentThread().isVirtual(), priority);
+        if(cw != null) return CompletableFuture.completedFuture(cw);
+        try{
+            return enqueue(priority, timeoutNanos);
+        } catch (PoolOverloadedException e){
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Fast path, only taken while nobody of the same or a higher priority is queued so newcomers never
+     * overtake a waiter they shouldn't.
+     */
+    private ConnectionWrapperImpl tryBorrow(boolean virtual, Priority priority){
+        for(int i = 0; i <= priority.ordinal(); i++){
+            if(!waitQueues[i].isEmpty()) return null;
+        }
+        boolean shared = needsSharedSlot(priority);
+        if(shared && !acquireSharedSlot()) return null;
+        ConnectionWrapperImpl cw = virtual ? null : lastUsed.get();
+        if(cw == null || !cw.compareAndSetState(STATE_NOT_IN_USE, STATE_IN_USE)){
+            cw = scan(virtual);
+        }
+        if(shared){
+            if(cw != null){
+                cw.setSharedSlot(true);
+            } else {
+                sharedInUse.decrementAndGet();
+            }
+        }
+        return cw;
+    }
+
+    private boolean needsSharedSlot(Priority priority){
+        return priority != Priority.HIGH && highPriorityReservedPercent > 0;
+    }
+
+    /**
+     * Takes one of the slots outside the reserved share, the reservation follows the bag's current size.
+     */
+    private boolean acquireSharedSlot(){
+        int size = entries.length;
+        int limit = size - (size * highPriorityReservedPercent + 99) / 100;
+        int current;
+        do{
+            current = sharedInUse.get();
+            if(current >= limit) return false;
+        } while (!sharedInUse.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * Gives back the wrapper's shared slot if it holds one.
+     * @return True if a slot was freed.
+     */
+    private boolean releaseSharedSlot(ConnectionWrapperImpl cw){
+        if(!cw.clearSharedSlot()) return false;
+        sharedInUse.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * Queues a new waiter, then passes any wrapper that is idle right now down the queue. A wrapper
+     * released between the borrower's scan and the enqueue saw nobody waiting, this catches it.
+     * @throws PoolOverloadedException If the borrower isn't admitted, nothing was queued.
+     */
+    private CompletableFuture<ConnectionWrapperImpl> enqueue(Priority priority, long timeoutNanos)
+            throws PoolOverloadedException {
+        if(rejectUnreachable){
+            long estimate = estimateWaitNanos(priority);
+            if(estimate > timeoutNanos){
+                throw rejected(priority, PoolOverloadedException.Reason.WAIT_EXCEEDS_TIMEOUT, waiters.get(),
+                        estimate, String.format("estimated wait %d ms is past its %d ms timeout",
+                        TimeUnit.NANOSECONDS.toMillis(estimate), TimeUnit.NANOSECONDS.toMillis(timeoutNanos)));
+            }
+        }
+        // Counted before queueing so concurrent borrowers can't overshoot the limit.
+        int limit = maxWaiters;
+        int current;
+        do{
+            current = waiters.get();
+            if(limit > 0 && current >= limit){
+                throw rejected(priority, PoolOverloadedException.Reason.TOO_MANY_WAITERS, current, 0,
+                        "the waiter limit is " + limit);
+            }
+        } while (!waiters.compareAndSet(current, current + 1));
+        CompletableFuture<ConnectionWrapperImpl> waiter = new CompletableFuture<>();
+        AtomicInteger classWaiters = waitersByPriority[priority.ordinal()];
+        classWaiters.incrementAndGet();
+        waiter.whenComplete((cw, e) -> {
+            waiters.decrementAndGet();
+            classWaiters.decrementAndGet();
+        });
+        waitQueues[priority.ordinal()].offer(waiter);
+        for(ConnectionWrapperImpl cw : entries){
+            if(waiter.isDone()) break;
+            if(cw.getState() == STATE_NOT_IN_USE) handOff(cw);
+        }
+        if(closed) waiter.cancel(false);
+        return waiter;
+    }
+
+    /**
+     * Everyone of the same or a higher priority queued ahead plus this borrower, served by every open
+     * connection in turn. 0 until there is a hold time to go on or while the bag is empty.
+     */
+    long estimateWaitNanos(Priority priority){
+        int size = entries.length;
+        long hold = meanHoldNanos;
+        if(size == 0 || hold == 0) return 0;
+        long ahead = 0;
+        for(int i = 0; i <= priority.ordinal(); i++){
+            ahead += waitersByPriority[i].get();
+        }
+        return (ahead + 1) * hold / size;
+    }
+
+    private PoolOverloadedException rejected(Priority priority, PoolOverloadedException.Reason reason, int waiting,
+                                             long estimateNanos, String detail){
+        metrics.recordBorrowRejected();
+        return new PoolOverloadedException(reason, waiting, TimeUnit.NANOSECONDS.toMillis(estimateNanos),
+                String.format("Pool %s rejected a %s priority borrow (%s), %s: %d open, %d waiting.",
+                        poolName, priority, reason, detail, entries.length, waiting));
+    }
+
+    /**
+     * Gives up on a waiter. If a wrapper was handed to it in the meantime that wrapper is returned, the
+     * caller owns it.
+     */
+    private ConnectionWrapperImpl abandon(CompletableFuture<ConnectionWrapperImpl> waiter){
+        if(cancel(waiter)) return null;
+        return waiter.isCompletedExceptionally() ? null : waiter.join();
+    }
+
+    /**
+     * Takes a waiter out of the queue.
+     * @return True if it was still waiting, false if it had already been completed or cancelled.
+     */
+    boolean cancel(CompletableFuture<ConnectionWrapperImpl> waiter){
+        if(!waiter.cancel(false)) return false;
+        for(Queue<CompletableFuture<ConnectionWrapperImpl>> queue : waitQueues){
+            if(queue.remove(waiter)) break;
+        }
+        return true;
+    }
+
+    /**
+     * Returns a wrapper that was handed to a borrower who no longer wants it. Unlike requite nothing is
+     * recorded, as far as metrics and listeners are concerned the borrow never happened.
+     */
+    void giveBack(ConnectionWrapperImpl cw){
+        releaseSharedSlot(cw);
+        if(cw.compareAndSetState(STATE_IN_USE, STATE_NOT_IN_USE)) handOff(cw);
+    }
+
+    private ConnectionWrapperImpl scan(boolean virtual){
+        final ConnectionWrapperImpl[] snapshot = entries;
+        final int size = snapshot.length;
+        if(size == 0) return null;
+        final int start = (int) (Thread.currentThread().threadId() % size);
+        for(int i = 0; i < size; i++){
+            ConnectionWrapperImpl cw = snapshot[(start + i) % size];
+            if(cw.compareAndSetState(STATE_NOT_IN_USE, STATE_IN_USE)){
+                if(!virtual) lastUsed.set(cw);
+                return cw;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a borrowed wrapper to circulation. Wrappers that were removed in the meantime stay removed.
+     * @param cw The wrapper to return.
+     */
+    void requite(ConnectionWrapperImpl cw){
+        releaseSharedSlot(cw);
+        if(cw.compareAndSetState(STATE_IN_USE, STATE_NOT_IN_USE)){
+            long now = System.nanoTime();
+            long holdNanos = now - cw.getBorrowedAt();
+            cw.markKnownGood(now);
+            metrics.recordHoldTime(holdNanos);
+            events.released(cw, holdNanos);
+            handOff(cw);
+        }
+    }
+
+    /**
+     * Takes a wrapper back from a borrower that never released it. The borrower's wrapper is revoked and
+     * replaced in the bag by a new one over the same connection with statements of its own, so a late
+     * release, query or statement from the old borrower can't reach whoever borrows the connection next.
+     * @param cw The wrapper still held by its borrower.
+     * @return The wrapper now in circulation, or null if the borrow ended first or the connection couldn't
+     *         be handed over (it is closed then and left for management to sweep).
+     */
+    ConnectionWrapperImpl reclaim(ConnectionWrapperImpl cw){
+        if(!cw.compareAndSetState(STATE_IN_USE, STATE_RESERVED)) return null;
+        releaseSharedSlot(cw);
+        ConnectionWrapperImpl successor = cw.handOver();
+        if(successor == null) return null;
+        successor.setBag(this);
+        boolean replaced = false;
+        writeLock.lock();
+        try{
+            ConnectionWrapperImpl[] current = entries;
+            for(int i = 0; i < current.length; i++){
+                if(current[i] != cw) continue;
+                ConnectionWrapperImpl[] next = current.clone();
+                next[i] = successor;
+                entries = next;
+                replaced = true;
+                break;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        cw.setState(STATE_REMOVED);
+        if(!replaced){
+            // Removed while it was being reclaimed, the revoked wrapper's close does nothing so close it here.
+            try{
+                successor.close();
+            } catch (Exception e){
+                logger.except("Exception closing a reclaimed connection removed from the pool.", e);
+            }
+            return null;
+        }
+        long now = System.nanoTime();
+        long holdNanos = now - cw.getBorrowedAt();
+        successor.markKnownGood(now);
+        metrics.recordHoldTime(holdNanos);
+        events.released(cw, holdNanos);
+        if(successor.compareAndSetState(STATE_RESERVED, STATE_NOT_IN_USE)) handOff(successor);
+        return successor;
+    }
+
+    /**
+     * Claims a freshly idle wrapper for the longest waiting borrower. Does nothing if nobody is
+     * waiting or someone else borrowed the wrapper first.
+     * Completing a waiter runs its callbacks on this thread, an async borrower releasing straight from
+     * a callback would recurse back in here once per queued waiter, so nested hand-offs are queued and
+     * run by the outermost call instead.
+     */
+    private void handOff(ConnectionWrapperImpl cw){
+        if(!hasWaiters()) return;
+        ArrayDeque<ConnectionWrapperImpl> nested = handingOff.get();
+        if(nested != null){
+            nested.add(cw);
+            return;
+        }
+        nested = new ArrayDeque<>();
+        handingOff.set(nested);
+        try{
+            do{
+                handOffNow(cw);
+            } while ((cw = nested.poll()) != null);
+        } finally {
+            handingOff.remove();
+        }
+    }
+
+    private void handOffNow(ConnectionWrapperImpl cw){
+        while(hasWaiters()){
+            if(!cw.compareAndSetState(STATE_NOT_IN_USE, STATE_IN_USE)) return;
+            // The waiter may take a moment to wake, stamp it now so the reclaimer doesn't see the old borrow.
+            cw.setBorrowedAt(System.nanoTime());
+            HandOff result = completeWaiter(cw);
+            if(result == HandOff.SERVED) return;
+            // Everyone queued had already given up, or only borrowers kept out of the reserved share are left.
+            // Put it back and, in the first case, look again in case a borrower just queued.
+            if(!cw.compareAndSetState(STATE_IN_USE, STATE_NOT_IN_USE) || result == HandOff.NO_SLOT) return;
+        }
+    }
+
+    private enum HandOff { SERVED, NOBODY_WAITING, NO_SLOT }
+
+    private HandOff completeWaiter(ConnectionWrapperImpl cw){
+        for(int i = 0; i < waitQueues.length; i++){
+            Queue<CompletableFuture<ConnectionWrapperImpl>> queue = waitQueues[i];
+            if(queue.isEmpty()) continue;
+            // Every class below HIGH draws on the same shared slots, if this one can't none below can.
+            boolean shared = i != Priority.HIGH.ordinal() && highPriorityReservedPercent > 0;
+            if(shared && !acquireSharedSlot()) return HandOff.NO_SLOT;
+            if(shared) cw.setSharedSlot(true);
+            CompletableFuture<ConnectionWrapperImpl> waiter;
+            while((waiter = queue.poll()) != null){
+                if(waiter.complete(cw)) return HandOff.SERVED;
+            }
+            if(shared) releaseSharedSlot(cw);
+        }
+        return HandOff.NOBODY_WAITING;
+    }
+
+    private boolean hasWaiters(){
+        for(Queue<CompletableFuture<ConnectionWrapperImpl>> queue : waitQueues){
+            if(!queue.isEmpty()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Takes an idle wrapper out of circulation so management can work on it without racing a borrower.
+     * @param cw The wrapper to reserve.
+     * @return True if the wrapper was idle and is now reserved.
+     */
+    boolean reserve(ConnectionWrapperImpl cw){
+        return cw.compareAndSetState(STATE_NOT_IN_USE, STATE_RESERVED);
+    }
+
+    /**
+     * Puts a reserved wrapper back into circulation.
+     * @param cw The wrapper to release from reservation.
+     */
+    void unreserve(ConnectionWrapperImpl cw){
+        if(cw.compareAndSetState(STATE_RESERVED, STATE_NOT_IN_USE)){
+            handOff(cw);
+        }
+    }
+
+    void add(ConnectionWrapperImpl cw){
+        if(closed) throw new IllegalStateException("Cannot add a connection to a closed pool.");
+        cw.setBag(this);
+        writeLock.lock();
+        try{
+            ConnectionWrapperImpl[] current = entries;
+            ConnectionWrapperImpl[] next = new ConnectionWrapperImpl[current.length + 1];
+            System.arraycopy(current, 0, next, 0, current.length);
+            next[current.length] = cw;
+            entries = next;
+        } finally {
+            writeLock.unlock();
+        }
+        handOff(cw);
+    }
+
+    /**
+     * Removes the wrapper from the bag regardless of its state, borrowers holding it keep it
+     * but it will never be handed out again.
+     * @param cw The wrapper to remove.
+     * @return True if the wrapper was part of the bag.
+     */
+    boolean remove(ConnectionWrapperImpl cw){
+        cw.setState(STATE_REMOVED);
+        if(releaseSharedSlot(cw)){
+            // A borrower kept out of the reserved share may be able to use an idle wrapper now.
+            for(ConnectionWrapperImpl idle : entries){
+                if(idle.getState() == STATE_NOT_IN_USE) handOff(idle);
+            }
+        }
+        writeLock.lock();
+        try{
+            ConnectionWrapperImpl[] current = entries;
+            for(int i = 0; i < current.length; i++){
+                if(current[i] != cw) continue;
+                ConnectionWrapperImpl[] next = new ConnectionWrapperImpl[current.length - 1];
+                System.arraycopy(current, 0, next, 0, i);
+                System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                entries = next;
+                return true;
+            }
+            return false;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return A point in time snapshot of every wrapper in the bag, the array must not be modified.
+     */
+    ConnectionWrapperImpl[] values(){
+        return entries;
+    }
+
+    int size(){
+        return entries.length;
+    }
+
+    int getWaiterCount(){
+        return waiters.get();
+    }
+
+    int getWaiterCount(Priority priority){
+        return waitersByPriority[priority.ordinal()].get();
+    }
+
+    int idleCount(){
+        int count = 0;
+        for(ConnectionWrapperImpl cw : entries){
+            if(cw.getState() == STATE_NOT_IN_USE) count++;
+        }
+        return count;
+    }
+
+    @Override
+    public void close(){
+        closed = true;
+        for(Queue<CompletableFuture<ConnectionWrapperImpl>> queue : waitQueues){
+            CompletableFuture<ConnectionWrapperImpl> waiter;
+            while((waiter = queue.poll()) != null){
+                waiter.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.kovisoft.simple.connection.pool.pg;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hard cap on the connections a group of pools may hold open together. A pool takes a permit before
+ * it opens a connection and gives it back when the connection leaves the pool, so the total never
+ * passes the cap no matter how the pools' shares are moving around.
+ */
+final class ConnectionBudget {
+
+    private final int maxConnections;
+    private final AtomicInteger open = new AtomicInteger();
+
+    ConnectionBudget(int maxConnections){
+        this.maxConnections = maxConnections;
+    }
+
+    boolean tryAcquire(){
+        int current;
+        do{
+            current = open.get();
+            if(current >= maxConnections) return false;
+        } while (!open.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    void release(int permits){
+        if(permits > 0) open.addAndGet(-permits);
+    }
+
+    int getMaxConnections(){
+        return maxConnections;
+    }
+
+    int getOpenConnections(){
+        return open.get();
+    }
+}
@@ -0,0 +1,186 @@
+package com.kovisoft.simple.connection.pool.pg;
+
+import com.kovisoft.logger.exports.Logger;
+import com.kovisoft.simple.connection.pool.exports.LeakReclaimPolicy;
+import com.kovisoft.simple.connection.pool.exports.PoolEventListener.EvictionReason;
+
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Gives borrowed connections back to the pool once postgres reports their backend idle,
+ * this is what recovers connections that callers never released.
+ * All borrowed pids are checked with a single pg_stat_activity query on a statement cached
+ * on the manager connection. The pass reschedules itself, running at the check interval while
+ * it finds work (or borrowers are waiting) and backing off towards the max interval while it doesn't.
+ * With a leak threshold set, the same pass reports borrows held past it and takes back the ones postgres
+ * doesn't report as idle (idle in transaction usually) with the leak reclaim policy, leaving any with a
+ * query still running alone. It also stretches the idle grace to the threshold, so a borrower that
+ * is only between statements isn't reset and reclaimed before it could even be reported as a leak.
+ * Without one the idle grace alone decides, it defaults to seconds rather than a check interval since
+ * reclaiming revokes the borrower's handle.
+ */
+final class ConnectionReclaimer implements Runnable {
+
+    static final String GET_CONN_STATES = "SELECT pid, state FROM pg_stat_activity WHERE pid = ANY(?)";
+
+    private final Logger logger;
+    private final ConnectionBag bag;
+    private final ManagerConnection managerConnection;
+    private final BiConsumer<ConnectionWrapperImpl, EvictionReason> remover;
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private final long graceNanos;
+    private final PoolMetricsImpl metrics;
+    private final PoolEventDispatcher events;
+    private final long leakThresholdNanos;
+    private final LeakReclaimPolicy leakPolicy;
+
+    private volatile ScheduledExecutorService scheduler;
+    private volatile boolean running = false;
+    private long currentIntervalMillis;
+
+    ConnectionReclaimer(Logger logger, ConnectionBag bag, ManagerConnection managerConnection,
+                        BiConsumer<ConnectionWrapperImpl, EvictionReason> remover, PoolMetricsImpl metrics,
+                        PoolEventDispatcher events, long minIntervalMillis, long maxIntervalMillis,
+                        long idleGraceMillis, long leakThresholdMillis, LeakReclaimPolicy leakPolicy){
+        this.logger = logger;
+        this.metrics = metrics;
+        this.events = events;
+        this.bag = bag;
+        this.managerConnection = managerConnection;
+        this.remover = remover;
+        this.minIntervalMillis = Math.max(1, minIntervalMillis);
+        this.maxIntervalMillis = Math.max(this.minIntervalMillis, maxIntervalMillis);
+        this.currentIntervalMillis = this.minIntervalMillis;
+        this.leakThresholdNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, leakThresholdMillis));
+        // With a leak threshold set a borrow is the borrower's until then, idle or not.
+        this.graceNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(Math.max(this.minIntervalMillis, idleGraceMillis)),
+                leakThresholdNanos);
+        this.leakPolicy = leakPolicy == null ? LeakReclaimPolicy.ROLLBACK_AND_RETURN : leakPolicy;
+    }
+
+    void start(ScheduledExecutorService scheduler){
+        this.scheduler = scheduler;
+        running = true;
+        scheduler.schedule(this, minIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void stop(){
+        running = false;
+    }
+
+    @Override
+    public void run() {
+        if(!running) return;
+        int count = 0;
+        try{
+            count = reclaim();
+        } catch (Exception e){
+            logger.except("Exception occurred while reclaiming idle connections.", e);
+        }
+        if(count > 0 || bag.getWaiterCount() > 0){
+            currentIntervalMillis = minIntervalMillis;
+        } else {
+            currentIntervalMillis = Math.min(currentIntervalMillis * 2, maxIntervalMillis);
+        }
+        try{
+            if(running) scheduler.schedule(this, currentIntervalMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e){
+            running = false;
+        }
+    }
+
+    /**
+     * Runs one reclaim pass over every borrowed connection.
+     * @return The number of connections given back to the pool.
+     * @throws SQLException Thrown if the state query itself fails.
+     */
+    int reclaim() throws SQLException {
+        Map<Integer, ConnectionWrapperImpl> borrowed = new HashMap<>();
+        Map<Integer, Long> borrowStamps = new HashMap<>();
+        for(ConnectionWrapperImpl cw : bag.values()){
+            if(cw.inUse() && cw.getPid() != null){
+                borrowed.put(cw.getPid(), cw);
+                borrowStamps.put(cw.getPid(), cw.getBorrowedAt());
+            }
+        }
+        if(borrowed.isEmpty()) return 0;
+
+        // The manager connection may be shared with other pools, only hold it for the query.
+        Map<Integer, String> states = managerConnection.use(manager -> {
+            Map<Integer, String> found = new HashMap<>();
+            PreparedStatement pStmt = manager.getPreparedStatement(GET_CONN_STATES);
+            Array pids = manager.getConnection().createArrayOf("integer", borrowed.keySet().toArray());
+            try{
+                pStmt.setArray(1, pids);
+                try(ResultSet rs = pStmt.executeQuery()){
+                    while (rs.next()){
+                        found.put(rs.getInt(1), rs.getString(2));
+                    }
+                }
+            } finally {
+                pids.free();
+            }
+            return found;
+        });
+        int count = 0;
+        for(Map.Entry<Integer, String> entry : states.entrySet()){
+            ConnectionWrapperImpl cw = borrowed.remove(entry.getKey());
+            if(cw == null) continue;
+            String state = entry.getValue();
+            // A borrow that started after the pids were collected (or was only just stamped when they were)
+            // isn't the one the state describes, it gets looked at next pass.
+            long borrowedAt = cw.getBorrowedAt();
+            if(borrowedAt != borrowStamps.get(entry.getKey())) continue;
+            long heldNanos = System.nanoTime() - borrowedAt;
+            boolean leaked = leakThresholdNanos > 0 && heldNanos >= leakThresholdNanos;
+            if(leaked && cw.markLeakReported()){
+                metrics.recordLeak();
+                events.leaked(cw, heldNanos, cw.getBorrowSite());
+            }
+            // Scoped borrows end when their work returns, however idle the backend looks in the meantime.
+            if(cw.isScoped() && state != null) continue;
+            // Freshly borrowed connections are idle until their first query, and borrowers pause between
+            // statements. Only a borrow idle past the idle grace (or the leak threshold, whichever is longer)
+            // goes back. The borrower may have left session state behind even without a transaction, and may
+            // still hold the wrapper. The handover resets the session and revokes the borrower's handle.
+            if("idle".equalsIgnoreCase(state) && heldNanos >= graceNanos){
+                if(bag.reclaim(cw) == null) continue;
+                events.reclaimed(cw);
+                count++;
+            } else if(state == null){
+                remover.accept(cw, EvictionReason.BACKEND_GONE);
+            } else if(leaked && !"active".equalsIgnoreCase(state) && reclaimLeak(cw)){
+                count++;
+            }
+        }
+        // Anything left has no backend anymore.
+        borrowed.values().forEach(cw -> remover.accept(cw, EvictionReason.BACKEND_GONE));
+        if(count > 0) metrics.recordReclaimed(count);
+        return count;
+    }
+
+    /**
+     * Applies the leak policy to a connection its borrower still holds. A connection whose session
+     * won't reset is closed instead, management sweeps it out.
+     * @return True if the connection went back to the pool.
+     */
+    private boolean reclaimLeak(ConnectionWrapperImpl cw){
+        if(leakPolicy == LeakReclaimPolicy.ROLLBACK_AND_RETURN){
+            if(bag.reclaim(cw) == null) return false;
+            events.reclaimed(cw);
+            return true;
+        }
+        remover.accept(cw, EvictionReason.LEAKED);
+        return false;
+    }
+}
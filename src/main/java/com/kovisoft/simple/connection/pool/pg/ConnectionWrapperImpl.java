@@ -1,30 +1,86 @@
 package com.kovisoft.simple.connection.pool.pg;
 
 import com.kovisoft.logger.exports.Logger;
-import com.kovisoft.logger.exports.LoggerFactory;
+import com.kovisoft.simple.connection.pool.exports.ConnectionFactory;
 import com.kovisoft.simple.connection.pool.exports.ConnectionWrapper;
+import com.kovisoft.simple.connection.pool.exports.CopyRowEncoder;
+import org.postgresql.PGConnection;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 public class ConnectionWrapperImpl implements ConnectionWrapper, AutoCloseable {
 
-    private final Logger logger;
+    private static final Logger logger = PoolLogger.LOGGER;
     private static final String GET_PID = "SELECT pid FROM pg_stat_activity WHERE pid = pg_backend_pid();";
-    private static final int REPLACEMENT_WARNING = 2;
+    private static final long REPLACEMENT_WARNING_NANOS = TimeUnit.MINUTES.toNanos(2);
+    private static final int DEFAULT_CACHED_STATEMENTS = 200;
+    private static final int DEFAULT_STATEMENT_CHARACTERS = 2048;
+
+    // Wrapper states, flipped with CAS by the pool so borrowing never needs a shared lock.
+    static final int STATE_NOT_IN_USE = 0;
+    static final int STATE_IN_USE = 1;
+    static final int STATE_RESERVED = -1;
+    static final int STATE_REMOVED = -2;
+    private static final AtomicIntegerFieldUpdater<ConnectionWrapperImpl> STATE_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(ConnectionWrapperImpl.class, "state");
+
     private Integer pid;
     private Connection connection;
     private final LocalDateTime expiration;
+    // Expiry is checked on every management pass, compared on nanoTime so the checks never allocate.
+    private final long expiresAtNanos;
+    private final long replaceAtNanos;
+    private volatile boolean retiring = false;
+    // Last time the connection was known to work (returned by a borrower or validated), validation skips recent ones.
+    private volatile long lastKnownGoodNanos = System.nanoTime();
 
-    volatile boolean inUse = false;
+    private volatile int state = STATE_NOT_IN_USE;
+    private volatile ConnectionBag bag;
+    // Stamped on every borrow and hand-off, read by the reclaimer's thread for hold times and the leak threshold.
+    private volatile long borrowedAt;
+    // Set by the pool for sampled borrows when leak detection is on, read by the reclaimer.
+    private volatile Exception borrowSite;
+    private volatile boolean leakReported;
+    // Set once the reclaimer takes the connection from its borrower, the old borrower's handle is dead.
+    private volatile boolean revoked;
+    // Set for the length of a withConnection borrow, the borrow ends when the work returns so the reclaimer leaves it alone.
+    private volatile boolean scoped;
+    // Set while a borrower below HIGH priority holds the wrapper on one of the bag's shared slots.
+    private final AtomicBoolean sharedSlot = new AtomicBoolean();
     protected HashMap<String, PreparedStatement> preparedStatements = new HashMap<>();
+    // What each of the statements above was prepared from, a successor wrapper prepares its own from these.
+    private final HashMap<String, StatementSource> statementSources = new HashMap<>();
+    // Ad-hoc statements, the pool swaps in one sized from its config before the wrapper is handed out.
+    private StatementCache statementCache = new StatementCache(DEFAULT_CACHED_STATEMENTS,
+            DEFAULT_STATEMENT_CHARACTERS, (long) DEFAULT_CACHED_STATEMENTS * DEFAULT_STATEMENT_CHARACTERS, null);
     private boolean closed = false;
+    // Set in lazy preparation mode, registered keys are prepared on first use instead of up front.
+    private StatementRegistry statementRegistry;
+    private volatile int preparedHotVersion = -1;
+    // Set when the pool promotes hot ad-hoc SQL, every lookup is counted so it can tell what is hot.
+    private StatementPromoter statementPromoter;
+    private volatile int syncedPromotionVersion;
+    // Created on the first COPY, keeps its transfer buffer for the life of the connection.
+    private PgCopy copy;
+    // Borrowers get the tracker's proxy, release resets only what they changed.
+    private SessionStateTracker session;
+    // Registered statements whose sql changes session parameters, running one dirties the session.
+    private Set<String> sessionStatementKeys = Set.of();
+
+    private record StatementSource(String sql, Integer constant){}
 
     @Override
     public boolean hasExpired(){
-        return LocalDateTime.now().isAfter(expiration);
+        return System.nanoTime() - expiresAtNanos >= 0;
     }
 
     @Override
@@ -34,6 +90,7 @@ public class ConnectionWrapperImpl implements ConnectionWrapper, AutoCloseable {
 
     @Override
     public boolean isClosed(){
+        if(revoked) return true;
         try{
             closed = connection.isClosed();
         } catch (SQLException e) {
@@ -50,39 +107,62 @@ public class ConnectionWrapperImpl implements ConnectionWrapper, AutoCloseable {
 
     @Override
     public Connection borrowConnection() {
-        if(inUse) return null;
-        inUse = true;
-        return connection;
+        // Pooled wrappers are already marked in use by the pool when they are handed out.
+        if(bag != null) return session.getConnection();
+        if(!compareAndSetState(STATE_NOT_IN_USE, STATE_IN_USE)) return null;
+        return session.getConnection();
     }
 
     @Override
     public boolean inUse(){
-        return inUse;
+        return state == STATE_IN_USE;
     }
 
     @Override
     public void release() {
-        inUse = false;
+        // The connection was reclaimed and may already be someone else's, a late release must not touch it.
+        if(revoked) return;
+        ConnectionBag owner = bag;
+        if(owner != null){
+            scoped = false;
+            if(state == STATE_IN_USE && !resetSession()) return;
+            owner.requite(this);
+        } else {
+            compareAndSetState(STATE_IN_USE, STATE_NOT_IN_USE);
+        }
     }
 
     @Override
     public PreparedStatement getPreparedStatement(String keyOrStmtString) throws NullPointerException, SQLException {
         if(keyOrStmtString == null) throw new NullPointerException("Prepared statement keys cannot be null!");
-        if(preparedStatements.containsKey(keyOrStmtString)){
-            return preparedStatements.get(keyOrStmtString);
-        } else {
-            return connection.prepareStatement(keyOrStmtString);
+        if(revoked) throw SessionStateTracker.reclaimed();
+        PreparedStatement registered = preparedStatements.get(keyOrStmtString);
+        if(registered == null && statementRegistry != null) registered = prepareRegistered(keyOrStmtString);
+        if(statementPromoter != null && (registered == null || statementPromoter.isPromoted(keyOrStmtString))){
+            statementPromoter.record(keyOrStmtString);
         }
+        if(registered != null){
+            if(statementRegistry != null) statementRegistry.recordUse(keyOrStmtString);
+            if(!sessionStatementKeys.isEmpty() && sessionStatementKeys.contains(keyOrStmtString)) session.markSessionParameters();
+            return registered;
+        }
+        session.inspect(keyOrStmtString);
+        return statementCache.get(connection, keyOrStmtString);
     }
 
     @Override
     public PreparedStatement getPreparedStatement(String keyOrStmtString, int statementConst) throws NullPointerException, SQLException {
         if(keyOrStmtString == null) throw new NullPointerException("Prepared statement keys cannot be null!");
-        if(preparedStatements.containsKey(keyOrStmtString)){
-            return preparedStatements.get(keyOrStmtString);
-        } else {
-            return connection.prepareStatement(keyOrStmtString, statementConst);
+        if(revoked) throw SessionStateTracker.reclaimed();
+        PreparedStatement registered = preparedStatements.get(keyOrStmtString);
+        if(registered == null && statementRegistry != null) registered = prepareRegistered(keyOrStmtString);
+        if(registered != null){
+            if(statementRegistry != null) statementRegistry.recordUse(keyOrStmtString);
+            if(!sessionStatementKeys.isEmpty() && sessionStatementKeys.contains(keyOrStmtString)) session.markSessionParameters();
+            return registered;
         }
+        session.inspect(keyOrStmtString);
+        return statementCache.get(connection, keyOrStmtString, statementConst);
     }
 
     /**
@@ -94,46 +174,113 @@ public class ConnectionWrapperImpl implements ConnectionWrapper, AutoCloseable {
      * @throws SQLException Thrown from creating connection.
      */
     public ConnectionWrapperImpl(String url, String user, String pass) throws SQLException {
-        try{
-            logger = LoggerFactory.createLogger(System.getProperty("user.dir") + "/logs",
-                    "DB_pool_");
-        } catch (IOException e) {
-            throw new RuntimeException("Could not startup the Connection Wrapper logger!", e);
-        }
-        connection = DriverManager.getConnection(url, user, pass);
-        this.expiration = LocalDateTime.now();
+        this(ConnectionFactory.forUrl(url, user, pass));
     }
 
+    /**
+     * Not meant to be used for pooling, same as the url version but the connection comes from the factory.
+     * @param connectionFactory Opens the wrapped connection.
+     * @throws SQLException Thrown from creating connection.
+     */
+    public ConnectionWrapperImpl(ConnectionFactory connectionFactory) throws SQLException {
+        connection = connectionFactory.createConnection();
+        session = new SessionStateTracker(connection);
+        this.expiration = LocalDateTime.now();
+        this.expiresAtNanos = System.nanoTime();
+        this.replaceAtNanos = expiresAtNanos;
+    }
 
-    protected ConnectionWrapperImpl(String url, String user, String pass, int lifespanMinutes) throws SQLException {
+    /**
+     * @param connectionFactory Opens the wrapped connection.
+     * @param lifespanNanos How long until the wrapper expires, the pool jitters this per connection.
+     * @throws SQLException Thrown from creating the connection or looking up its pid.
+     */
+    protected ConnectionWrapperImpl(ConnectionFactory connectionFactory, long lifespanNanos) throws SQLException {
+        this.expiration = LocalDateTime.now().plusNanos(lifespanNanos);
+        this.expiresAtNanos = System.nanoTime() + lifespanNanos;
+        this.replaceAtNanos = expiresAtNanos - Math.min(REPLACEMENT_WARNING_NANOS, lifespanNanos / 2);
+        connection = connectionFactory.createConnection();
         try{
-            logger = LoggerFactory.createLogger(System.getProperty("user.dir") + "/logs",
-                    "DB_pool_");
-        } catch (IOException e) {
-            throw new RuntimeException("Could not startup the Connection Wrapper logger!", e);
+            session = new SessionStateTracker(connection);
+            setConnectionPid();
+        } catch (SQLException e){
+            // Don't leak the physical connection when the wrapper never makes it into the pool.
+            connection.close();
+            throw e;
         }
-        this.expiration = LocalDateTime.now().plusMinutes(lifespanMinutes);
-        connection = DriverManager.getConnection(url, user, pass);
-        setConnectionPid();
     }
 
-    protected ConnectionWrapperImpl(String url, String user, String pass, int lifespanMinutes,
+    protected ConnectionWrapperImpl(ConnectionFactory connectionFactory, long lifespanNanos,
                                     Map<String, String> statements) throws SQLException {
-        this(url, user, pass, lifespanMinutes);
+        this(connectionFactory, lifespanNanos);
         addPreparedStatements(statements);
     }
 
-    protected ConnectionWrapperImpl(String url, String user, String pass, int lifespanMinutes,
+    protected ConnectionWrapperImpl(ConnectionFactory connectionFactory, long lifespanNanos,
                                     Map<String, String> statements, Map<String, Integer> constants) throws SQLException {
-        this(url, user, pass, lifespanMinutes);
+        this(connectionFactory, lifespanNanos);
         addPreparedStatements(statements, constants);
     }
 
+    /**
+     * Takes over a reclaimed wrapper's connection and lifespan. Its statements are prepared afresh from the
+     * same sql, the old borrower may still hold the previous ones. Starts reserved so it can be put in the
+     * bag before anyone borrows it.
+     * @throws SQLException If a statement could not be prepared.
+     */
+    private ConnectionWrapperImpl(ConnectionWrapperImpl previous) throws SQLException {
+        this.pid = previous.pid;
+        this.connection = previous.connection;
+        this.expiration = previous.expiration;
+        this.expiresAtNanos = previous.expiresAtNanos;
+        this.replaceAtNanos = previous.replaceAtNanos;
+        this.retiring = previous.retiring;
+        this.lastKnownGoodNanos = previous.lastKnownGoodNanos;
+        this.statementCache = previous.statementCache.emptyCopy();
+        this.statementRegistry = previous.statementRegistry;
+        this.preparedHotVersion = previous.preparedHotVersion;
+        this.statementPromoter = previous.statementPromoter;
+        this.syncedPromotionVersion = previous.syncedPromotionVersion;
+        this.copy = previous.copy;
+        this.session = new SessionStateTracker(previous.session);
+        this.state = STATE_RESERVED;
+        for(Map.Entry<String, StatementSource> entry : previous.statementSources.entrySet()){
+            prepare(entry.getKey(), entry.getValue().sql(), entry.getValue().constant());
+        }
+    }
+
+    @Override
+    public long copyIn(String copySql, InputStream in) throws SQLException, IOException {
+        return copy().copyIn(copySql, in);
+    }
+
+    @Override
+    public long copyIn(String copySql, ReadableByteChannel in) throws SQLException, IOException {
+        return copy().copyIn(copySql, in);
+    }
+
+    @Override
+    public <T> long copyIn(String copySql, Iterable<? extends T> rows, CopyRowEncoder<? super T> encoder)
+            throws SQLException, IOException {
+        return copy().copyIn(copySql, rows, encoder);
+    }
+
+    @Override
+    public long copyOut(String copySql, OutputStream out) throws SQLException, IOException {
+        return copy().copyOut(copySql, out);
+    }
+
+    private PgCopy copy() throws SQLException {
+        if(revoked) throw SessionStateTracker.reclaimed();
+        if(copy == null) copy = new PgCopy(connection.unwrap(PGConnection.class).getCopyAPI());
+        return copy;
+    }
+
     public void addPreparedStatements(Map<String, String> prepStatements) throws SQLException {
         for(Map.Entry<String, String> entry : prepStatements.entrySet()){
             if(preparedStatements.containsKey(entry.getKey())) continue;
             if(entry.getValue() == null) continue;
-            preparedStatements.put(entry.getKey(), connection.prepareStatement(entry.getValue()));
+            prepare(entry.getKey(), entry.getValue(), null);
         }
     }
 
@@ -142,13 +289,212 @@ public class ConnectionWrapperImpl implements ConnectionWrapper, AutoCloseable {
         for(Map.Entry<String, String> entry : prepStatements.entrySet()){
             if(preparedStatements.containsKey(entry.getKey())) continue;
             if(entry.getValue() == null) continue;
-            if(stmtConstants.containsKey(entry.getKey())){
-                preparedStatements.put(entry.getKey(),
-                        connection.prepareStatement(entry.getValue(), stmtConstants.get(entry.getKey())));
-            } else {
-                preparedStatements.put(entry.getKey(), connection.prepareStatement(entry.getValue()));
+            prepare(entry.getKey(), entry.getValue(), stmtConstants.get(entry.getKey()));
+        }
+    }
+
+    /**
+     * Prepares a registered key that this connection has not prepared yet.
+     * @return The new statement, or null if the key is not registered.
+     */
+    private PreparedStatement prepareRegistered(String key) throws SQLException {
+        String sql = statementRegistry.sqlFor(key);
+        if(sql == null) return null;
+        return prepare(key, sql, statementRegistry.constantFor(key));
+    }
+
+    private PreparedStatement prepare(String key, String sql, Integer constant) throws SQLException {
+        PreparedStatement pStmt = constant == null ? connection.prepareStatement(sql)
+                : connection.prepareStatement(sql, constant);
+        preparedStatements.put(key, pStmt);
+        statementSources.put(key, new StatementSource(sql, constant));
+        if(SessionStateTracker.changesSession(sql) && !sessionStatementKeys.contains(key)){
+            Set<String> keys = new HashSet<>(sessionStatementKeys);
+            keys.add(key);
+            sessionStatementKeys = keys;
+        }
+        return pStmt;
+    }
+
+    /**
+     * Undoes whatever session state the borrower changed, a connection that can't be reset is closed
+     * rather than handed to the next borrower, management sweeps it out of the pool.
+     * @return True if the connection is clean and can go back to the pool.
+     */
+    boolean resetSession(){
+        try{
+            session.reset();
+            return true;
+        } catch (SQLException e){
+            logger.warn("Could not reset the session of connection " + pid + ", closing it.", e);
+            try{
+                connection.close();
+            } catch (SQLException closeException){
+                logger.except("Exception trying to close connection!", closeException);
             }
+            return false;
+        }
+    }
+
+    /**
+     * Takes the connection away from a borrower that never released it. The borrower's proxy and this
+     * wrapper are revoked first, so release and close do nothing and statement lookups fail. Then the
+     * session is reset, a new wrapper takes over the connection with statements of its own, and every
+     * statement this one handed out is closed. The caller must have reserved it.
+     * @return The wrapper that now owns the connection, or null if the session wouldn't reset or the
+     *         statements couldn't be prepared again (the connection is closed then and management sweeps
+     *         this wrapper out).
+     */
+    ConnectionWrapperImpl handOver(){
+        session.revoke();
+        revoked = true;
+        ConnectionWrapperImpl successor = null;
+        if(resetSession()){
+            try{
+                successor = new ConnectionWrapperImpl(this);
+            } catch (SQLException e){
+                logger.warn("Could not prepare the statements of reclaimed connection " + pid + ", closing it.", e);
+                try{
+                    connection.close();
+                } catch (SQLException closeException){
+                    logger.except("Exception trying to close connection!", closeException);
+                }
+            }
+        }
+        closeStatements();
+        return successor;
+    }
+
+    /**
+     * Prepares whichever of the registry's hot keys are missing, the caller must own the wrapper
+     * (a new wrapper, or one reserved from the bag).
+     * @return The number of statements prepared.
+     */
+    int prepareHotStatements() throws SQLException {
+        int version = statementRegistry.getHotVersion();
+        int count = 0;
+        for(String key : statementRegistry.getHottest()){
+            if(!preparedStatements.containsKey(key) && prepareRegistered(key) != null) count++;
+        }
+        preparedHotVersion = version;
+        return count;
+    }
+
+    boolean needsHotStatements(){
+        return statementRegistry != null && preparedHotVersion != statementRegistry.getHotVersion();
+    }
+
+    /**
+     * Catches up with promotions and demotions, demoted statements are closed and eagerly registered
+     * statements are prepared. The caller must own the wrapper.
+     * @param registered The pool's registered statements.
+     * @param constants The pool's statement constants.
+     * @param eager True when the pool prepares every registered statement up front.
+     */
+    void syncPromotedStatements(Map<String, String> registered, Map<String, Integer> constants,
+                                boolean eager) throws SQLException {
+        int version = statementPromoter.getVersion();
+        Iterator<Map.Entry<String, PreparedStatement>> iterator = preparedStatements.entrySet().iterator();
+        while (iterator.hasNext()){
+            Map.Entry<String, PreparedStatement> entry = iterator.next();
+            if(GET_PID.equals(entry.getKey()) || registered.containsKey(entry.getKey())) continue;
+            iterator.remove();
+            statementSources.remove(entry.getKey());
+            entry.getValue().close();
         }
+        if(eager) addPreparedStatements(registered, constants);
+        syncedPromotionVersion = version;
+    }
+
+    boolean needsPromotionSync(){
+        return statementPromoter != null && syncedPromotionVersion != statementPromoter.getVersion();
+    }
+
+    /**
+     * @param statementPromoter The pool's promoter.
+     * @param syncedVersion The promoter version the wrapper's registered statements were prepared from.
+     */
+    void setStatementPromoter(StatementPromoter statementPromoter, int syncedVersion){
+        this.statementPromoter = statementPromoter;
+        this.syncedPromotionVersion = syncedVersion;
+    }
+
+    void setStatementRegistry(StatementRegistry statementRegistry){
+        this.statementRegistry = statementRegistry;
+    }
+
+    boolean compareAndSetState(int expect, int update){
+        return STATE_UPDATER.compareAndSet(this, expect, update);
+    }
+
+    int getState(){
+        return state;
+    }
+
+    void setState(int update){
+        state = update;
+    }
+
+    long getBorrowedAt(){
+        return borrowedAt;
+    }
+
+    void setBorrowedAt(long nanos){
+        borrowedAt = nanos;
+    }
+
+    /**
+     * Starts leak tracking for a new borrow.
+     * @param borrowSite The borrower's stack, null when this borrow wasn't sampled.
+     */
+    void setBorrowSite(Exception borrowSite){
+        this.borrowSite = borrowSite;
+        this.leakReported = false;
+    }
+
+    Exception getBorrowSite(){
+        return borrowSite;
+    }
+
+    /**
+     * @return True the first time it is called for the current borrow.
+     */
+    boolean markLeakReported(){
+        if(leakReported) return false;
+        leakReported = true;
+        return true;
+    }
+
+    void setScoped(boolean scoped){
+        this.scoped = scoped;
+    }
+
+    boolean isScoped(){
+        return scoped;
+    }
+
+    void setSharedSlot(boolean held){
+        sharedSlot.set(held);
+    }
+
+    /**
+     * @return True if the wrapper held a shared slot, only one caller gets true per slot.
+     */
+    boolean clearSharedSlot(){
+        return sharedSlot.get() && sharedSlot.getAndSet(false);
+    }
+
+    void setBag(ConnectionBag bag){
+        this.bag = bag;
+    }
+
+    void setStatementCache(StatementCache statementCache){
+        this.statementCache.close();
+        this.statementCache = statementCache;
+    }
+
+    StatementCache getStatementCache(){
+        return statementCache;
     }
 
     protected int countStatements(){
@@ -160,15 +506,38 @@ public class ConnectionWrapperImpl implements ConnectionWrapper, AutoCloseable {
     }
 
     protected boolean notReadyForReplacement(){
-        return !LocalDateTime.now().plusMinutes(REPLACEMENT_WARNING).isAfter(expiration);
+        return System.nanoTime() - replaceAtNanos < 0;
     }
 
-    protected boolean validate() throws SQLException {
-        boolean valid = connection.isValid(5);
+    long getExpiresAtNanos(){
+        return expiresAtNanos;
+    }
+
+    /**
+     * @return True once the pool has started opening a replacement, the wrapper keeps serving until it is retired.
+     */
+    boolean isRetiring(){
+        return retiring;
+    }
+
+    void markRetiring(){
+        retiring = true;
+    }
+
+    protected boolean validate(int timeoutSeconds) throws SQLException {
+        boolean valid = connection.isValid(timeoutSeconds);
         //logger.info("Connection validity: " + valid);
         return valid;
     }
 
+    long getLastKnownGoodNanos(){
+        return lastKnownGoodNanos;
+    }
+
+    void markKnownGood(long nanos){
+        lastKnownGoodNanos = nanos;
+    }
+
 
 
     private void setConnectionPid() throws SQLException {
@@ -179,24 +548,15 @@ public class ConnectionWrapperImpl implements ConnectionWrapper, AutoCloseable {
         }
         if(pid == null) throw new SQLException("Could not retrieve pid for established connection");
         preparedStatements.put(GET_PID, pStmt);
+        statementSources.put(GET_PID, new StatementSource(GET_PID, null));
     }
 
     @Override
     public void close() throws Exception {
+        // Revoked wrappers closed their statements then, the connection is a successor's or already closed.
+        if(revoked) return;
         logger.info("Closing connection!");
-        Exception lastException = null;
-        if(preparedStatements != null){
-            for(Map.Entry<String, PreparedStatement> entry : preparedStatements.entrySet()){
-                try{
-                    entry.getValue().close();
-                } catch (Exception e){
-                    String stmt = entry.getKey();
-                    stmt = (stmt.length() > 64) ? stmt.substring(0,64) : stmt;
-                    logger.except("Exception trying to close prepared statement: " + stmt, e);
-                    lastException = e;
-                }
-            }
-        }
+        Exception lastException = closeStatements();
         try{
             if(connection != null && !connection.isClosed()){
                 connection.close();
@@ -211,4 +571,23 @@ public class ConnectionWrapperImpl implements ConnectionWrapper, AutoCloseable {
         }
         closed = true;
     }
+
+    /**
+     * @return The last exception thrown closing a statement, null if they all closed.
+     */
+    private Exception closeStatements(){
+        Exception lastException = null;
+        statementCache.close();
+        for(Map.Entry<String, PreparedStatement> entry : preparedStatements.entrySet()){
+            try{
+                entry.getValue().close();
+            } catch (Exception e){
+                String stmt = entry.getKey();
+                stmt = (stmt.length() > 64) ? stmt.substring(0,64) : stmt;
+                logger.except("Exception trying to close prepared statement: " + stmt, e);
+                lastException = e;
+            }
+        }
+        return lastException;
+    }
 }
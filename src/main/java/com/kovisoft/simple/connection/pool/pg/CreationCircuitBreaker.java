@@ -0,0 +1,141 @@
+package com.kovisoft.simple.connection.pool.pg;
+
+import com.kovisoft.simple.connection.pool.exports.CircuitState;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Guards connection creation. After failureThreshold failures in a row the circuit opens and nothing is
+ * opened until the backoff passes, then exactly one creation is let through as a probe. The probe succeeding
+ * closes the circuit, failing reopens it with twice the backoff, up to the max. Each backoff is jittered
+ * between half and all of its value so pools that lost the same server don't all probe it at once.
+ * State is only changed under the lock, creation is rare so that never contends with borrowers, who only
+ * read the volatile state.
+ */
+final class CreationCircuitBreaker {
+
+    interface Listener {
+        void stateChanged(CircuitState from, CircuitState to, long retryInNanos, Exception cause);
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final int failureThreshold;
+    private final long baseBackoffNanos;
+    private final long maxBackoffNanos;
+    private final Listener listener;
+    private volatile CircuitState state = CircuitState.CLOSED;
+    private volatile long retryAtNanos;
+    private volatile Exception lastFailure;
+    private volatile int consecutiveFailures;
+    private int opens;
+
+    /**
+     * @param failureThreshold Failures in a row that open the circuit, 0 or less never opens it.
+     * @param baseBackoffMillis Backoff after the circuit first opens.
+     * @param maxBackoffMillis Most the backoff grows to.
+     * @param listener Told about every state change, called after the lock is released.
+     */
+    CreationCircuitBreaker(int failureThreshold, long baseBackoffMillis, long maxBackoffMillis, Listener listener){
+        this.failureThreshold = failureThreshold;
+        this.baseBackoffNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, baseBackoffMillis));
+        this.maxBackoffNanos = Math.max(baseBackoffNanos, TimeUnit.MILLISECONDS.toNanos(maxBackoffMillis));
+        this.listener = listener;
+    }
+
+    CircuitState getState(){
+        return state;
+    }
+
+    /**
+     * @return The failure that last opened the circuit, null while closed.
+     */
+    Exception getLastFailure(){
+        return state == CircuitState.CLOSED ? null : lastFailure;
+    }
+
+    /**
+     * @return How long until the next probe, 0 while closed or once it is due.
+     */
+    long getRetryInNanos(){
+        if(state != CircuitState.OPEN) return 0;
+        return Math.max(0, retryAtNanos - System.nanoTime());
+    }
+
+    /**
+     * How many of the wanted creations to start, all of them while closed, one once a probe is due, else none.
+     */
+    int permits(int wanted){
+        return switch (state){
+            case CLOSED -> wanted;
+            case OPEN -> System.nanoTime() - retryAtNanos >= 0 ? Math.min(1, wanted) : 0;
+            case HALF_OPEN -> 0;
+        };
+    }
+
+    /**
+     * Called before opening a connection. Moves a due open circuit to half open, the caller is its probe.
+     * @return False if the connection must not be opened.
+     */
+    boolean tryAcquire(){
+        CircuitState current = state;
+        if(current == CircuitState.CLOSED) return true;
+        if(current == CircuitState.HALF_OPEN || System.nanoTime() - retryAtNanos < 0) return false;
+        lock.lock();
+        try{
+            if(state != CircuitState.OPEN || System.nanoTime() - retryAtNanos < 0) return false;
+            state = CircuitState.HALF_OPEN;
+        } finally {
+            lock.unlock();
+        }
+        listener.stateChanged(CircuitState.OPEN, CircuitState.HALF_OPEN, 0, null);
+        return true;
+    }
+
+    void onSuccess(){
+        if(state == CircuitState.CLOSED && consecutiveFailures == 0) return;
+        CircuitState from;
+        lock.lock();
+        try{
+            consecutiveFailures = 0;
+            opens = 0;
+            from = state;
+            state = CircuitState.CLOSED;
+        } finally {
+            lock.unlock();
+        }
+        if(from != CircuitState.CLOSED) listener.stateChanged(from, CircuitState.CLOSED, 0, null);
+    }
+
+    /**
+     * A failed probe reopens the circuit, failures from creations started before it opened change nothing.
+     */
+    void onFailure(Exception cause){
+        if(failureThreshold <= 0) return;
+        CircuitState from;
+        long backoff;
+        lock.lock();
+        try{
+            from = state;
+            if(from == CircuitState.OPEN) return;
+            if(from == CircuitState.CLOSED && ++consecutiveFailures < failureThreshold) return;
+            backoff = jitteredBackoff(++opens);
+            lastFailure = cause;
+            retryAtNanos = System.nanoTime() + backoff;
+            state = CircuitState.OPEN;
+        } finally {
+            lock.unlock();
+        }
+        listener.stateChanged(from, CircuitState.OPEN, backoff, cause);
+    }
+
+    private long jitteredBackoff(int opens){
+        int doublings = opens - 1;
+        // Shifting past the leading zeros would overflow, by then it is well past the max anyway.
+        long backoff = doublings >= Long.numberOfLeadingZeros(baseBackoffNanos) - 1 ? maxBackoffNanos
+                : Math.min(maxBackoffNanos, baseBackoffNanos << doublings);
+        long half = backoff / 2;
+        return half + ThreadLocalRandom.current().nextLong(backoff - half + 1);
+    }
+}
@@ -0,0 +1,63 @@
+package com.kovisoft.simple.connection.pool.pg;
+
+/**
+ * Count-min sketch estimating how often a string has been seen in a fixed amount of memory.
+ * Four rows of counters indexed by differently mixed hashes, the estimate is the smallest of the
+ * four so collisions only ever over count. Increments are plain (not atomic) writes, under contention
+ * a few are lost which only under counts the hottest strings a little, that is fine for picking them out.
+ * Counts are halved by the owner periodically so old popularity fades.
+ */
+final class FrequencySketch {
+
+    private static final int DEPTH = 4;
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    private final int[] table;
+    private final int mask;
+
+    /**
+     * @param expectedDistinct Roughly how many distinct strings are expected, the width is the next power of two
+     *                         of four times this.
+     */
+    FrequencySketch(int expectedDistinct){
+        int width = Integer.highestOneBit(Math.max(16, expectedDistinct * 4 - 1)) << 1;
+        this.mask = width - 1;
+        this.table = new int[DEPTH * width];
+    }
+
+    /**
+     * @return The new estimate for the value.
+     */
+    int increment(String value){
+        int hash = value.hashCode();
+        int estimate = Integer.MAX_VALUE;
+        for(int row = 0; row < DEPTH; row++){
+            int index = indexOf(hash, row);
+            int count = table[index];
+            if(count != Integer.MAX_VALUE) table[index] = ++count;
+            estimate = Math.min(estimate, count);
+        }
+        return estimate;
+    }
+
+    int estimate(String value){
+        int hash = value.hashCode();
+        int estimate = Integer.MAX_VALUE;
+        for(int row = 0; row < DEPTH; row++){
+            estimate = Math.min(estimate, table[indexOf(hash, row)]);
+        }
+        return estimate;
+    }
+
+    void halve(){
+        for(int i = 0; i < table.length; i++){
+            table[i] >>>= 1;
+        }
+    }
+
+    private int indexOf(int hash, int row){
+        int mixed = hash * SEEDS[row];
+        mixed ^= mixed >>> 16;
+        return row * (mask + 1) + (mixed & mask);
+    }
+}
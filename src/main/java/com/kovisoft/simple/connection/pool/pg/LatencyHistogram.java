@@ -0,0 +1,79 @@
+package com.kovisoft.simple.connection.pool.pg;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free log-linear histogram of nanosecond latencies. Every power of two range is split into
+ * 8 linear sub buckets so a reported percentile is within 12.5% of the real value, up to about
+ * 18 minutes (2^40 ns), anything above lands in the last bucket. Recording is an index calculation
+ * plus a LongAdder increment, no locks and no allocation, so it can stay on in the borrow path.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+
+    LatencyHistogram(){
+        for(int i = 0; i < BUCKETS; i++){
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(long nanos){
+        buckets[indexFor(Math.max(0, nanos))].increment();
+        count.increment();
+    }
+
+    long getCount(){
+        return count.sum();
+    }
+
+    /**
+     * @param percentile Between 0 and 1, for example 0.99.
+     * @return The upper bound of the bucket holding the percentile in nanos, 0 if nothing was recorded.
+     */
+    long percentile(double percentile){
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for(int i = 0; i < BUCKETS; i++){
+            snapshot[i] = buckets[i].sum();
+            total += snapshot[i];
+        }
+        if(total == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(total * percentile));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++){
+            seen += snapshot[i];
+            if(seen >= target) return upperBound(i);
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    void reset(){
+        for(LongAdder bucket : buckets){
+            bucket.reset();
+        }
+        count.reset();
+    }
+
+    static int indexFor(long value){
+        if(value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if(exponent > MAX_EXPONENT) return BUCKETS - 1;
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBound(int index){
+        if(index < SUB_BUCKETS) return index;
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + (subBucket + 1) * width - 1;
+    }
+}
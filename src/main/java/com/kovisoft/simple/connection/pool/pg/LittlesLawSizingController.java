@@ -0,0 +1,89 @@
+package com.kovisoft.simple.connection.pool.pg;
+
+import com.kovisoft.simple.connection.pool.exports.PoolSizingController;
+import com.kovisoft.simple.connection.pool.exports.PoolSizingSample;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Default sizing controller. By Little's law the connections busy on average are arrival rate times hold
+ * time, both smoothed with an EWMA (time constant of a few seconds so a spike is followed within seconds,
+ * not minutes). On top of that a square root burst reserve is kept, the usual staffing rule that gives
+ * a small pool proportionally more headroom than a large one. When borrowers miss the wait target
+ * (average wait above it, timeouts, or borrowers queued) the pool grows straight away regardless of the model.
+ * Shrinking is damped: the model has to ask for less for the whole shrink delay, then the pool
+ * steps down by half the gap per decision, so a quiet moment doesn't empty it right before the next burst.
+ */
+public class LittlesLawSizingController implements PoolSizingController {
+
+    private static final long DEFAULT_SMOOTHING_MILLIS = 5000;
+    private static final long DEFAULT_SHRINK_DELAY_MILLIS = 30000;
+    private static final double DEFAULT_BURST_FACTOR = 1.0;
+
+    private final long waitTargetNanos;
+    private final double smoothingNanos;
+    private final long shrinkDelayNanos;
+    private final double burstFactor;
+
+    private boolean initialized = false;
+    private double arrivalsPerNano;
+    private double holdNanos;
+    private boolean shrinking = false;
+    private long belowSince;
+
+    /**
+     * @param waitTargetMillis The average borrow wait the pool should stay under.
+     */
+    public LittlesLawSizingController(long waitTargetMillis){
+        this(waitTargetMillis, DEFAULT_SMOOTHING_MILLIS, DEFAULT_SHRINK_DELAY_MILLIS, DEFAULT_BURST_FACTOR);
+    }
+
+    /**
+     * @param waitTargetMillis The average borrow wait the pool should stay under.
+     * @param smoothingMillis EWMA time constant for the arrival rate and hold time.
+     * @param shrinkDelayMillis How long the model must ask for fewer connections before the pool shrinks.
+     * @param burstFactor Multiplier of the square root burst reserve, 0 disables it.
+     */
+    public LittlesLawSizingController(long waitTargetMillis, long smoothingMillis, long shrinkDelayMillis,
+                                      double burstFactor){
+        this.waitTargetNanos = TimeUnit.MILLISECONDS.toNanos(waitTargetMillis);
+        this.smoothingNanos = Math.max(1, TimeUnit.MILLISECONDS.toNanos(smoothingMillis));
+        this.shrinkDelayNanos = TimeUnit.MILLISECONDS.toNanos(shrinkDelayMillis);
+        this.burstFactor = burstFactor;
+    }
+
+    @Override
+    public int targetConnections(PoolSizingSample sample) {
+        int current = sample.currentTarget();
+        if(sample.elapsedNanos() <= 0) return current;
+        double rate = (double) (sample.borrows() + sample.borrowTimeouts()) / sample.elapsedNanos();
+        double hold = sample.releases() > 0 ? (double) sample.totalHoldNanos() / sample.releases() : holdNanos;
+        if(!initialized){
+            arrivalsPerNano = rate;
+            holdNanos = hold;
+            initialized = true;
+        } else {
+            double alpha = 1 - Math.exp(-sample.elapsedNanos() / smoothingNanos);
+            arrivalsPerNano += alpha * (rate - arrivalsPerNano);
+            holdNanos += alpha * (hold - holdNanos);
+        }
+
+        double load = arrivalsPerNano * holdNanos;
+        int needed = (int) Math.ceil(load + burstFactor * Math.sqrt(load));
+        double averageWait = sample.borrows() > 0 ? (double) sample.totalBorrowWaitNanos() / sample.borrows() : 0;
+        if(sample.borrowTimeouts() > 0 || sample.pendingBorrowers() > 0 || averageWait > waitTargetNanos){
+            needed = Math.max(needed, current + Math.max(1, sample.pendingBorrowers()));
+        }
+
+        if(needed >= current){
+            shrinking = false;
+            return needed;
+        }
+        if(!shrinking){
+            shrinking = true;
+            belowSince = sample.nowNanos();
+        }
+        if(sample.nowNanos() - belowSince < shrinkDelayNanos) return current;
+        return current - Math.max(1, (current - needed) / 2);
+    }
+}
@@ -0,0 +1,79 @@
+package com.kovisoft.simple.connection.pool.pg;
+
+import com.kovisoft.logger.exports.Logger;
+import com.kovisoft.simple.connection.pool.exports.CircuitState;
+import com.kovisoft.simple.connection.pool.exports.ConnectionWrapper;
+import com.kovisoft.simple.connection.pool.exports.PoolEventListener;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Default listener, writes events to the shared pool logger.
+ */
+public class LoggingPoolEventListener implements PoolEventListener {
+
+    private static final Logger logger = PoolLogger.LOGGER;
+
+    @Override
+    public void onBorrow(ConnectionWrapper cw, long waitNanos) {
+        logger.info("Connection borrowed, pid: " + cw.getPid() + ", waited " + micros(waitNanos) + "us");
+    }
+
+    @Override
+    public void onRelease(ConnectionWrapper cw, long holdNanos) {
+        logger.info("Connection released, pid: " + cw.getPid() + ", held " + micros(holdNanos) + "us");
+    }
+
+    @Override
+    public void onCreate(ConnectionWrapper cw, long creationNanos) {
+        logger.info("Connection created, pid: " + cw.getPid() + ", took " + micros(creationNanos) + "us");
+    }
+
+    @Override
+    public void onCreateFailure(Exception cause) {
+        logger.except("Exception was thrown while attemping to create a new Connection wrapper.", cause);
+    }
+
+    @Override
+    public void onEvict(ConnectionWrapper cw, EvictionReason reason) {
+        logger.info("Connection evicted, pid: " + cw.getPid() + ", reason: " + reason);
+    }
+
+    @Override
+    public void onReclaim(ConnectionWrapper cw) {
+        logger.info("Connection reclaimed after going idle, pid: " + cw.getPid());
+    }
+
+    @Override
+    public void onLeak(ConnectionWrapper cw, long holdNanos, Exception borrowSite) {
+        String message = "Possible connection leak, pid: " + cw.getPid() + " held for "
+                + TimeUnit.NANOSECONDS.toMillis(holdNanos) + "ms";
+        if(borrowSite != null){
+            logger.warn(message + ", borrowed at:", borrowSite);
+        } else {
+            logger.warn(message + ", enable stack sampling to see where it was borrowed.");
+        }
+    }
+
+    @Override
+    public void onValidationFailure(ConnectionWrapper cw, Exception cause) {
+        if(cause != null){
+            logger.except("Exception occurred during validation of connection, pid: " + cw.getPid(), cause);
+        } else {
+            logger.warn("Connection failed validation, pid: " + cw.getPid());
+        }
+    }
+
+    @Override
+    public void onCircuitStateChange(CircuitState from, CircuitState to, long retryInMillis, Exception cause) {
+        if(to == CircuitState.OPEN){
+            logger.warn("Connection creation circuit opened, next attempt in " + retryInMillis + "ms", cause);
+        } else {
+            logger.info("Connection creation circuit " + from + " -> " + to);
+        }
+    }
+
+    private static long micros(long nanos){
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,87 @@
+package com.kovisoft.simple.connection.pool.pg;
+
+import com.kovisoft.logger.exports.Logger;
+import com.kovisoft.simple.connection.pool.exports.ConnectionFactory;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The connection a pool uses for its own queries (pg_stat_activity, replication lag), never handed to
+ * borrowers. Pools in a PoolRegistry that talk to the same server as the same user share one, so all
+ * use goes through use() which serializes callers and reopens the connection once it is closed or expired.
+ */
+final class ManagerConnection implements AutoCloseable {
+
+    private static final Logger logger = PoolLogger.LOGGER;
+
+    interface Opener {
+        ConnectionWrapperImpl open() throws SQLException;
+    }
+
+    interface Work<T> {
+        T apply(ConnectionWrapperImpl manager) throws SQLException;
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Opener opener;
+    private ConnectionWrapperImpl connection;
+    private boolean closed = false;
+
+    /**
+     * Opens manager connections from the factory alone, so nothing about the pool asking is kept alive by it.
+     * @param statements Prepared on every connection opened.
+     * @param lifespanNanos How long each connection lives before use() reopens it.
+     */
+    static Opener opener(ConnectionFactory factory, Map<String, String> statements, long lifespanNanos){
+        Map<String, String> prepared = Map.copyOf(statements);
+        return () -> new ConnectionWrapperImpl(factory, lifespanNanos, prepared);
+    }
+
+    /**
+     * @throws SQLException If the first connection can't be opened, so a pool fails fast at startup.
+     */
+    ManagerConnection(Opener opener) throws SQLException {
+        this.opener = opener;
+        this.connection = opener.open();
+    }
+
+    /**
+     * Runs the work on the manager connection, holding it exclusively until the work returns.
+     * Keep the work to the query itself, act on the results after.
+     */
+    <T> T use(Work<T> work) throws SQLException {
+        lock.lock();
+        try{
+            if(closed) throw new SQLException("The manager connection has been closed.");
+            if(connection.isClosed() || connection.hasExpired()){
+                ConnectionWrapperImpl previous = connection;
+                connection = opener.open();
+                closeQuietly(previous);
+            }
+            return work.apply(connection);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close(){
+        lock.lock();
+        try{
+            closed = true;
+            closeQuietly(connection);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void closeQuietly(ConnectionWrapperImpl cw){
+        try{
+            cw.close();
+        } catch (Exception e){
+            logger.except("Exception thrown closing a manager connection.", e);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.kovisoft.simple.connection.pool.pg;
+
+import com.kovisoft.simple.connection.pool.exports.CopyRowEncoder;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.copy.CopyOperation;
+import org.postgresql.copy.CopyOut;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.sql.SQLException;
+
+/**
+ * COPY for a single pooled connection through pgjdbc's CopyManager. Owned by one wrapper and only used
+ * by its current borrower, so the transfer buffer is allocated once per connection and reused by every
+ * copy instead of once per call. Any copy that fails part way is cancelled so the connection goes back
+ * to the pool usable.
+ */
+final class PgCopy {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final CopyManager copyManager;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final ByteBuffer channelBuffer = ByteBuffer.wrap(buffer);
+    private final CopyInStream rowStream = new CopyInStream();
+    private final DataOutputStream rowOutput = new DataOutputStream(rowStream);
+
+    PgCopy(CopyManager copyManager){
+        this.copyManager = copyManager;
+    }
+
+    long copyIn(String sql, InputStream in) throws SQLException, IOException {
+        CopyIn copyIn = copyManager.copyIn(sql);
+        try{
+            int read;
+            while ((read = in.read(buffer)) >= 0){
+                if(read > 0) copyIn.writeToCopy(buffer, 0, read);
+            }
+            return copyIn.endCopy();
+        } catch (Throwable e){
+            cancelAfterFailure(copyIn, e);
+            throw e;
+        }
+    }
+
+    long copyIn(String sql, ReadableByteChannel in) throws SQLException, IOException {
+        CopyIn copyIn = copyManager.copyIn(sql);
+        try{
+            channelBuffer.clear();
+            while (in.read(channelBuffer) >= 0){
+                if(channelBuffer.position() == 0) continue;
+                copyIn.writeToCopy(buffer, 0, channelBuffer.position());
+                channelBuffer.clear();
+            }
+            if(channelBuffer.position() > 0) copyIn.writeToCopy(buffer, 0, channelBuffer.position());
+            return copyIn.endCopy();
+        } catch (Throwable e){
+            cancelAfterFailure(copyIn, e);
+            throw e;
+        }
+    }
+
+    <T> long copyIn(String sql, Iterable<? extends T> rows, CopyRowEncoder<? super T> encoder)
+            throws SQLException, IOException {
+        CopyIn copyIn = copyManager.copyIn(sql);
+        rowStream.start(copyIn);
+        try{
+            encoder.begin(rowOutput);
+            for(T row : rows){
+                encoder.encode(row, rowOutput);
+            }
+            encoder.end(rowOutput);
+            rowOutput.flush();
+            return copyIn.endCopy();
+        } catch (Throwable e){
+            cancelAfterFailure(copyIn, e);
+            throw e;
+        } finally {
+            rowStream.finish();
+        }
+    }
+
+    long copyOut(String sql, OutputStream out) throws SQLException, IOException {
+        CopyOut copyOut = copyManager.copyOut(sql);
+        try{
+            byte[] data;
+            while ((data = copyOut.readFromCopy()) != null){
+                out.write(data);
+            }
+            return copyOut.getHandledRowCount();
+        } catch (Throwable e){
+            cancelAfterFailure(copyOut, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Cancels a copy that failed part way. A failing cancel is added to the original failure as
+     * suppressed rather than replacing it, the borrower needs to see why the copy stopped.
+     */
+    private static void cancelAfterFailure(CopyOperation operation, Throwable failure){
+        try{
+            if(operation.isActive()) operation.cancelCopy();
+        } catch (SQLException | RuntimeException e){
+            failure.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Fills the shared buffer and writes it to the current COPY each time it is full, what the row
+     * encoders write through the DataOutputStream on top of it.
+     */
+    private final class CopyInStream extends OutputStream {
+
+        private CopyIn target;
+        private int position;
+
+        void start(CopyIn target){
+            this.target = target;
+            this.position = 0;
+        }
+
+        void finish(){
+            this.target = null;
+            this.position = 0;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if(position == buffer.length) drain();
+            buffer[position++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0){
+                if(position == buffer.length) drain();
+                int chunk = Math.min(length, buffer.length - position);
+                System.arraycopy(bytes, offset, buffer, position, chunk);
+                position += chunk;
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if(position > 0) drain();
+        }
+
+        private void drain() throws IOException {
+            try{
+                target.writeToCopy(buffer, 0, position);
+            } catch (SQLException e){
+                throw new IOException("COPY failed while writing rows.", e);
+            }
+            position = 0;
+        }
+    }
+}
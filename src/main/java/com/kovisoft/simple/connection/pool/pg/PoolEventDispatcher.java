@@ -0,0 +1,114 @@
+package com.kovisoft.simple.connection.pool.pg;
+
+import com.kovisoft.logger.exports.Logger;
+import com.kovisoft.simple.connection.pool.exports.CircuitState;
+import com.kovisoft.simple.connection.pool.exports.ConnectionWrapper;
+import com.kovisoft.simple.connection.pool.exports.PoolEventListener;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hands pool events to the listener on a dedicated daemon thread so listeners (and their I/O) never run
+ * on a borrower's thread. The queue is bounded, when it is full events are dropped and counted.
+ * Borrow and release events are checked against the enabled flag and sample rate before anything is
+ * allocated, so with them off (the default) the borrow path pays a single branch.
+ */
+final class PoolEventDispatcher implements AutoCloseable {
+
+    private static final Logger logger = PoolLogger.LOGGER;
+    private static final int QUEUE_SIZE = 4096;
+
+    private final PoolEventListener listener;
+    private final boolean borrowEventsEnabled;
+    private final int borrowEventSampleRate;
+    private final BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final LongAdder dropped = new LongAdder();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    PoolEventDispatcher(PoolEventListener listener, boolean borrowEventsEnabled, int borrowEventSampleRate,
+                        String poolName){
+        this.listener = listener;
+        this.borrowEventsEnabled = borrowEventsEnabled;
+        this.borrowEventSampleRate = Math.max(1, borrowEventSampleRate);
+        thread = new Thread(this::dispatch, poolName + "-events");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void borrowed(ConnectionWrapper cw, long waitNanos){
+        if(sampleBorrowEvent()) submit(() -> listener.onBorrow(cw, waitNanos));
+    }
+
+    void released(ConnectionWrapper cw, long holdNanos){
+        if(sampleBorrowEvent()) submit(() -> listener.onRelease(cw, holdNanos));
+    }
+
+    void created(ConnectionWrapper cw, long creationNanos){
+        submit(() -> listener.onCreate(cw, creationNanos));
+    }
+
+    void createFailed(Exception cause){
+        submit(() -> listener.onCreateFailure(cause));
+    }
+
+    void evicted(ConnectionWrapper cw, PoolEventListener.EvictionReason reason){
+        submit(() -> listener.onEvict(cw, reason));
+    }
+
+    void reclaimed(ConnectionWrapper cw){
+        submit(() -> listener.onReclaim(cw));
+    }
+
+    void leaked(ConnectionWrapper cw, long holdNanos, Exception borrowSite){
+        submit(() -> listener.onLeak(cw, holdNanos, borrowSite));
+    }
+
+    void validationFailed(ConnectionWrapper cw, Exception cause){
+        submit(() -> listener.onValidationFailure(cw, cause));
+    }
+
+    void circuitStateChanged(CircuitState from, CircuitState to, long retryInMillis, Exception cause){
+        submit(() -> listener.onCircuitStateChange(from, to, retryInMillis, cause));
+    }
+
+    long getDroppedCount(){
+        return dropped.sum();
+    }
+
+    private boolean sampleBorrowEvent(){
+        return borrowEventsEnabled
+                && (borrowEventSampleRate == 1 || ThreadLocalRandom.current().nextInt(borrowEventSampleRate) == 0);
+    }
+
+    private void submit(Runnable event){
+        if(!running || !queue.offer(event)) dropped.increment();
+    }
+
+    private void dispatch(){
+        while (running || !queue.isEmpty()){
+            try{
+                Runnable event = queue.poll(100, TimeUnit.MILLISECONDS);
+                if(event != null) event.run();
+            } catch (InterruptedException e){
+                return;
+            } catch (Exception e){
+                logger.except("Pool event listener threw an exception.", e);
+            }
+        }
+    }
+
+    /**
+     * Stops accepting events, then gives the thread a moment to deliver what is already queued.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        thread.join(1000);
+        thread.interrupt();
+    }
+}
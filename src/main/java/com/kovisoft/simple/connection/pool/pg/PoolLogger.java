@@ -0,0 +1,25 @@
+package com.kovisoft.simple.connection.pool.pg;
+
+import com.kovisoft.logger.exports.Logger;
+import com.kovisoft.logger.exports.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * The one logger shared by every pool, wrapper and listener in this package. Creating a logger per
+ * physical connection meant a log file handle per connection and a logger setup on every connect.
+ */
+final class PoolLogger {
+
+    static final Logger LOGGER = createLogger();
+
+    private PoolLogger(){}
+
+    private static Logger createLogger(){
+        try{
+            return LoggerFactory.createLogger(System.getProperty("user.dir") + "/logs", "DB_pool_");
+        } catch (IOException e) {
+            throw new RuntimeException("Could not startup the connection pool logger!", e);
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package com.kovisoft.simple.connection.pool.pg;
+
+import com.kovisoft.simple.connection.pool.exports.PoolMetrics;
+import com.kovisoft.simple.connection.pool.exports.Priority;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.kovisoft.simple.connection.pool.pg.ConnectionWrapperImpl.STATE_IN_USE;
+import static com.kovisoft.simple.connection.pool.pg.ConnectionWrapperImpl.STATE_NOT_IN_USE;
+
+/**
+ * Default PoolMetrics. Recording methods only touch LongAdders and LatencyHistograms so they are safe
+ * to call from the borrow path, gauges are computed from the bag when read.
+ */
+final class PoolMetricsImpl implements PoolMetrics {
+
+    private volatile ConnectionBag bag;
+    private final LatencyHistogram borrowWait = new LatencyHistogram();
+    private final LatencyHistogram holdTime = new LatencyHistogram();
+    private final LatencyHistogram creationTime = new LatencyHistogram();
+    private final LongAdder borrowTimeouts = new LongAdder();
+    private final LongAdder borrowRejections = new LongAdder();
+    private final LongAdder circuitOpens = new LongAdder();
+    // Indexed by Priority ordinal.
+    private final LatencyHistogram[] borrowWaitByPriority = new LatencyHistogram[Priority.values().length];
+    private final LongAdder[] borrowTimeoutsByPriority = new LongAdder[Priority.values().length];
+    // Running totals for the sizing controller, never reset so deltas between samples stay valid.
+    private final LongAdder totalBorrows = new LongAdder();
+    private final LongAdder totalBorrowTimeouts = new LongAdder();
+    private final LongAdder totalBorrowWaitNanos = new LongAdder();
+    private final LongAdder totalReleases = new LongAdder();
+    private final LongAdder totalHoldNanos = new LongAdder();
+    private final LongAdder creationFailures = new LongAdder();
+    private final LongAdder reclaimed = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder validationEvictions = new LongAdder();
+    private final LongAdder validations = new LongAdder();
+    private final LongAdder statementCacheHits = new LongAdder();
+    private final LongAdder statementCacheMisses = new LongAdder();
+    private final LongAdder statementCacheEvictions = new LongAdder();
+
+    PoolMetricsImpl(){
+        for(int i = 0; i < borrowWaitByPriority.length; i++){
+            borrowWaitByPriority[i] = new LatencyHistogram();
+            borrowTimeoutsByPriority[i] = new LongAdder();
+        }
+    }
+
+    void attach(ConnectionBag bag){
+        this.bag = bag;
+    }
+
+    void recordBorrowWait(long nanos){
+        recordBorrowWait(nanos, Priority.NORMAL);
+    }
+
+    void recordBorrowWait(long nanos, Priority priority){
+        borrowWait.record(nanos);
+        borrowWaitByPriority[priority.ordinal()].record(nanos);
+        totalBorrows.increment();
+        totalBorrowWaitNanos.add(nanos);
+    }
+
+    void recordHoldTime(long nanos){
+        holdTime.record(nanos);
+        totalReleases.increment();
+        totalHoldNanos.add(nanos);
+    }
+
+    void recordBorrowTimeout(){
+        recordBorrowTimeout(Priority.NORMAL);
+    }
+
+    void recordBorrowTimeout(Priority priority){
+        borrowTimeouts.increment();
+        borrowTimeoutsByPriority[priority.ordinal()].increment();
+        totalBorrowTimeouts.increment();
+    }
+
+    void recordBorrowRejected(){
+        borrowRejections.increment();
+    }
+
+    void recordCircuitOpened(){
+        circuitOpens.increment();
+    }
+
+    long getTotalBorrows(){
+        return totalBorrows.sum();
+    }
+
+    long getTotalBorrowTimeouts(){
+        return totalBorrowTimeouts.sum();
+    }
+
+    long getTotalBorrowWaitNanos(){
+        return totalBorrowWaitNanos.sum();
+    }
+
+    long getTotalReleases(){
+        return totalReleases.sum();
+    }
+
+    long getTotalHoldNanos(){
+        return totalHoldNanos.sum();
+    }
+
+    void recordCreation(long nanos){
+        creationTime.record(nanos);
+    }
+
+    void recordCreationFailure(){
+        creationFailures.increment();
+    }
+
+    void recordReclaimed(int count){
+        reclaimed.add(count);
+    }
+
+    void recordLeak(){
+        leaks.increment();
+    }
+
+    void recordExpired(){
+        expired.increment();
+    }
+
+    void recordValidation(){
+        validations.increment();
+    }
+
+    void recordValidationEviction(){
+        validationEvictions.increment();
+    }
+
+    void recordStatementCacheHit(){
+        statementCacheHits.increment();
+    }
+
+    void recordStatementCacheMiss(){
+        statementCacheMisses.increment();
+    }
+
+    void recordStatementCacheEviction(){
+        statementCacheEvictions.increment();
+    }
+
+    LatencyHistogram getHoldTimeHistogram(){
+        return holdTime;
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return countState(STATE_IN_USE);
+    }
+
+    @Override
+    public int getIdleConnections() {
+        return countState(STATE_NOT_IN_USE);
+    }
+
+    @Override
+    public int getTotalConnections() {
+        return bag.size();
+    }
+
+    @Override
+    public int getPendingBorrowers() {
+        return bag.getWaiterCount();
+    }
+
+    @Override
+    public long getBorrowCount() {
+        return borrowWait.getCount();
+    }
+
+    @Override
+    public int getPendingBorrowers(Priority priority) {
+        return bag.getWaiterCount(priority);
+    }
+
+    @Override
+    public long getBorrowCount(Priority priority) {
+        return borrowWaitByPriority[priority.ordinal()].getCount();
+    }
+
+    @Override
+    public long getBorrowTimeoutCount(Priority priority) {
+        return borrowTimeoutsByPriority[priority.ordinal()].sum();
+    }
+
+    @Override
+    public long getBorrowWaitP50Micros(Priority priority) {
+        return micros(borrowWaitByPriority[priority.ordinal()], 0.5);
+    }
+
+    @Override
+    public long getBorrowWaitP99Micros(Priority priority) {
+        return micros(borrowWaitByPriority[priority.ordinal()], 0.99);
+    }
+
+    @Override
+    public long getBorrowTimeoutCount() {
+        return borrowTimeouts.sum();
+    }
+
+    @Override
+    public long getBorrowRejectedCount() {
+        return borrowRejections.sum();
+    }
+
+    @Override
+    public long getCircuitOpenCount() {
+        return circuitOpens.sum();
+    }
+
+    @Override
+    public long getBorrowWaitP50Micros() {
+        return micros(borrowWait, 0.5);
+    }
+
+    @Override
+    public long getBorrowWaitP99Micros() {
+        return micros(borrowWait, 0.99);
+    }
+
+    @Override
+    public long getBorrowWaitP999Micros() {
+        return micros(borrowWait, 0.999);
+    }
+
+    @Override
+    public long getHoldTimeP50Micros() {
+        return micros(holdTime, 0.5);
+    }
+
+    @Override
+    public long getHoldTimeP99Micros() {
+        return micros(holdTime, 0.99);
+    }
+
+    @Override
+    public long getHoldTimeP999Micros() {
+        return micros(holdTime, 0.999);
+    }
+
+    @Override
+    public long getConnectionsCreated() {
+        return creationTime.getCount();
+    }
+
+    @Override
+    public long getConnectionCreationFailures() {
+        return creationFailures.sum();
+    }
+
+    @Override
+    public long getConnectionCreationP50Micros() {
+        return micros(creationTime, 0.5);
+    }
+
+    @Override
+    public long getConnectionCreationP99Micros() {
+        return micros(creationTime, 0.99);
+    }
+
+    @Override
+    public long getReclaimedCount() {
+        return reclaimed.sum();
+    }
+
+    @Override
+    public long getLeakCount() {
+        return leaks.sum();
+    }
+
+    @Override
+    public long getExpiredCount() {
+        return expired.sum();
+    }
+
+    @Override
+    public long getValidationCount() {
+        return validations.sum();
+    }
+
+    @Override
+    public long getValidationEvictionCount() {
+        return validationEvictions.sum();
+    }
+
+    @Override
+    public long getStatementCacheHits() {
+        return statementCacheHits.sum();
+    }
+
+    @Override
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.sum();
+    }
+
+    @Override
+    public long getStatementCacheEvictions() {
+        return statementCacheEvictions.sum();
+    }
+
+    @Override
+    public void reset() {
+        borrowWait.reset();
+        holdTime.reset();
+        creationTime.reset();
+        borrowTimeouts.reset();
+        borrowRejections.reset();
+        circuitOpens.reset();
+        for(int i = 0; i < borrowWaitByPriority.length; i++){
+            borrowWaitByPriority[i].reset();
+            borrowTimeoutsByPriority[i].reset();
+        }
+        creationFailures.reset();
+        reclaimed.reset();
+        leaks.reset();
+        expired.reset();
+        validationEvictions.reset();
+        validations.reset();
+        statementCacheHits.reset();
+        statementCacheMisses.reset();
+        statementCacheEvictions.reset();
+    }
+
+    private int countState(int state){
+        int count = 0;
+        for(ConnectionWrapperImpl cw : bag.values()){
+            if(cw.getState() == state) count++;
+        }
+        return count;
+    }
+
+    private static long micros(LatencyHistogram histogram, double percentile){
+        return TimeUnit.NANOSECONDS.toMicros(histogram.percentile(percentile));
+    }
+}
@@ -0,0 +1,398 @@
+package com.kovisoft.simple.connection.pool.pg;
+
+import com.kovisoft.logger.exports.Logger;
+import com.kovisoft.simple.connection.pool.exports.ConnectionFactory;
+import com.kovisoft.simple.connection.pool.exports.PoolConfig;
+import com.kovisoft.simple.connection.pool.exports.PoolRegistry;
+import com.kovisoft.simple.connection.pool.exports.SimplePgConnectionPool;
+
+import java.net.URI;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One scheduler, one set of creator threads, one manager connection per server and user, and one
+ * connection budget for every pool it holds. Shares are rebalanced about once a second from what each
+ * pool's sizing controller asks for, a pool that lost share trims its surplus on its next management pass
+ * and the budget keeps the others from opening into that room until it has.
+ * Pools are built and warmed outside the registry lock, concurrent callers for the same key wait on the one
+ * creation in flight while other keys go ahead.
+ */
+public class PoolRegistryImpl implements PoolRegistry {
+
+    private static final Logger logger = PoolLogger.LOGGER;
+    private static final long REBALANCE_INTERVAL_MILLIS = 1000;
+
+    private final ConnectionBudget budget;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final ThreadPoolExecutor creators;
+    private final ThreadPoolExecutor validators;
+    private final ConcurrentHashMap<String, SimplePgConnectionPoolImpl> pools = new ConcurrentHashMap<>();
+    // Pools being built, guarded by lock. Their minimums count as reserved until they are in pools.
+    private final Map<String, PendingPool> creating = new HashMap<>();
+    private final Map<Object, SharedManager> managers = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile boolean closed = false;
+
+    // Opened by the first pool that asks, outside the lock, the rest wait on the future.
+    private static final class SharedManager {
+        private final CompletableFuture<ManagerConnection> connection = new CompletableFuture<>();
+        private int users;
+    }
+
+    private static final class PendingPool {
+        private final CompletableFuture<SimplePgConnectionPoolImpl> future = new CompletableFuture<>();
+        private final int minConnections;
+
+        private PendingPool(int minConnections){
+            this.minConnections = minConnections;
+        }
+    }
+
+    /**
+     * @param globalMaxConnections Most pool connections all pools together may hold open.
+     * @param maintenanceThreads Threads running every pool's management, reclaiming and borrow timeouts, and as
+     *                           many again checking connections, so a slow server's checks can't stall the rest.
+     * @param creatorThreads Threads opening connections for every pool.
+     */
+    public PoolRegistryImpl(int globalMaxConnections, int maintenanceThreads, int creatorThreads){
+        this.budget = new ConnectionBudget(globalMaxConnections);
+        AtomicInteger maintenanceCount = new AtomicInteger();
+        this.scheduler = new ScheduledThreadPoolExecutor(Math.max(1, maintenanceThreads), r -> {
+            Thread thread = new Thread(r, "PoolRegistry-maintenance-" + maintenanceCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.setRemoveOnCancelPolicy(true);
+        scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        AtomicInteger creatorCount = new AtomicInteger();
+        int creatorPoolSize = Math.max(1, creatorThreads);
+        // Pools never queue more openings than their targets and their targets share the budget, a full queue
+        // rejects the request and the pool asks again on its next management pass.
+        this.creators = new ThreadPoolExecutor(creatorPoolSize, creatorPoolSize, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(Math.max(1, globalMaxConnections)), r -> {
+                    Thread thread = new Thread(r, "PoolRegistry-creator-" + creatorCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        creators.allowCoreThreadTimeOut(true);
+        AtomicInteger validatorCount = new AtomicInteger();
+        int validatorPoolSize = Math.max(1, maintenanceThreads);
+        // Each connection has at most one check queued, a full queue leaves the rest for the next pass.
+        this.validators = new ThreadPoolExecutor(validatorPoolSize, validatorPoolSize, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(Math.max(1, globalMaxConnections)), r -> {
+                    Thread thread = new Thread(r, "PoolRegistry-validator-" + validatorCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        validators.allowCoreThreadTimeOut(true);
+        scheduler.scheduleWithFixedDelay(this::rebalance, REBALANCE_INTERVAL_MILLIS, REBALANCE_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public SimplePgConnectionPool getOrCreate(String key, PoolConfig config) throws SQLException {
+        SimplePgConnectionPoolImpl pool = pools.get(key);
+        if(pool != null) return pool;
+        PendingPool pending;
+        boolean creator = false;
+        lock.lock();
+        try{
+            if(closed) throw new SQLException("The pool registry has been closed.");
+            pool = pools.get(key);
+            if(pool != null) return pool;
+            pending = creating.get(key);
+            if(pending == null){
+                reserveMinimum(key, config.getMinConnections());
+                pending = new PendingPool(config.getMinConnections());
+                creating.put(key, pending);
+                creator = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return creator ? create(key, config, pending) : awaitCreation(pending);
+    }
+
+    /**
+     * Throws if the minimum doesn't fit beside the ones existing and pending pools reserve, caller holds the lock.
+     */
+    private void reserveMinimum(String key, int minConnections) throws SQLException {
+        int reserved = 0;
+        for(SimplePgConnectionPoolImpl existing : pools.values()){
+            reserved += existing.getMinConnections();
+        }
+        for(PendingPool other : creating.values()){
+            reserved += other.minConnections;
+        }
+        if(reserved + minConnections > budget.getMaxConnections()){
+            throw new SQLException(String.format("Pool %s needs %d connections but only %d of the %d in the "
+                    + "budget are not reserved by other pools.", key, minConnections,
+                    budget.getMaxConnections() - reserved, budget.getMaxConnections()));
+        }
+    }
+
+    /**
+     * Builds and warms the pool without the registry lock, then publishes it to the key's other callers.
+     */
+    private SimplePgConnectionPoolImpl create(String key, PoolConfig config, PendingPool pending) throws SQLException {
+        SimplePgConnectionPoolImpl pool;
+        try{
+            pool = new SimplePgConnectionPoolImpl(config, this, key);
+        } catch (SQLException | RuntimeException e){
+            finishCreation(key, pending, null);
+            pending.future.completeExceptionally(e);
+            throw e;
+        }
+        if(!finishCreation(key, pending, pool)){
+            // The registry closed while it was being built.
+            try{
+                pool.shutDownPool();
+            } catch (Exception e){
+                logger.except("Exception thrown closing a pool built after the registry closed.", e);
+            }
+            SQLException closedException = new SQLException("The pool registry has been closed.");
+            pending.future.completeExceptionally(closedException);
+            throw closedException;
+        }
+        pending.future.complete(pool);
+        rebalance();
+        return pool;
+    }
+
+    /**
+     * Takes the pending entry out and, unless the registry closed meanwhile, files the pool under its key.
+     * @return False if the registry has closed.
+     */
+    private boolean finishCreation(String key, PendingPool pending, SimplePgConnectionPoolImpl pool){
+        lock.lock();
+        try{
+            creating.remove(key, pending);
+            if(closed) return false;
+            if(pool != null) pools.put(key, pool);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static SimplePgConnectionPoolImpl awaitCreation(PendingPool pending) throws SQLException {
+        try{
+            return pending.future.join();
+        } catch (CompletionException e){
+            if(e.getCause() instanceof SQLException sqlException) throw sqlException;
+            throw new SQLException("Creating the pool failed.", e.getCause());
+        }
+    }
+
+    @Override
+    public SimplePgConnectionPool get(String key) {
+        return pools.get(key);
+    }
+
+    @Override
+    public boolean remove(String key) throws Exception {
+        SimplePgConnectionPoolImpl pool = pools.get(key);
+        if(pool == null) return false;
+        pool.shutDownPool();
+        return true;
+    }
+
+    @Override
+    public Set<String> keys() {
+        return Collections.unmodifiableSet(pools.keySet());
+    }
+
+    @Override
+    public int getGlobalMaxConnections() {
+        return budget.getMaxConnections();
+    }
+
+    @Override
+    public int getOpenConnections() {
+        return budget.getOpenConnections();
+    }
+
+    /**
+     * Every pool keeps its minimum. If what the pools ask for beyond that fits they all get it, plus an
+     * even split of whatever is left as headroom until the next rebalance, otherwise what is left is split
+     * in proportion to what each one asked for.
+     */
+    void rebalance(){
+        if(closed) return;
+        try{
+            List<SimplePgConnectionPoolImpl> current = new ArrayList<>(pools.values());
+            if(current.isEmpty()) return;
+            int remaining = budget.getMaxConnections();
+            int wanted = 0;
+            int[] extra = new int[current.size()];
+            for(int i = 0; i < current.size(); i++){
+                SimplePgConnectionPoolImpl pool = current.get(i);
+                int demand = Math.min(pool.getMaxConnections(),
+                        Math.max(pool.getMinConnections(), pool.getDesiredConnections()));
+                extra[i] = demand - pool.getMinConnections();
+                remaining -= pool.getMinConnections();
+                wanted += extra[i];
+            }
+            remaining = Math.max(0, remaining);
+            int spare = wanted <= remaining ? (remaining - wanted) / current.size() : 0;
+            for(int i = 0; i < current.size(); i++){
+                SimplePgConnectionPoolImpl pool = current.get(i);
+                int share = wanted <= remaining ? extra[i] + spare
+                        : (int) ((long) remaining * extra[i] / wanted);
+                pool.setConnectionShare(pool.getMinConnections() + share);
+            }
+        } catch (RuntimeException e){
+            logger.except("Exception occurred while rebalancing the pool registry budget.", e);
+        }
+    }
+
+    /**
+     * The manager connection for the key (server and user, or the connection factory), opened if no other pool
+     * shares one yet. The registry builds the opener from the arguments so the connection never holds on to
+     * the pool that happened to open it first. Each call must be paired with releaseManagerConnection.
+     * @param factory Opens the manager's physical connections.
+     * @param statements Prepared on every manager connection opened.
+     * @param lifespanNanos How long each manager connection lives before it is reopened.
+     */
+    ManagerConnection acquireManagerConnection(Object key, ConnectionFactory factory, Map<String, String> statements,
+                                               long lifespanNanos) throws SQLException {
+        SharedManager shared;
+        boolean opener = false;
+        lock.lock();
+        try{
+            shared = managers.get(key);
+            if(shared == null){
+                shared = new SharedManager();
+                managers.put(key, shared);
+                opener = true;
+            }
+            shared.users++;
+        } finally {
+            lock.unlock();
+        }
+        if(opener){
+            try{
+                shared.connection.complete(new ManagerConnection(
+                        ManagerConnection.opener(factory, statements, lifespanNanos)));
+            } catch (SQLException | RuntimeException e){
+                // Nobody gets this one, the next pool to ask tries again.
+                lock.lock();
+                try{
+                    managers.remove(key, shared);
+                } finally {
+                    lock.unlock();
+                }
+                shared.connection.completeExceptionally(e);
+                throw e;
+            }
+        }
+        try{
+            return shared.connection.join();
+        } catch (CompletionException e){
+            if(e.getCause() instanceof SQLException sqlException) throw sqlException;
+            throw new SQLException("Opening the shared manager connection failed.", e.getCause());
+        }
+    }
+
+    void releaseManagerConnection(Object key, ManagerConnection connection){
+        lock.lock();
+        try{
+            SharedManager shared = managers.get(key);
+            if(shared == null || shared.connection.getNow(null) != connection) return;
+            if(--shared.users == 0){
+                managers.remove(key);
+                connection.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called by a pool's close(), its share goes back to the others.
+     */
+    void poolClosed(String key, SimplePgConnectionPoolImpl pool){
+        if(pools.remove(key, pool)) rebalance();
+    }
+
+    int getManagerConnectionCount(){
+        lock.lock();
+        try{
+            return managers.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    ConnectionBudget getBudget(){
+        return budget;
+    }
+
+    ScheduledExecutorService getScheduler(){
+        return scheduler;
+    }
+
+    ExecutorService getCreators(){
+        return creators;
+    }
+
+    /**
+     * Runs the pools' blocking connection checks, the scheduler only queues them.
+     */
+    ExecutorService getValidators(){
+        return validators;
+    }
+
+    /**
+     * The pools' manager connection key when they only have a url, host and port plus user since
+     * pg_stat_activity covers every database on the server.
+     */
+    static String serverKey(String url, String user){
+        String address = url;
+        if(url != null && url.startsWith("jdbc:")){
+            try{
+                URI uri = URI.create(url.substring("jdbc:".length()));
+                if(uri.getHost() != null) address = uri.getHost() + ":" + (uri.getPort() < 0 ? 5432 : uri.getPort());
+            } catch (IllegalArgumentException e){
+                address = url;
+            }
+        }
+        return address + "|" + user;
+    }
+
+    @Override
+    public void close() throws Exception {
+        Exception lastException = null;
+        lock.lock();
+        try{
+            closed = true;
+        } finally {
+            lock.unlock();
+        }
+        for(SimplePgConnectionPoolImpl pool : new ArrayList<>(pools.values())){
+            try{
+                pool.shutDownPool();
+            } catch (Exception e){
+                logger.except("Exception thrown trying to close a pool from the pool registry.", e);
+                lastException = e;
+            }
+        }
+        pools.clear();
+        scheduler.shutdownNow();
+        creators.shutdownNow();
+        validators.shutdownNow();
+        lock.lock();
+        try{
+            // One still opening is closed as soon as it is open.
+            managers.values().forEach(shared -> shared.connection.thenAccept(ManagerConnection::close));
+            managers.clear();
+        } finally {
+            lock.unlock();
+        }
+        if(lastException != null) throw lastException;
+    }
+}
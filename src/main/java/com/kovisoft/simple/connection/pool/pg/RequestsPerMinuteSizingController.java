@@ -0,0 +1,51 @@
+package com.kovisoft.simple.connection.pool.pg;
+
+import com.kovisoft.logger.exports.Logger;
+import com.kovisoft.simple.connection.pool.exports.PoolSizingController;
+import com.kovisoft.simple.connection.pool.exports.PoolSizingSample;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The original sizing rule: once a minute, one connection per requestsPerMinutePerConn requests seen
+ * in that minute. Ignores how long connections are held, kept for pools tuned around it.
+ */
+public class RequestsPerMinuteSizingController implements PoolSizingController {
+
+    private static final Logger logger = PoolLogger.LOGGER;
+    private static final long NANOS_PER_MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+    private final int requestsPerMinutePerCon;
+    private long requests = 0;
+    private long elapsedNanos = 0;
+
+    public RequestsPerMinuteSizingController(int requestsPerMinutePerConn){
+        this.requestsPerMinutePerCon = Math.max(1, requestsPerMinutePerConn);
+    }
+
+    @Override
+    public int targetConnections(PoolSizingSample sample) {
+        requests += sample.borrows() + sample.borrowTimeouts();
+        elapsedNanos += sample.elapsedNanos();
+        if(elapsedNanos < NANOS_PER_MINUTE) return sample.currentTarget();
+        int rpm = (int) (requests * NANOS_PER_MINUTE / elapsedNanos);
+        requests = 0;
+        elapsedNanos = 0;
+        int minConnections = sample.minConnections();
+        int maxConnections = sample.maxConnections();
+        if(rpm <= requestsPerMinutePerCon){
+            logger.info("Low traffic, setting connection pool to minimum of: " + minConnections);
+            return minConnections;
+        } else if(rpm > requestsPerMinutePerCon * maxConnections){
+            logger.warn(String.format("It looks like your requests per minute (%d) "
+                    +"exceed your desired capacity of %d requests per connection per minute "
+                    +"on a maximum of %d connections. Sounds like one of those good problems!",
+                    rpm, requestsPerMinutePerCon, maxConnections));
+            return maxConnections;
+        }
+        int target = Math.max((int) Math.ceil((double) rpm / requestsPerMinutePerCon), minConnections);
+        logger.info(String.format("Adjusting connections during medium traffic expectations to %d connections",
+                target));
+        return target;
+    }
+}
@@ -0,0 +1,234 @@
+package com.kovisoft.simple.connection.pool.pg;
+
+import org.postgresql.core.BaseConnection;
+import org.postgresql.core.TransactionState;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Sits between a borrower and the pooled connection, the Connection borrowers get is a proxy that records
+ * which session properties they changed. reset() then undoes only those, so a borrower that changed
+ * nothing costs no round trips on release. SET and RESET statements seen through the proxy, or through
+ * the wrapper's statement lookups, mark the session parameters dirty and are undone with a RESET ALL.
+ * Originals are read the first time a property changes and kept for the life of the connection.
+ * When the pool reclaims a connection from a borrower that never released it the proxy is revoked, the
+ * connection carries on under a new tracker and the old borrower can no longer reach it through the proxy
+ * or the statements it created with it. Statements are proxied for that, what the driver hands back from
+ * them (a result set's getStatement for one) is not.
+ */
+final class SessionStateTracker implements InvocationHandler {
+
+    private static final int AUTO_COMMIT = 1;
+    private static final int ISOLATION = 1 << 1;
+    private static final int READ_ONLY = 1 << 2;
+    private static final int SCHEMA = 1 << 3;
+    private static final int HOLDABILITY = 1 << 4;
+    private static final int CLIENT_INFO = 1 << 5;
+    private static final int SESSION_PARAMETERS = 1 << 6;
+
+    private final Connection target;
+    private final Connection proxy;
+    // Lets a postgres connection say whether a transaction is open without a round trip.
+    private final BaseConnection pgConnection;
+    private volatile int dirty;
+    private volatile boolean revoked;
+
+    private boolean originalAutoCommit;
+    private int originalIsolation;
+    private boolean originalReadOnly;
+    private String originalSchema;
+    private int originalHoldability;
+    private Properties originalClientInfo;
+    private int captured;
+
+    SessionStateTracker(Connection target) throws SQLException {
+        this.target = target;
+        this.pgConnection = target.isWrapperFor(BaseConnection.class) ? target.unwrap(BaseConnection.class) : null;
+        this.proxy = (Connection) Proxy.newProxyInstance(SessionStateTracker.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, this);
+    }
+
+    /**
+     * Tracks the same connection behind a new proxy, keeping the originals already read.
+     * @param previous The tracker of the borrow being reclaimed, its session must already be reset.
+     */
+    SessionStateTracker(SessionStateTracker previous){
+        this.target = previous.target;
+        this.pgConnection = previous.pgConnection;
+        this.originalAutoCommit = previous.originalAutoCommit;
+        this.originalIsolation = previous.originalIsolation;
+        this.originalReadOnly = previous.originalReadOnly;
+        this.originalSchema = previous.originalSchema;
+        this.originalHoldability = previous.originalHoldability;
+        this.originalClientInfo = previous.originalClientInfo;
+        this.captured = previous.captured;
+        this.proxy = (Connection) Proxy.newProxyInstance(SessionStateTracker.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, this);
+    }
+
+    /**
+     * From now on the proxy, and any statement created through it, reports closed or throws. The wrapper
+     * closes its own statements itself.
+     */
+    void revoke(){
+        revoked = true;
+    }
+
+    static SQLException reclaimed(){
+        return new SQLException("The connection was reclaimed by the pool after it wasn't released, it can no longer be used.",
+                "08003");
+    }
+
+    Connection getConnection(){
+        return proxy;
+    }
+
+    /**
+     * Marks the session parameters dirty if the sql changes them, for sql run outside the proxy.
+     */
+    void inspect(String sql){
+        if(changesSession(sql)) dirty |= SESSION_PARAMETERS;
+    }
+
+    void markSessionParameters(){
+        dirty |= SESSION_PARAMETERS;
+    }
+
+    /**
+     * Puts the session back the way the pool handed it out, rolling back only if a transaction is open.
+     * @throws SQLException If a reset failed, the connection can't be trusted and should be closed.
+     */
+    void reset() throws SQLException {
+        if(dirty == 0 && !transactionOpen()) return;
+        int changed = dirty;
+        if(transactionOpen()) target.rollback();
+        if((changed & AUTO_COMMIT) != 0 && target.getAutoCommit() != originalAutoCommit){
+            target.setAutoCommit(originalAutoCommit);
+        }
+        if((changed & SESSION_PARAMETERS) != 0){
+            try(Statement statement = target.createStatement()){
+                statement.execute("RESET ALL");
+            }
+        }
+        if((changed & ISOLATION) != 0) target.setTransactionIsolation(originalIsolation);
+        if((changed & READ_ONLY) != 0 && target.isReadOnly() != originalReadOnly) target.setReadOnly(originalReadOnly);
+        if((changed & SCHEMA) != 0 && originalSchema != null) target.setSchema(originalSchema);
+        if((changed & HOLDABILITY) != 0 && target.getHoldability() != originalHoldability){
+            target.setHoldability(originalHoldability);
+        }
+        if((changed & CLIENT_INFO) != 0) target.setClientInfo(originalClientInfo);
+        dirty = 0;
+    }
+
+    /**
+     * Postgres connections report their transaction state client side. Anything else is assumed to have a
+     * transaction open whenever auto commit is off.
+     */
+    private boolean transactionOpen(){
+        try{
+            if(pgConnection != null) return pgConnection.getTransactionState() != TransactionState.IDLE;
+            return (dirty & AUTO_COMMIT) != 0 && !target.getAutoCommit();
+        } catch (SQLException e){
+            return true;
+        }
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if(revoked) return invokeRevoked(proxy, method, args);
+        switch (method.getName()){
+            case "equals" -> { return proxy == args[0]; }
+            case "hashCode" -> { return System.identityHashCode(proxy); }
+            case "toString" -> { return "Tracked" + target; }
+            case "setAutoCommit" -> capture(AUTO_COMMIT);
+            case "setTransactionIsolation" -> capture(ISOLATION);
+            case "setReadOnly" -> capture(READ_ONLY);
+            case "setSchema" -> capture(SCHEMA);
+            case "setHoldability" -> capture(HOLDABILITY);
+            case "setClientInfo" -> capture(CLIENT_INFO);
+            case "prepareStatement", "prepareCall" -> inspect((String) args[0]);
+        }
+        Object result;
+        try{
+            result = method.invoke(target, args);
+        } catch (InvocationTargetException e){
+            throw e.getCause();
+        }
+        // Plain statements only show their sql when executed, every statement stops working once revoked.
+        if(result instanceof Statement statement) return trackStatement(statement);
+        return result;
+    }
+
+    private Object invokeRevoked(Object proxy, Method method, Object[] args) throws SQLException {
+        return switch (method.getName()){
+            case "equals" -> proxy == args[0];
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "toString" -> "Revoked" + target;
+            case "isClosed" -> true;
+            case "isValid" -> false;
+            case "close" -> null;
+            default -> throw reclaimed();
+        };
+    }
+
+    /**
+     * Reads the original value of a property the first time a borrower changes it and marks it dirty.
+     */
+    private void capture(int property) throws SQLException {
+        if((captured & property) == 0){
+            switch (property){
+                case AUTO_COMMIT -> originalAutoCommit = target.getAutoCommit();
+                case ISOLATION -> originalIsolation = target.getTransactionIsolation();
+                case READ_ONLY -> originalReadOnly = target.isReadOnly();
+                case SCHEMA -> originalSchema = target.getSchema();
+                case HOLDABILITY -> originalHoldability = target.getHoldability();
+                case CLIENT_INFO -> originalClientInfo = target.getClientInfo();
+                default -> {}
+            }
+            captured |= property;
+        }
+        dirty |= property;
+    }
+
+    private Statement trackStatement(Statement statement){
+        Class<?> type = statement instanceof CallableStatement ? CallableStatement.class
+                : statement instanceof PreparedStatement ? PreparedStatement.class : Statement.class;
+        return (Statement) Proxy.newProxyInstance(SessionStateTracker.class.getClassLoader(),
+                new Class<?>[]{type}, (statementProxy, method, args) -> {
+                    switch (method.getName()){
+                        case "equals" -> { return statementProxy == args[0]; }
+                        case "hashCode" -> { return System.identityHashCode(statementProxy); }
+                        case "getConnection" -> { return proxy; }
+                    }
+                    if(revoked) throw reclaimed();
+                    if(args != null && args.length > 0 && args[0] instanceof String sql) inspect(sql);
+                    try{
+                        return method.invoke(statement, args);
+                    } catch (InvocationTargetException e){
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    /**
+     * SET and RESET change the session, except SET LOCAL and SET TRANSACTION which end with the transaction.
+     */
+    static boolean changesSession(String sql){
+        if(sql == null) return false;
+        int start = 0;
+        int length = sql.length();
+        while (start < length && Character.isWhitespace(sql.charAt(start))) start++;
+        if(sql.regionMatches(true, start, "RESET", 0, 5)) return true;
+        if(sql.regionMatches(true, start, "SELECT SET_CONFIG", 0, 17)) return true;
+        if(!sql.regionMatches(true, start, "SET", 0, 3)) return false;
+        if(start + 3 < length && !Character.isWhitespace(sql.charAt(start + 3))) return false;
+        String rest = sql.substring(start + 3).stripLeading().toUpperCase(Locale.ROOT);
+        return !rest.startsWith("LOCAL ") && !rest.startsWith("TRANSACTION ");
+    }
+}
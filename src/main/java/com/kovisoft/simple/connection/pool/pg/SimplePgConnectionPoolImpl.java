@@ -1,76 +1,230 @@
 package com.kovisoft.simple.connection.pool.pg;
 
 import com.kovisoft.logger.exports.Logger;
-import com.kovisoft.logger.exports.LoggerFactory;
+import com.kovisoft.simple.connection.pool.exports.AccessMode;
+import com.kovisoft.simple.connection.pool.exports.CircuitState;
+import com.kovisoft.simple.connection.pool.exports.ConnectionCallback;
+import com.kovisoft.simple.connection.pool.exports.ConnectionFactory;
 import com.kovisoft.simple.connection.pool.exports.ConnectionWrapper;
 import com.kovisoft.simple.connection.pool.exports.PoolConfig;
+import com.kovisoft.simple.connection.pool.exports.PoolEventListener.EvictionReason;
+import com.kovisoft.simple.connection.pool.exports.PoolMetrics;
+import com.kovisoft.simple.connection.pool.exports.PoolOverloadedException;
+import com.kovisoft.simple.connection.pool.exports.PoolSizingController;
+import com.kovisoft.simple.connection.pool.exports.PoolSizingSample;
+import com.kovisoft.simple.connection.pool.exports.PoolTimeoutException;
+import com.kovisoft.simple.connection.pool.exports.PoolUnavailableException;
+import com.kovisoft.simple.connection.pool.exports.Priority;
 import com.kovisoft.simple.connection.pool.exports.SimplePgConnectionPool;
 
-import java.io.IOException;
-import java.sql.PreparedStatement;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 public class SimplePgConnectionPoolImpl implements SimplePgConnectionPool, AutoCloseable {
 
-    protected final Logger logger;
-    private final static String GET_CONN_STATE = "SELECT state FROM pg_stat_activity WHERE pid = ?";
-    private ConnectionWrapperImpl managerConnection;
-    private final BlockingQueue<ConnectionWrapperImpl> connections;
-    private final Set<ConnectionWrapperImpl> cws = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    protected final Logger logger = PoolLogger.LOGGER;
+    private final ManagerConnection managerConnection;
+    private final Object managerKey;
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+    private final PoolMetricsImpl metrics = new PoolMetricsImpl();
+    private final PoolEventDispatcher events;
+    private final ConnectionBag bag;
+    private final CreationCircuitBreaker creationBreaker;
+    private final String poolName;
+    private ObjectName metricsName;
+    private final ConnectionReclaimer reclaimer;
 
     private final int maxCharacters;
     private final int maxCachedStatements;
+    private final boolean lazyStatements;
+    private final int hotStatementPrepareCount;
     private final int minConnections;
     private final int maxConnections;
     private final int connectionLifeSpan;
+    private final int connectionLifeSpanJitterPercent;
     private final int requestsPerMinutePerCon;
 
 
     private final String connectionUrl;
-    private final String user;
-    private final String pass;
+    private final ConnectionFactory connectionFactory;
     private final Map<String, String> prepStatements = new ConcurrentHashMap<>();
     private final Map<String, Integer> constStatements = new ConcurrentHashMap<>();
+    private final StatementRegistry statementRegistry = new StatementRegistry(prepStatements, constStatements);
+    private final StatementPromoter statementPromoter;
 
 
     private final ScheduledExecutorService poolManagementThread;
-    private final ScheduledExecutorService validationExecutor;
+    private final ScheduledExecutorService validationScheduler;
+    private final ExecutorService validationExecutor;
+    private final ScheduledExecutorService borrowTimer;
+    private final ScheduledFuture<?> managementTask;
+    private final ScheduledFuture<?> validationTask;
+    // Set when the pool lives in a PoolRegistry, the executors above are then the registry's and shared.
+    private final PoolRegistryImpl registry;
+    private final String registryKey;
+    private final ConnectionBudget budget;
+    private final AtomicInteger budgetHeld = new AtomicInteger();
+    private final boolean leakDetection;
+    private final int leakStackSampleRate;
+    private volatile int connectionShare;
+    private volatile int desiredConnections;
+    private static final String REPLICA_LAG = "SELECT CASE WHEN NOT pg_is_in_recovery() "
+            + "OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 "
+            + "ELSE COALESCE((EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000)::bigint, 0) END";
+    // Read only borrows are routed across the replicas, each replica pool checks its own lag.
+    private final List<SimplePgConnectionPoolImpl> replicas;
+    private final boolean replica;
+    private final long maxReplicaLagMillis;
+    private final long replicaLagCheckNanos;
+    private long nextLagCheckNanos;
+    private volatile long replicaLagMillis = 0;
+    private final long validationSkipWindowNanos;
+    private final int validationTimeoutSeconds;
+    private final ExecutorService creatorExecutor;
+    private final AtomicInteger pendingCreations = new AtomicInteger();
+    private final CompletableFuture<Void> readyFuture = new CompletableFuture<>();
     private volatile boolean running = true;
-    private volatile AtomicInteger requestsPastMinute = new AtomicInteger(0);
-    private long minuteStart = System.currentTimeMillis();
-    private static final long MILLIS_PER_MINUTE = 60000;
+    private static final long PROMOTION_DECAY_MILLIS = 60000;
     private volatile int targetConnections;
+    private final PoolSizingController sizingController;
+    private final long sizingIntervalNanos;
+    private final ReentrantLock sizingLock = new ReentrantLock();
+    // Metric totals at the previous sizing decision, the controller is handed the difference.
+    private long lastSizingNanos = System.nanoTime();
+    private long lastBorrows;
+    private long lastBorrowTimeouts;
+    private long lastBorrowWaitNanos;
+    private long lastReleases;
+    private long lastHoldNanos;
 
     public SimplePgConnectionPoolImpl(PoolConfig config) throws SQLException {
-        try{
-            logger = LoggerFactory.createLogger(System.getProperty("user.dir") + "/logs",
-                    "DB_pool_");
-        } catch (IOException e) {
-            throw new RuntimeException("Could not startup the Connection Wrapper logger!", e);
-        }
+        this(config, null, -1, null, null);
+    }
+
+    /**
+     * A pool living in a PoolRegistry, it runs on the registry's threads and budget.
+     * @param registryKey The key the registry files the pool under, also its name unless the config names it.
+     */
+    SimplePgConnectionPoolImpl(PoolConfig config, PoolRegistryImpl registry, String registryKey) throws SQLException {
+        this(config, null, -1, registry, registryKey);
+    }
+
+    /**
+     * @param primaryName Name of the primary pool when this is one of its replica pools, null for the primary.
+     * @param replicaIndex Which of the config's replicas this pool serves, ignored for the primary.
+     * @param registry The registry sharing its threads and manager connections, null for a standalone pool.
+     * @param registryKey The key in the registry, null unless this is a registry pool's primary.
+     */
+    private SimplePgConnectionPoolImpl(PoolConfig config, String primaryName, int replicaIndex,
+                                       PoolRegistryImpl registry, String registryKey) throws SQLException {
+        this.replica = primaryName != null;
+        this.registry = registry;
+        this.registryKey = registryKey;
+        // Replicas are other servers, only the primary's connections count against the registry budget.
+        this.budget = registry == null || replica ? null : registry.getBudget();
+        this.leakDetection = config.getLeakDetectionThresholdMillis() > 0;
+        this.leakStackSampleRate = config.getLeakStackSampleRate();
+        this.maxReplicaLagMillis = config.getMaxReplicaLagMillis();
+        this.replicaLagCheckNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, config.getReplicaLagCheckIntervalMillis()));
+        this.nextLagCheckNanos = System.nanoTime();
         this.minConnections = config.getMinConnections();
         this.maxConnections = config.getMaxConnections();
-        this.targetConnections =  Math.max((this.maxConnections - this.minConnections) / 2, minConnections);
+        this.desiredConnections = Math.max((this.maxConnections - this.minConnections) / 2, minConnections);
+        // A registry pool starts on its minimum, the registry hands out more once it has seen the demand.
+        this.connectionShare = budget == null ? maxConnections : minConnections;
+        this.targetConnections = Math.min(desiredConnections, connectionShare);
         this.requestsPerMinutePerCon = config.getRequestsPerMinutePerConn();
+        this.sizingController = config.getSizingController() != null ? config.getSizingController()
+                : new LittlesLawSizingController(config.getBorrowWaitTargetMillis());
+        this.sizingIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, config.getSizingIntervalMillis()));
         this.connectionLifeSpan = config.getConnectionLifeSpan();
+        this.validationSkipWindowNanos = TimeUnit.MILLISECONDS.toNanos(config.getValidationSkipWindowMillis());
+        this.validationTimeoutSeconds = (int) Math.max(1, (config.getValidationTimeoutMillis() + 999L) / 1000);
+        this.connectionLifeSpanJitterPercent = Math.max(0, Math.min(100, config.getConnectionLifeSpanJitterPercent()));
         this.maxCharacters = config.getMaxCharacters();
         this.maxCachedStatements = config.getMaxCachedStatements();
-        connections = new LinkedBlockingQueue<>(maxConnections + 1);
+        this.lazyStatements = config.isLazyStatementPreparation();
+        this.hotStatementPrepareCount = config.getHotStatementPrepareCount();
+        this.statementPromoter = config.getStatementPromotionThreshold() > 0
+                ? new StatementPromoter(prepStatements, config.getStatementPromotionThreshold(), maxCachedStatements,
+                        maxCharacters, PROMOTION_DECAY_MILLIS) : null;
 
-        this.connectionUrl = config.getUrl();
-        this.user = config.getUser();
-        this.pass = config.getPass();
-        managerConnection = new ConnectionWrapperImpl(connectionUrl, user, pass,
-                connectionLifeSpan * 2, Map.of(GET_CONN_STATE, GET_CONN_STATE));
+        boolean named = config.getPoolName() != null && !config.getPoolName().isBlank();
+        if(replica){
+            this.poolName = primaryName + "-replica-" + (replicaIndex + 1);
+        } else if(named){
+            this.poolName = config.getPoolName();
+        } else {
+            this.poolName = registryKey != null ? registryKey : "SimplePgPool-" + POOL_COUNT.incrementAndGet();
+        }
+        this.events = new PoolEventDispatcher(config.getEventListener() != null ? config.getEventListener()
+                : new LoggingPoolEventListener(), config.isBorrowEventsEnabled(), config.getBorrowEventSampleRate(), poolName);
+        this.bag = new ConnectionBag(poolName, metrics, events);
+        bag.setHighPriorityReservedPercent(config.getHighPriorityReservedPercent());
+        bag.setAdmission(config.getMaxWaiters(), config.isRejectUnreachableBorrows());
+        this.creationBreaker = new CreationCircuitBreaker(config.getCreationFailureThreshold(),
+                config.getCreationBackoffMillis(), config.getCreationBackoffMaxMillis(), (from, to, retryInNanos, cause) -> {
+                    if(to == CircuitState.OPEN) metrics.recordCircuitOpened();
+                    events.circuitStateChanged(from, to, TimeUnit.NANOSECONDS.toMillis(retryInNanos), cause);
+                });
+        Object managerKey;
+        if(replica){
+            List<String> urls = config.getReplicaUrls();
+            List<ConnectionFactory> factories = config.getReplicaConnectionFactories();
+            this.connectionUrl = replicaIndex < urls.size() ? urls.get(replicaIndex) : poolName;
+            boolean hasFactory = factories != null && replicaIndex < factories.size();
+            this.connectionFactory = hasFactory ? factories.get(replicaIndex)
+                    : ConnectionFactory.forUrl(connectionUrl, config.getUser(), config.getPass());
+            // Replica manager connections prepare the lag query too, keep them apart from primary ones.
+            managerKey = List.of("replica", hasFactory ? connectionFactory
+                    : PoolRegistryImpl.serverKey(connectionUrl, config.getUser()));
+        } else {
+            this.connectionUrl = config.getUrl();
+            this.connectionFactory = config.getConnectionFactory() != null ? config.getConnectionFactory()
+                    : ConnectionFactory.forUrl(config.getUrl(), config.getUser(), config.getPass());
+            managerKey = config.getConnectionFactory() != null ? connectionFactory
+                    : PoolRegistryImpl.serverKey(connectionUrl, config.getUser());
+        }
+        this.managerKey = managerKey;
+        Map<String, String> managerStatements = replica
+                ? Map.of(ConnectionReclaimer.GET_CONN_STATES, ConnectionReclaimer.GET_CONN_STATES, REPLICA_LAG, REPLICA_LAG)
+                : Map.of(ConnectionReclaimer.GET_CONN_STATES, ConnectionReclaimer.GET_CONN_STATES);
+        long managerLifespanNanos = TimeUnit.MINUTES.toNanos(connectionLifeSpan * 2L);
+        // Shared manager connections are opened by the registry, the opener must not keep this pool alive.
+        managerConnection = registry == null
+                ? new ManagerConnection(ManagerConnection.opener(connectionFactory, managerStatements,
+                        managerLifespanNanos))
+                : registry.acquireManagerConnection(managerKey, connectionFactory, managerStatements,
+                        managerLifespanNanos);
+        reclaimer = new ConnectionReclaimer(logger, bag, managerConnection, this::removeConnection, metrics, events,
+                config.getConnectionCheckIntervals(), config.getReclaimIntervalMaxMillis(),
+                config.getIdleReclaimGraceMillis(), config.getLeakDetectionThresholdMillis(),
+                config.getLeakReclaimPolicy());
+        if(config.isRegisterMBean()) registerMetricsMBean();
 
-        for(int i = 0; i < targetConnections; i++){
-            initConnAndAddToPool();
+        if(registry != null){
+            creatorExecutor = registry.getCreators();
+        } else {
+            int creatorThreads = Math.max(1, Math.min(config.getConnectionCreatorThreads(), maxConnections));
+            AtomicInteger creatorCount = new AtomicInteger();
+            ThreadPoolExecutor creators = new ThreadPoolExecutor(creatorThreads, creatorThreads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(maxConnections), r -> {
+                        Thread thread = new Thread(r, "SimplePgPool-creator-" + creatorCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            creators.allowCoreThreadTimeOut(true);
+            creatorExecutor = creators;
         }
+        warmUp(config.isAsyncStartup());
         managePool();
         logger.info(String.format("Connection was setup minCon: %d, maxCon: %d, target %s, "
                 + "rpmpc: %d, lifeSpan: %d, chars: %d, cache: %d, url: %s", minConnections, maxConnections,
@@ -78,17 +232,70 @@ public class SimplePgConnectionPoolImpl implements SimplePgConnectionPool, AutoC
                 connectionUrl
 
         ));
-        poolManagementThread = Executors.newScheduledThreadPool(1);
-        poolManagementThread.scheduleWithFixedDelay(this::managePool, 0,
-                config.getConnectionCheckIntervals(), TimeUnit.MILLISECONDS);
+        if(registry != null){
+            // Everything periodic runs on the registry's scheduler, close() only cancels this pool's tasks.
+            // The checks themselves block on the server, they run on the registry's validators instead.
+            poolManagementThread = registry.getScheduler();
+            validationScheduler = registry.getScheduler();
+            validationExecutor = registry.getValidators();
+            borrowTimer = registry.getScheduler();
+        } else {
+            ScheduledThreadPoolExecutor managementExecutor = new ScheduledThreadPoolExecutor(1);
+            // The reclaimer reschedules itself as one shot delays, don't let close() wait those out.
+            managementExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            poolManagementThread = managementExecutor;
+
+            AtomicInteger validatorCount = new AtomicInteger();
+            ScheduledThreadPoolExecutor validators = new ScheduledThreadPoolExecutor(Math.max(1, config.getValidationThreads()),
+                    r -> {
+                        Thread thread = new Thread(r, poolName + "-validator-" + validatorCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            validators.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            validationScheduler = validators;
+            validationExecutor = validators;
 
-        validationExecutor = Executors.newScheduledThreadPool(1);
-        validationExecutor.scheduleWithFixedDelay(this::validateConnections, 5 * 60, 60, TimeUnit.SECONDS);
+            // One thread times out every async borrow, it only starts once the first borrow has to wait.
+            ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread thread = new Thread(r, poolName + "-borrow-timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            timer.setRemoveOnCancelPolicy(true);
+            borrowTimer = timer;
+        }
+        managementTask = poolManagementThread.scheduleWithFixedDelay(this::managePool, 0,
+                config.getConnectionCheckIntervals(), TimeUnit.MILLISECONDS);
+        reclaimer.start(poolManagementThread);
+        long validationInterval = Math.max(1, config.getValidationIntervalMillis());
+        validationTask = validationScheduler.scheduleWithFixedDelay(this::validateConnections, validationInterval,
+                validationInterval, TimeUnit.MILLISECONDS);
 
+        this.replicas = replica ? List.of() : startReplicas(config);
         logger.info("Pool Setup without exception!");
 
     }
 
+    /**
+     * Each replica is a pool of its own, sized and managed like the primary. A replica that can't be reached
+     * at startup is left out rather than failing the primary.
+     */
+    private List<SimplePgConnectionPoolImpl> startReplicas(PoolConfig config){
+        int count = Math.max(config.getReplicaUrls().size(),
+                config.getReplicaConnectionFactories() == null ? 0 : config.getReplicaConnectionFactories().size());
+        List<SimplePgConnectionPoolImpl> started = new ArrayList<>(count);
+        for(int i = 0; i < count; i++){
+            try{
+                started.add(new SimplePgConnectionPoolImpl(config, poolName, i, registry, null));
+            } catch (SQLException e){
+                logger.except(String.format("Could not start replica %d of pool %s, reads will not use it.", i + 1,
+                        poolName), e);
+            }
+        }
+        return List.copyOf(started);
+    }
+
     public SimplePgConnectionPoolImpl(PoolConfig config, Map<String, String> prepStatements) throws SQLException {
         this(config);
         addPreparedStatementsToPool(prepStatements);
@@ -104,6 +311,92 @@ public class SimplePgConnectionPoolImpl implements SimplePgConnectionPool, AutoC
         logger.info("Default Prepared statements added to pool without exception!");
     }
 
+    /**
+     * Opens the initial connections in parallel. Blocks until all of them are done, or in async
+     * startup mode only until minConnections are ready while the rest keep warming in the background.
+     * @param asyncStartup If true return as soon as minConnections are available.
+     */
+    private void warmUp(boolean asyncStartup){
+        AtomicInteger created = new AtomicInteger();
+        CompletableFuture<Void> minReady = new CompletableFuture<>();
+        CompletableFuture<?>[] warmups = new CompletableFuture<?>[targetConnections];
+        for(int i = 0; i < targetConnections; i++){
+            warmups[i] = createConnectionAsync().thenAccept(cw -> {
+                if(cw != null && created.incrementAndGet() >= minConnections) minReady.complete(null);
+            });
+        }
+        CompletableFuture.allOf(warmups).whenComplete((ignored, t) -> {
+            minReady.complete(null);
+            if(bag.size() < minConnections){
+                readyFuture.completeExceptionally(new SQLException(String.format(
+                        "Pool warm up finished with %d of the %d minimum connections.", bag.size(), minConnections)));
+            } else {
+                readyFuture.complete(null);
+            }
+        });
+        (asyncStartup ? minReady : readyFuture).exceptionally(t -> {
+            logger.warn("Pool did not reach its minimum connections during warm up. " + t.getMessage());
+            return null;
+        }).join();
+    }
+
+    @Override
+    public CompletableFuture<Void> whenReady() {
+        return readyFuture;
+    }
+
+    @Override
+    public PoolMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public CircuitState getCircuitState() {
+        return creationBreaker.getState();
+    }
+
+    int getMinConnections(){
+        return minConnections;
+    }
+
+    int getMaxConnections(){
+        return maxConnections;
+    }
+
+    /**
+     * @return What the sizing controller last asked for, before the registry share capped it.
+     */
+    int getDesiredConnections(){
+        return desiredConnections;
+    }
+
+    int getConnectionShare(){
+        return connectionShare;
+    }
+
+    /**
+     * Set by the registry's rebalance, the pool trims down to or grows into it on its next management pass.
+     */
+    void setConnectionShare(int share){
+        connectionShare = Math.max(minConnections, Math.min(maxConnections, share));
+        targetConnections = Math.min(desiredConnections, connectionShare);
+    }
+
+    ConnectionBag getBag(){
+        return bag;
+    }
+
+    private void registerMetricsMBean(){
+        try{
+            metricsName = new ObjectName("com.kovisoft.simple.connection.pool:type=PoolMetrics,name="
+                    + ObjectName.quote(poolName));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, metricsName);
+        } catch (Exception e){
+            metricsName = null;
+            logger.warn("Could not register the pool metrics MBean for " + poolName, e);
+        }
+    }
+
     @Override
     public ConnectionWrapper borrowConnection() throws SQLException, InterruptedException {
         return borrowConnection(50);
@@ -111,37 +404,192 @@ public class SimplePgConnectionPoolImpl implements SimplePgConnectionPool, AutoC
 
     @Override
     public ConnectionWrapper borrowConnection(long millis) throws SQLException, InterruptedException {
-        return borrowConnection(millis, false);
+        return borrowConnection(Priority.NORMAL, millis);
     }
 
+    @Override
+    public ConnectionWrapper borrowConnection(Priority priority, long millis) throws SQLException, InterruptedException {
+        // Hot path: no logging, no shared locks, no driver calls. Closed connections are swept by managePool.
+        // The wait is a single absolute budget, nothing is retried so a borrow never outlives millis.
+        final long start = System.nanoTime();
+        ConnectionWrapperImpl cw = creationBreaker.getState() == CircuitState.CLOSED
+                ? bag.borrow(millis, TimeUnit.MILLISECONDS, priority) : pollWhileUnavailable(priority);
+        final long now = System.nanoTime();
+        if(cw != null){
+            metrics.recordBorrowWait(now - start, priority);
+            events.borrowed(cw, now - start);
+            cw.setBorrowedAt(now);
+            cw.setBorrowSite(sampleBorrowSite());
+            return cw;
+        }
+        if(!running) throw new SQLException("Pool " + poolName + " has been shut down.");
+        metrics.recordBorrowTimeout(priority);
+        throw timeoutException(priority, TimeUnit.NANOSECONDS.toMillis(now - start));
+    }
 
-    private ConnectionWrapper borrowConnection(long millis, boolean retry) throws SQLException, InterruptedException {
-        requestsPastMinute.incrementAndGet();
-        logger.info("Connection borrow requested! Current connections in queue: " + connections.size() + ", Current cws:" + cws.size());
+    /**
+     * Marks the borrow scoped so the idle reclaim can't take the connection back while the work runs.
+     */
+    @Override
+    public <T> T withConnection(ConnectionCallback<T> work) throws SQLException, InterruptedException {
+        ConnectionWrapperImpl cw = (ConnectionWrapperImpl) borrowConnection();
+        cw.setScoped(true);
         try{
-            ConnectionWrapperImpl cw = connections.poll(millis, TimeUnit.MILLISECONDS);
-            while (cw != null){
-                //logger.info("Connection validating cw not closed...");
-                if(!cw.isClosed()){
-                    logger.info("cw that was not closed connection was discovered in the pool, returning to user!");
-                    return  cw;
+            return work.apply(cw);
+        } finally {
+            cw.release();
+        }
+    }
+
+    @Override
+    public ConnectionWrapper borrowConnection(AccessMode mode, long millis) throws SQLException, InterruptedException {
+        if(mode == AccessMode.READ_ONLY){
+            SimplePgConnectionPoolImpl target = leastLoadedReplica();
+            if(target != null){
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+                try{
+                    return target.borrowConnection(millis);
+                } catch (PoolTimeoutException | PoolOverloadedException | PoolUnavailableException e){
+                    // The replica couldn't serve it, the primary gets whatever is left of the same budget.
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    return borrowConnection(Math.max(0, remaining));
                 }
-                logger.warn("Connection was closed, removing it and retrieving another");
-                removeConnection(cw);
-                cw = connections.poll(millis, TimeUnit.MILLISECONDS);
             }
-        } catch (Exception e){
-            logger.except("An Exception occurred while attempting to borrow a connection!", e);
-            if(retry) throw e;
         }
-        logger.warn("Connections appear to be in use? All of them?! I don't but it."
-         + "Connection Wrapper Set Size: " + cws.size() + ", Connections Empty");
+        return borrowConnection(millis);
+    }
 
-        if(!retry) {
-            managePool();
-            return borrowConnection(millis, true);
+    private SimplePgConnectionPoolImpl leastLoadedReplica(){
+        SimplePgConnectionPoolImpl best = null;
+        double bestLoad = Double.MAX_VALUE;
+        for(SimplePgConnectionPoolImpl candidate : replicas){
+            if(!candidate.isHealthyReplica()) continue;
+            double load = candidate.load();
+            if(load < bestLoad){
+                best = candidate;
+                bestLoad = load;
+            }
         }
-        else throw new SQLException("All the connections were either occupied or interupted!");
+        return best;
+    }
+
+    private boolean isHealthyReplica(){
+        return running && bag.size() > 0 && replicaLagMillis <= maxReplicaLagMillis
+                && creationBreaker.getState() == CircuitState.CLOSED;
+    }
+
+    /**
+     * @return Borrowed plus waiting per open connection, above 1 means borrowers are queueing.
+     */
+    private double load(){
+        int size = bag.size();
+        return (double) (size - bag.idleCount() + bag.getWaiterCount()) / Math.max(1, size);
+    }
+
+    List<SimplePgConnectionPoolImpl> getReplicas(){
+        return replicas;
+    }
+
+    long getReplicaLagMillis(){
+        return replicaLagMillis;
+    }
+
+    @Override
+    public CompletableFuture<ConnectionWrapper> borrowAsync(Duration timeout){
+        return borrowAsync(Priority.NORMAL, timeout);
+    }
+
+    @Override
+    public CompletableFuture<ConnectionWrapper> borrowAsync(Priority priority, Duration timeout){
+        if(!running) return CompletableFuture.failedFuture(new SQLException("Pool " + poolName + " has been shut down."));
+        final long start = System.nanoTime();
+        // Taken here, the wrapper arrives on whichever thread released it.
+        final Exception borrowSite = sampleBorrowSite();
+        final long timeoutNanos = Math.max(0, timeout.toNanos());
+        CompletableFuture<ConnectionWrapperImpl> waiter;
+        if(creationBreaker.getState() == CircuitState.CLOSED){
+            waiter = bag.borrowAsync(priority, timeoutNanos);
+        } else {
+            try{
+                waiter = CompletableFuture.completedFuture(pollWhileUnavailable(priority));
+            } catch (PoolUnavailableException e){
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        CompletableFuture<ConnectionWrapper> result = new CompletableFuture<>();
+        if(!waiter.isDone()){
+            ScheduledFuture<?> timer = borrowTimer.schedule(() -> {
+                // Leave the queue and count it first so both are settled by the time the caller sees the timeout.
+                if(!bag.cancel(waiter) || result.isDone()) return;
+                metrics.recordBorrowTimeout(priority);
+                result.completeExceptionally(timeoutException(priority,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+            }, timeoutNanos, TimeUnit.NANOSECONDS);
+            // Timed out or cancelled by the caller, either way stop waiting in the bag.
+            result.whenComplete((cw, e) -> {
+                timer.cancel(false);
+                if(e != null) bag.cancel(waiter);
+            });
+        }
+        waiter.whenComplete((cw, e) -> {
+            if(e instanceof PoolOverloadedException overloaded){
+                result.completeExceptionally(overloaded);
+                return;
+            }
+            if(cw == null){
+                // Cancelled, by the timer or the caller while running, by close otherwise.
+                if(!running) result.completeExceptionally(new SQLException("Pool " + poolName + " has been shut down."));
+                return;
+            }
+            // Runs on the releasing thread, only the bookkeeping borrowConnection does after waking.
+            final long now = System.nanoTime();
+            cw.setBorrowedAt(now);
+            cw.setBorrowSite(borrowSite);
+            if(!result.complete(cw)){
+                bag.giveBack(cw);
+                return;
+            }
+            metrics.recordBorrowWait(now - start, priority);
+            events.borrowed(cw, now - start);
+        });
+        return result;
+    }
+
+    /**
+     * @return The borrower's stack for roughly 1 in leakStackSampleRate borrows while leak detection is on,
+     * null otherwise so unsampled borrows cost a single branch.
+     */
+    private Exception sampleBorrowSite(){
+        if(!leakDetection || leakStackSampleRate <= 0) return null;
+        if(leakStackSampleRate > 1 && ThreadLocalRandom.current().nextInt(leakStackSampleRate) != 0) return null;
+        return new Exception("Connection borrowed from pool " + poolName + " by thread "
+                + Thread.currentThread().getName());
+    }
+
+    /**
+     * While the creation circuit isn't closed no connection is coming to wait for, only what is idle right now
+     * is handed out.
+     * @throws PoolUnavailableException If nothing was idle.
+     */
+    private ConnectionWrapperImpl pollWhileUnavailable(Priority priority) throws PoolUnavailableException {
+        ConnectionWrapperImpl cw = bag.poll(priority);
+        if(cw != null) return cw;
+        metrics.recordBorrowRejected();
+        CircuitState state = creationBreaker.getState();
+        long retryInMillis = TimeUnit.NANOSECONDS.toMillis(creationBreaker.getRetryInNanos());
+        throw new PoolUnavailableException(state, retryInMillis, String.format(
+                "Pool %s can't open connections, circuit %s with the next attempt in %d ms: %d open, none idle.",
+                poolName, state, retryInMillis, bag.size()), creationBreaker.getLastFailure());
+    }
+
+    private PoolTimeoutException timeoutException(Priority priority, long waitedMillis){
+        int size = bag.size();
+        int pending = pendingCreations.get();
+        PoolTimeoutException.Reason reason = pending > 0 || size < targetConnections
+                ? PoolTimeoutException.Reason.REFILLING : PoolTimeoutException.Reason.EXHAUSTED;
+        return new PoolTimeoutException(reason, waitedMillis, String.format(
+                "Pool %s timed out after %d ms waiting for a %s priority connection (%s): %d open, %d in use, %d opening, %d waiting.",
+                poolName, waitedMillis, priority, reason, size, metrics.getActiveConnections(), pending, bag.getWaiterCount()));
     }
 
     @Override
@@ -160,63 +608,201 @@ public class SimplePgConnectionPoolImpl implements SimplePgConnectionPool, AutoC
         int priorToAdd = prepStatements.size();
         boolean notNull = statmentConstMap != null;
         prepStmts.forEach((key, value) ->{
-            if(value == null || value.length() > maxCharacters
-                    || prepStatements.size() >= maxCachedStatements) return;
+            if(value == null || value.length() > maxCharacters) return;
+            // Promoted ad-hoc SQL only borrows the room, registrations push the coldest of it out.
+            if(prepStatements.size() >= maxCachedStatements
+                    && (statementPromoter == null || !statementPromoter.makeRoom())) return;
             this.prepStatements.put(key, value);
             if(notNull && statmentConstMap.containsKey(key)){
                 this.constStatements.put(key, statmentConstMap.get(key));
             }
         });
-        for(ConnectionWrapper cw : cws){
-            cw.addPreparedStatements(this.prepStatements, this.constStatements);
+        // Lazy connections pick new keys up on first use, management pre-prepares the hot ones.
+        if(!lazyStatements){
+            for(ConnectionWrapper cw : bag.values()){
+                cw.addPreparedStatements(this.prepStatements, this.constStatements);
+            }
+        }
+        // Read only borrowers ask replica connections for the same keys.
+        for(SimplePgConnectionPoolImpl replicaPool : replicas){
+            replicaPool.addPreparedStatementsToPool(prepStmts, statmentConstMap);
         }
         return prepStatements.size() - priorToAdd;
     }
 
 
 
-    private void initConnAndAddToPool() throws SQLException {
+    /**
+     * Queues a connection to be opened on the creator executor.
+     * @return Future of the new wrapper, completed with null if the connection could not be opened.
+     */
+    private CompletableFuture<ConnectionWrapperImpl> createConnectionAsync(){
+        pendingCreations.incrementAndGet();
+        try{
+            return CompletableFuture.supplyAsync(() -> {
+                try{
+                    return initConnAndAddToPool();
+                } finally {
+                    pendingCreations.decrementAndGet();
+                }
+            }, creatorExecutor);
+        } catch (RejectedExecutionException e){
+            pendingCreations.decrementAndGet();
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private ConnectionWrapperImpl initConnAndAddToPool() {
+        if(!acquireBudget()) return null;
+        if(!creationBreaker.tryAcquire()){
+            releaseBudget(1);
+            return null;
+        }
+        ConnectionWrapperImpl cw = null;
+        boolean added = false;
+        final long start = System.nanoTime();
+        final int promotionVersion = statementPromoter == null ? 0 : statementPromoter.getVersion();
+        final long lifespan = jitteredLifespanNanos();
         try{
-            if(prepStatements.isEmpty() && constStatements.isEmpty()){
-                cws.add(new ConnectionWrapperImpl(connectionUrl, user, pass, connectionLifeSpan));
+            if(lazyStatements){
+                cw = new ConnectionWrapperImpl(connectionFactory, lifespan);
+                cw.setStatementRegistry(statementRegistry);
+                cw.prepareHotStatements();
+            } else if(prepStatements.isEmpty() && constStatements.isEmpty()){
+                cw = new ConnectionWrapperImpl(connectionFactory, lifespan);
             } else if (constStatements.isEmpty()){
-                cws.add(new ConnectionWrapperImpl(connectionUrl, user, pass,
-                        connectionLifeSpan, prepStatements));
+                cw = new ConnectionWrapperImpl(connectionFactory,
+                        lifespan, prepStatements);
             } else {
-                cws.add(new ConnectionWrapperImpl(connectionUrl, user, pass,
-                        connectionLifeSpan, prepStatements, constStatements));
+                cw = new ConnectionWrapperImpl(connectionFactory,
+                        lifespan, prepStatements, constStatements);
             }
+            if(statementPromoter != null) cw.setStatementPromoter(statementPromoter, promotionVersion);
+            cw.setStatementCache(new StatementCache(maxCachedStatements, maxCharacters,
+                    (long) maxCachedStatements * maxCharacters, metrics));
+            if(!running && budget != null){
+                // Shared creator threads outlive the pool, don't keep what finished opening after close.
+                closeQuietly(cw);
+                releaseBudget(1);
+                return null;
+            }
+            long creationNanos = System.nanoTime() - start;
+            metrics.recordCreation(creationNanos);
+            bag.add(cw);
+            added = true;
+            if(!running && bag.remove(cw)){
+                // Added after close() emptied the bag, whoever removes it gives its permit back.
+                closeQuietly(cw);
+                releaseBudget(1);
+                return null;
+            }
+            creationBreaker.onSuccess();
+            events.created(cw, creationNanos);
+            return cw;
         } catch (Exception e){
-            logger.except("Exception was thrown while attemping to create a new Connection wrapper.", e);
+            metrics.recordCreationFailure();
+            events.createFailed(e);
+            // Connections that failed because the pool closed under them say nothing about the server.
+            if(running) creationBreaker.onFailure(e);
+            // Once in the bag the permit goes back with its removal, not here.
+            if(added) return null;
+            if(cw != null) closeQuietly(cw);
+            releaseBudget(1);
+            return null;
         }
+    }
+
+    /**
+     * Takes a permit from the registry's budget for a new connection, always true for a standalone pool.
+     * False once the pool holds its whole share or the registry is at its global max.
+     */
+    private boolean acquireBudget(){
+        if(budget == null) return true;
+        if(!running) return false;
+        int held;
+        do{
+            held = budgetHeld.get();
+            if(held >= connectionShare) return false;
+        } while (!budgetHeld.compareAndSet(held, held + 1));
+        if(budget.tryAcquire()) return true;
+        budgetHeld.decrementAndGet();
+        return false;
+    }
+
+    private void releaseBudget(int permits){
+        if(budget == null || permits <= 0) return;
+        budgetHeld.addAndGet(-permits);
+        budget.release(permits);
+    }
 
+    /**
+     * Connections opened together (startup, a burst) would otherwise all expire together, so each one
+     * gets up to the jitter percentage knocked off its lifespan at random.
+     */
+    private long jitteredLifespanNanos(){
+        long lifespan = TimeUnit.MINUTES.toNanos(connectionLifeSpan);
+        if(connectionLifeSpanJitterPercent == 0) return lifespan;
+        long maxJitter = lifespan / 100 * connectionLifeSpanJitterPercent;
+        return lifespan - ThreadLocalRandom.current().nextLong(maxJitter + 1);
     }
 
+    private void closeQuietly(ConnectionWrapperImpl cw){
+        try{
+            cw.close();
+        } catch (Exception e){
+            logger.except("Exception thrown trying to close a connection wrapper.", e);
+        }
+    }
+
+    /**
+     * Queues a check for every idle connection that hasn't been known good for the skip window. A connection
+     * is reserved for the length of its check so no borrower gets it mid check, busy connections are skipped
+     * (a borrower is using them, which is its own check). Checks run in parallel on the validation threads.
+     */
     private void validateConnections(){
-        for(ConnectionWrapperImpl cw : cws){
+        final long now = System.nanoTime();
+        for(ConnectionWrapperImpl cw : bag.values()){
+            if(now - cw.getLastKnownGoodNanos() < validationSkipWindowNanos || !bag.reserve(cw)) continue;
             try{
-                //logger.info("Attempting to validate connection wrapper");
-                if(!cw.validate()) {
-                    cw.close();
-                    cw = null;
-                }
-            } catch(Exception e){
-                logger.except("Exception occurred during validation of thread.", e);
-                cw = null;
+                validationExecutor.execute(() -> validateConnection(cw));
+            } catch (RejectedExecutionException e){
+                bag.unreserve(cw);
+                return;
             }
         }
-        cws.removeIf(Objects::isNull);
     }
 
-    private void managePool(){
+    private void validateConnection(ConnectionWrapperImpl cw){
+        metrics.recordValidation();
+        Exception cause = null;
+        boolean valid = false;
+        try{
+            valid = cw.validate(validationTimeoutSeconds);
+        } catch (Exception e){
+            cause = e;
+        }
+        if(valid){
+            cw.markKnownGood(System.nanoTime());
+            bag.unreserve(cw);
+        } else {
+            metrics.recordValidationEviction();
+            events.validationFailed(cw, cause);
+            removeConnection(cw, EvictionReason.VALIDATION_FAILED);
+        }
+    }
+
+    void managePool(){
         if(!running){
             Thread.currentThread().interrupt();
             return;
         }
         try{
-            if(System.currentTimeMillis() - minuteStart >= MILLIS_PER_MINUTE){
+            if(System.nanoTime() - lastSizingNanos >= sizingIntervalNanos){
                 adjustPoolSize();
             }
+            if(replica && System.nanoTime() - nextLagCheckNanos >= 0){
+                checkReplicaLag();
+            }
             manageConnections();
         } catch (SQLException | InterruptedException e) {
             logger.warn("Exception occurred during regular pool management, this may be a one off or a problem", e);
@@ -224,124 +810,190 @@ public class SimplePgConnectionPoolImpl implements SimplePgConnectionPool, AutoC
 
     }
 
+    /**
+     * Asks the replica how far its replay is behind on the manager connection, a failed check counts as too
+     * far behind until the next one succeeds.
+     */
+    private void checkReplicaLag(){
+        nextLagCheckNanos = System.nanoTime() + replicaLagCheckNanos;
+        long lag;
+        try{
+            lag = managerConnection.use(manager -> {
+                try(ResultSet rs = manager.getPreparedStatement(REPLICA_LAG).executeQuery()){
+                    return rs.next() ? rs.getLong(1) : Long.MAX_VALUE;
+                }
+            });
+        } catch (SQLException e){
+            logger.warn("Could not check the replication lag of " + poolName, e);
+            lag = Long.MAX_VALUE;
+        }
+        boolean wasHealthy = replicaLagMillis <= maxReplicaLagMillis;
+        replicaLagMillis = lag;
+        if(wasHealthy != lag <= maxReplicaLagMillis){
+            logger.info(String.format("Replica %s %s read only borrows, lag %s ms.", poolName,
+                    wasHealthy ? "stopped receiving" : "is receiving", lag == Long.MAX_VALUE ? "unknown" : lag));
+        }
+    }
+
+    /**
+     * Hands the activity since the last decision to the sizing controller and applies its target.
+     */
     private void adjustPoolSize(){
-        minuteStart = System.currentTimeMillis();
-        int rpm = requestsPastMinute.get();
-        if(rpm <= requestsPerMinutePerCon){
-            logger.info("Low traffic, setting connection pool to minimum of: " + minConnections);
-            targetConnections = minConnections;
-        } else if(rpm > requestsPerMinutePerCon * maxConnections){
-            logger.warn(String.format("It looks like your requests per minute (%d) "
-                    +"exceed your desired capacity of %d requests per connection per minute "
-                    +"on a maximum of %d connections. Sounds like one of those good problems!",
-                    rpm, requestsPerMinutePerCon, maxConnections));
-            targetConnections = maxConnections;
-        } else {
-            targetConnections =  Math.max((int) Math.ceil((double) rpm / requestsPerMinutePerCon),
-                    minConnections);
-            logger.info(String.format("Adjusting connections during medium traffic expectations to %d connections",
-                    targetConnections));
+        // Borrowers can run a management pass inline, only one of them gets to size the pool.
+        if(!sizingLock.tryLock()) return;
+        try{
+            long now = System.nanoTime();
+            long borrows = metrics.getTotalBorrows();
+            long timeouts = metrics.getTotalBorrowTimeouts();
+            long waitNanos = metrics.getTotalBorrowWaitNanos();
+            long releases = metrics.getTotalReleases();
+            long holdNanos = metrics.getTotalHoldNanos();
+            PoolSizingSample sample = new PoolSizingSample(now, now - lastSizingNanos, borrows - lastBorrows,
+                    timeouts - lastBorrowTimeouts, waitNanos - lastBorrowWaitNanos, releases - lastReleases,
+                    holdNanos - lastHoldNanos, bag.size(), metrics.getActiveConnections(), bag.getWaiterCount(),
+                    targetConnections, minConnections, maxConnections);
+            lastSizingNanos = now;
+            lastBorrows = borrows;
+            lastBorrowTimeouts = timeouts;
+            lastBorrowWaitNanos = waitNanos;
+            updateHoldEstimate(sample);
+            lastReleases = releases;
+            lastHoldNanos = holdNanos;
+            desiredConnections = Math.min(maxConnections, Math.max(minConnections, sizingController.targetConnections(sample)));
+            int target = Math.min(desiredConnections, connectionShare);
+            if(target != targetConnections){
+                logger.info(String.format("Pool %s target connections %d -> %d", poolName, targetConnections, target));
+                targetConnections = target;
+            }
+        } catch (RuntimeException e){
+            logger.except("Sizing controller threw, keeping the current target.", e);
+        } finally {
+            sizingLock.unlock();
         }
-        requestsPastMinute.set(0);
     }
 
 
 
+    /**
+     * Folds the mean hold time since the last sizing pass into the estimate the bag admits waiters by. A pass
+     * where nothing came back while every connection was busy says holds are at least that long.
+     */
+    private void updateHoldEstimate(PoolSizingSample sample){
+        long estimate = bag.getMeanHoldNanos();
+        if(sample.releases() > 0){
+            long mean = sample.totalHoldNanos() / sample.releases();
+            estimate = estimate == 0 ? mean : (estimate + mean) / 2;
+        } else if(sample.totalConnections() > 0 && sample.activeConnections() >= sample.totalConnections()){
+            estimate = Math.max(estimate, sample.elapsedNanos());
+        }
+        bag.setMeanHoldNanos(estimate);
+    }
+
     private void manageConnections() throws SQLException, InterruptedException {
-        Iterator<ConnectionWrapperImpl> iterator = cws.iterator();
-        boolean onlyOnce = true; // Used to stop the pool from removing every expiring connection at once.
-        //logger.info("Entering Connection removal section of management. Current connections: " + cws.size());
-        while (iterator.hasNext()){
-            ConnectionWrapperImpl cw = iterator.next();
-            if(cw == null || cw.isClosed() || cw.hasExpired()){
-                removeConnection(cw, iterator);
+        if(statementPromoter != null) statementPromoter.maintain();
+        if(lazyStatements) statementRegistry.refreshHottest(hotStatementPrepareCount);
+        // Make before break: an expiring connection is marked retiring and stops counting towards the target,
+        // which opens its replacement, and it keeps serving until the rest of the pool covers the target.
+        boolean onlyOnce = true; // Used to stop the pool from starting every rotation at once.
+        int retiring = 0;
+        for(ConnectionWrapperImpl cw : bag.values()){
+            if(cw.isRetiring()) retiring++;
+        }
+        //logger.info("Entering Connection removal section of management. Current connections: " + bag.size());
+        for(ConnectionWrapperImpl cw : bag.values()){
+            if(cw.isClosed()){
+                if(cw.isRetiring()) retiring--;
+                removeConnection(cw, EvictionReason.CLOSED);
                 continue;
-            } else if(!cw.notReadyForReplacement() && onlyOnce){
-                removeConnection(cw, iterator);
+            }
+            if(!cw.isRetiring() && !cw.notReadyForReplacement() && onlyOnce){
                 onlyOnce = false;
+                cw.markRetiring();
+                retiring++;
             }
-            if(cw.notReadyForReplacement() && prepStatements.size() > cw.countStatements()){
-                cw.addPreparedStatements(prepStatements, constStatements);
+            // Retired only while idle, a borrower is never pulled out from under. Past its hard expiry it
+            // goes as soon as it is idle, replacement or not.
+            if(cw.isRetiring() && (cw.hasExpired() || bag.size() - retiring >= targetConnections)
+                    && bag.reserve(cw)){
+                retiring--;
+                metrics.recordExpired();
+                removeConnection(cw, EvictionReason.EXPIRED);
+                continue;
+            }
+            if(cw.needsPromotionSync()) syncPromotedStatements(cw);
+            if(lazyStatements){
+                prepareHotStatements(cw);
+            } else if(cw.notReadyForReplacement() && prepStatements.size() >= cw.countStatements()
+                    && bag.reserve(cw)){
+                // countStatements includes the pid lookup. Reserved so a borrower never sees the map mid update.
+                try{
+                    cw.addPreparedStatements(prepStatements, constStatements);
+                } finally {
+                    bag.unreserve(cw);
+                }
             }
         }
-        //logger.info("Exiting Connection removal section of management. Current connections: " + cws.size());
-        //logger.info("Entering Connection Balancing section of management. Current connections: " + cws.size());
-        if(cws.size() < targetConnections){
-            int genCount = targetConnections - cws.size();
+        //logger.info("Exiting Connection removal section of management. Current connections: " + bag.size());
+        //logger.info("Entering Connection Balancing section of management. Current connections: " + bag.size());
+        // Connections still being opened count towards the target so a slow server doesn't get flooded.
+        // While the creation circuit is open nothing is opened until its single probe is due.
+        int serving = bag.size() - retiring;
+        int genCount = creationBreaker.permits(targetConnections - serving - pendingCreations.get());
+        if(genCount > 0){
             for(int i = 0; i < genCount; i++){
-                initConnAndAddToPool();
+                createConnectionAsync();
             }
-        } else if(cws.size() > targetConnections){
-            int remove = cws.size() - targetConnections;
-            cws.stream().sorted(Comparator.comparing(ConnectionWrapperImpl::getExpiration))
+        } else if(serving > targetConnections){
+            int remove = serving - targetConnections;
+            Arrays.stream(bag.values())
+                    .filter(cw -> !cw.isRetiring())
+                    .sorted(Comparator.comparingLong(ConnectionWrapperImpl::getExpiresAtNanos))
+                    .filter(bag::reserve)
                     .limit(remove)
                     .toList()
-                    .forEach(cws::remove);
-        }
-        //logger.info("Exiting Connection Balancing section of management. Current connections: " + cws.size());
-        if(managerConnection.isClosed() || managerConnection.hasExpired()){
-            managerConnection = new ConnectionWrapperImpl(connectionUrl, user, pass,
-                    connectionLifeSpan * 2, Map.of(GET_CONN_STATE,GET_CONN_STATE));
+                    .forEach(cw -> removeConnection(cw, EvictionReason.SURPLUS));
         }
+        //logger.info("Exiting Connection Balancing section of management. Current connections: " + bag.size());
 
-        //logger.info("Entering Connection queue addition section of management. Current connections in queue: " + connections.size());
-        for(ConnectionWrapperImpl cw : cws){
-            if(!connections.contains(cw) && (!cw.inUse() || queryPid(cw))){
-                connections.put(cw);
-            }
-        }
-//        logger.info("Exiting Connection queue addition section of management. Current connections in queue: " + connections.size());
     }
 
-    private boolean queryPid(ConnectionWrapperImpl cw)  {
+    /**
+     * Brings an idle lazy connection up to date with the hot statement list, busy ones are left for a later pass.
+     */
+    private void prepareHotStatements(ConnectionWrapperImpl cw){
+        if(!cw.needsHotStatements() || !cw.notReadyForReplacement() || !bag.reserve(cw)) return;
         try{
-            PreparedStatement pStmt = managerConnection.getConnection().prepareStatement(GET_CONN_STATE);
-            pStmt.setInt(1, cw.getPid());
-            ResultSet rs = pStmt.executeQuery();
-            if(rs.next()){
-                String state = rs.getString("state");
-                if("idle".equalsIgnoreCase(state)){
-                    //TODO: Evaluate if this makes sense, im checking connections by default every half second or so
-                    // and if they are idle I release them, basically if they aren't in a transaction throw them back
-                    // but what if a process takes a bit longer to start... maybe im over thinking this...
-                    cw.release();
-                    return true;
-                }
-                if(state == null){
-                    cw.close();
-                }
-            } else {
-                cw.close();
-            }
-        } catch (SQLException e) {
-            logger.except("It appears something went wrong with the query checking pid!", e);
-        } catch (Exception e) {
-            logger.except("It appears we are having some trouble shutting down a thread at pid: " + cw.getPid(), e);
+            cw.prepareHotStatements();
+        } catch (SQLException e){
+            logger.warn("Could not prepare hot statements on connection " + cw.getPid(), e);
+        } finally {
+            bag.unreserve(cw);
         }
-        return false;
     }
 
-
-
-    private void removeConnection(ConnectionWrapperImpl cw, Iterator<ConnectionWrapperImpl> iterator){
+    private void syncPromotedStatements(ConnectionWrapperImpl cw){
+        if(!bag.reserve(cw)) return;
         try{
-            //logger.info("Removing connection wrapper with iterator cw is null:" + (cw == null));
-            if(cw != null) {cw.close();}
-            iterator.remove();
-        } catch (Exception e) {
-            logger.except("Removing connection wrapper with iterator threw an exception.", e);
-            iterator.remove();
+            cw.syncPromotedStatements(prepStatements, constStatements, !lazyStatements);
+        } catch (SQLException e){
+            logger.warn("Could not sync promoted statements on connection " + cw.getPid(), e);
+        } finally {
+            bag.unreserve(cw);
         }
     }
 
-    private void removeConnection(ConnectionWrapperImpl cw){
+    private void removeConnection(ConnectionWrapperImpl cw, EvictionReason reason){
+        boolean removed = false;
         try{
             //logger.info("Removing connection wrapper directly cw is null:" + (cw == null));
-            if(cw != null) {cw.close();}
-            cws.remove(cw);
+            removed = bag.remove(cw);
+            if(removed) events.evicted(cw, reason);
+            cw.close();
         } catch (Exception e) {
             logger.except("Removing connection wrapper directly threw an exception.", e);
-            cws.remove(cw);
+        } finally {
+            // Only once it is closed, so another pool can't open into the room while it is still open.
+            if(removed) releaseBudget(1);
         }
     }
 
@@ -351,28 +1003,72 @@ public class SimplePgConnectionPoolImpl implements SimplePgConnectionPool, AutoC
     public void close() throws Exception {
         logger.info("Closing connection pool!");
         running = false;
-        connections.clear();
         Exception lastException = null;
-        for(ConnectionWrapperImpl cw : cws){
+        for(SimplePgConnectionPoolImpl replicaPool : replicas){
             try{
-                if(cw != null) {cw.close();}
+                replicaPool.close();
             } catch (Exception e){
-                logger.except("Exception thrown trying to close connection from Pool close operation.", e);
+                logger.except("Exception thrown trying to close replica " + replicaPool.poolName + ".", e);
                 lastException = e;
             }
         }
-        try{
-            poolManagementThread.close();
-        } catch (Exception e){
-            logger.except("Exception thrown trying to close pool manager connection from Pool close operation.", e);
-            lastException = e;
+        reclaimer.stop();
+        bag.close();
+        // Only what this takes out of the bag gives its permit back here. Connections still being opened, or
+        // already removed by a validation or reclaim in flight, give theirs back on their own path.
+        int removed = 0;
+        ConnectionWrapperImpl[] remaining;
+        while((remaining = bag.values()).length > 0){
+            for(ConnectionWrapperImpl cw : remaining){
+                if(!bag.remove(cw)) continue;
+                removed++;
+                try{
+                    cw.close();
+                } catch (Exception e){
+                    logger.except("Exception thrown trying to close connection from Pool close operation.", e);
+                    lastException = e;
+                }
+            }
+        }
+        releaseBudget(removed);
+        if(registry != null){
+            // The executors are shared, only this pool's tasks go.
+            managementTask.cancel(false);
+            validationTask.cancel(false);
+            registry.releaseManagerConnection(managerKey, managerConnection);
+            if(registryKey != null) registry.poolClosed(registryKey, this);
+        } else {
+            managerConnection.close();
+            try{
+                poolManagementThread.close();
+            } catch (Exception e){
+                logger.except("Exception thrown trying to close pool manager connection from Pool close operation.", e);
+                lastException = e;
+            }
+            creatorExecutor.shutdownNow();
+            borrowTimer.shutdownNow();
         }
         try{
-            validationExecutor.close();
+            events.close();
         } catch (Exception e){
-            logger.except("Exception thrown trying to close validationExecutor from Pool close operation.", e);
+            logger.except("Exception thrown trying to close the pool event dispatcher.", e);
             lastException = e;
         }
+        if(metricsName != null){
+            try{
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            } catch (Exception e){
+                logger.except("Exception thrown trying to unregister the pool metrics MBean.", e);
+            }
+        }
+        if(registry == null){
+            try{
+                validationExecutor.close();
+            } catch (Exception e){
+                logger.except("Exception thrown trying to close validationExecutor from Pool close operation.", e);
+                lastException = e;
+            }
+        }
         if(lastException != null) throw lastException;
     }
 }
@@ -0,0 +1,277 @@
+package com.kovisoft.simple.connection.pool.pg;
+
+import com.kovisoft.simple.connection.pool.exports.SimulatedBackend;
+import com.kovisoft.simple.connection.pool.exports.SimulatedBackendConfig;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Simulated postgres server. Connections, statements and result sets are dynamic proxies backed by
+ * a session per backend pid, which tracks the pg_stat_activity state ("idle", "active",
+ * "idle in transaction") the pool's reclaimer looks at. Plain setX/getX/isX calls on a connection
+ * (isolation, read only, schema...) are remembered per session so they behave like the real thing.
+ */
+public class SimulatedPgBackend implements SimulatedBackend {
+
+    private static final String STATE_IDLE = "idle";
+    private static final String STATE_ACTIVE = "active";
+    private static final String STATE_IN_TRANSACTION = "idle in transaction";
+
+    private final SimulatedBackendConfig config;
+    private final Map<Integer, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger nextPid;
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder queriesExecuted = new LongAdder();
+
+    public SimulatedPgBackend(SimulatedBackendConfig config){
+        this.config = config;
+        this.nextPid = new AtomicInteger(config.getFirstBackendPid());
+    }
+
+    @Override
+    public Connection createConnection() throws SQLException {
+        sleep(config.getConnectLatencyMillis());
+        if(!config.isAvailable() || roll(config.getConnectFailureRate())){
+            throw new SQLException("Simulated backend refused the connection.", "08001");
+        }
+        if(sessions.size() >= config.getMaxServerConnections()){
+            throw new SQLException("Simulated backend: sorry, too many clients already", "53300");
+        }
+        Session session = new Session(nextPid.getAndIncrement());
+        sessions.put(session.pid, session);
+        connectionsOpened.increment();
+        return proxy(Connection.class, session::onConnection);
+    }
+
+    @Override
+    public SimulatedBackendConfig getConfig() {
+        return config;
+    }
+
+    @Override
+    public int getOpenConnections() {
+        return sessions.size();
+    }
+
+    @Override
+    public long getConnectionsOpened() {
+        return connectionsOpened.sum();
+    }
+
+    @Override
+    public long getQueriesExecuted() {
+        return queriesExecuted.sum();
+    }
+
+    private final class Session {
+        private final int pid;
+        private final Map<String, Object> properties = new ConcurrentHashMap<>();
+        private volatile String state = STATE_IDLE;
+        private volatile boolean autoCommit = true;
+        private volatile boolean closed = false;
+
+        private Session(int pid){
+            this.pid = pid;
+        }
+
+        private Object onConnection(Object proxy, Method method, Object[] args) throws SQLException {
+            String name = method.getName();
+            switch (name){
+                case "close" -> { close(); return null; }
+                case "isClosed" -> { return closed; }
+                case "isValid" -> { return !closed && config.isAvailable(); }
+                case "hashCode" -> { return System.identityHashCode(proxy); }
+                case "equals" -> { return proxy == args[0]; }
+                case "toString" -> { return "SimulatedConnection[pid=" + pid + "]"; }
+                case "isWrapperFor" -> { return false; }
+                case "unwrap" -> throw new SQLException("Simulated connection does not wrap " + args[0]);
+            }
+            checkOpen();
+            switch (name){
+                case "prepareStatement", "prepareCall" -> { return statement(PreparedStatement.class, (String) args[0]); }
+                case "createStatement" -> { return statement(Statement.class, null); }
+                case "createArrayOf" -> { return array((Object[]) args[1]); }
+                case "getAutoCommit" -> { return autoCommit; }
+                case "setAutoCommit" -> {
+                    if((Boolean) args[0] && !autoCommit) endTransaction();
+                    autoCommit = (Boolean) args[0];
+                    return null;
+                }
+                case "commit", "rollback" -> { endTransaction(); return null; }
+                case "nativeSQL" -> { return args[0]; }
+            }
+            if(name.startsWith("set") && args != null && args.length == 1){
+                properties.put(name.substring(3), args[0]);
+                return null;
+            }
+            String property = name.startsWith("get") ? name.substring(3) : name.startsWith("is") ? name.substring(2) : null;
+            if(property != null && properties.containsKey(property)){
+                return properties.get(property);
+            }
+            return defaultValue(method.getReturnType());
+        }
+
+        private <T extends Statement> T statement(Class<T> type, String preparedSql){
+            Object[] parameters = new Object[8];
+            boolean[] statementClosed = {false};
+            return proxy(type, (proxy, method, args) -> {
+                String name = method.getName();
+                switch (name){
+                    case "close" -> { statementClosed[0] = true; return null; }
+                    case "isClosed" -> { return statementClosed[0] || closed; }
+                    case "hashCode" -> { return System.identityHashCode(proxy); }
+                    case "equals" -> { return proxy == args[0]; }
+                    case "getConnection" -> { return null; }
+                }
+                if(statementClosed[0]) throw new SQLException("Statement is closed.", "08003");
+                if(name.startsWith("execute")){
+                    String sql = (args != null && args.length > 0 && args[0] instanceof String s) ? s : preparedSql;
+                    ResultSet rs = execute(sql, parameters);
+                    return switch (name){
+                        case "executeQuery" -> rs;
+                        case "execute" -> true;
+                        case "executeBatch" -> new int[0];
+                        case "executeLargeBatch" -> new long[0];
+                        case "executeLargeUpdate" -> 1L;
+                        default -> 1;
+                    };
+                }
+                if(name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer index
+                        && index > 0 && index <= parameters.length){
+                    parameters[index - 1] = args[1];
+                    return null;
+                }
+                return defaultValue(method.getReturnType());
+            });
+        }
+
+        private ResultSet execute(String sql, Object[] parameters) throws SQLException {
+            checkOpen();
+            queriesExecuted.increment();
+            state = STATE_ACTIVE;
+            try{
+                sleep(config.getQueryLatencyMillis());
+                if(!config.isAvailable()){
+                    close();
+                    throw new SQLException("Simulated backend terminated the connection.", "08006");
+                }
+                if(roll(config.getQueryFailureRate())){
+                    throw new SQLException("Simulated query failure.", "XX000");
+                }
+                return resultSet(respond(sql == null ? "" : sql, parameters));
+            } finally {
+                if(!closed) state = autoCommit ? STATE_IDLE : STATE_IN_TRANSACTION;
+            }
+        }
+
+        private List<Object[]> respond(String sql, Object[] parameters) throws SQLException {
+            String upper = sql.trim().toUpperCase(Locale.ROOT);
+            List<Object[]> rows = new ArrayList<>();
+            if(upper.contains("PG_BACKEND_PID()")){
+                rows.add(new Object[]{pid});
+            } else if(upper.contains("PG_STAT_ACTIVITY") && parameters[0] instanceof Array array){
+                for(Object requested : (Object[]) array.getArray()){
+                    Session session = sessions.get(((Number) requested).intValue());
+                    if(session != null) rows.add(new Object[]{session.pid, session.state});
+                }
+            } else if(upper.contains("PG_LAST_XACT_REPLAY_TIMESTAMP()")){
+                rows.add(new Object[]{config.getReplicationLagMillis()});
+            } else if(upper.startsWith("BEGIN") || upper.startsWith("START TRANSACTION")){
+                autoCommit = false;
+            } else if(upper.startsWith("COMMIT") || upper.startsWith("ROLLBACK") || upper.startsWith("END")){
+                endTransaction();
+            } else {
+                rows.add(new Object[]{1});
+            }
+            return rows;
+        }
+
+        private void endTransaction(){
+            state = STATE_IDLE;
+        }
+
+        private void checkOpen() throws SQLException {
+            if(closed) throw new SQLException("This connection has been closed.", "08003");
+        }
+
+        private void close(){
+            closed = true;
+            sessions.remove(pid);
+        }
+    }
+
+    private static ResultSet resultSet(List<Object[]> rows){
+        int[] row = {-1};
+        boolean[] closed = {false};
+        return proxy(ResultSet.class, (proxy, method, args) -> {
+            switch (method.getName()){
+                case "next" -> { return ++row[0] < rows.size(); }
+                case "close" -> { closed[0] = true; return null; }
+                case "isClosed" -> { return closed[0]; }
+                case "wasNull" -> { return false; }
+            }
+            if(method.getName().startsWith("get") && args != null && args.length == 1
+                    && row[0] >= 0 && row[0] < rows.size()){
+                Object[] values = rows.get(row[0]);
+                int column = args[0] instanceof Integer index ? index - 1
+                        : "state".equalsIgnoreCase((String) args[0]) ? 1 : 0;
+                Object value = column < values.length ? values[column] : null;
+                Class<?> type = method.getReturnType();
+                if(type == String.class) return value == null ? null : String.valueOf(value);
+                if(value instanceof Number number){
+                    if(type == int.class) return number.intValue();
+                    if(type == long.class) return number.longValue();
+                    if(type == double.class) return number.doubleValue();
+                    if(type == boolean.class) return number.intValue() != 0;
+                }
+                if(type.isPrimitive()) return defaultValue(type);
+                return value;
+            }
+            return defaultValue(method.getReturnType());
+        });
+    }
+
+    private static Array array(Object[] values){
+        return proxy(Array.class, (proxy, method, args) ->
+                "getArray".equals(method.getName()) ? values : defaultValue(method.getReturnType()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler){
+        return (T) Proxy.newProxyInstance(SimulatedPgBackend.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+    private static Object defaultValue(Class<?> type){
+        if(!type.isPrimitive() || type == void.class) return null;
+        if(type == boolean.class) return false;
+        if(type == long.class) return 0L;
+        if(type == double.class) return 0d;
+        if(type == float.class) return 0f;
+        if(type == short.class) return (short) 0;
+        if(type == byte.class) return (byte) 0;
+        if(type == char.class) return (char) 0;
+        return 0;
+    }
+
+    private static boolean roll(double rate){
+        return rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    private static void sleep(int millis) throws SQLException {
+        if(millis <= 0) return;
+        try{
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted during simulated latency.", "57014", e);
+        }
+    }
+}
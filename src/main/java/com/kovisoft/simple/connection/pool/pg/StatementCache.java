@@ -0,0 +1,147 @@
+package com.kovisoft.simple.connection.pool.pg;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per connection LRU cache for ad-hoc (not registered by key) prepared statements, so repeating the same
+ * SQL string costs a hash lookup instead of a parse. Bounded by statement count and by total SQL characters,
+ * SQL longer than the per statement limit is prepared but never cached. Evicted statements are closed.
+ * A wrapper is only used by one borrower at a time, the lock is there for management closing it underneath.
+ */
+final class StatementCache implements AutoCloseable {
+
+    private record ConstKey(String sql, int statementConst){}
+
+    private final int maxStatements;
+    private final int maxStatementChars;
+    private final long maxTotalChars;
+    private final PoolMetricsImpl metrics;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Object, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalChars = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * @param maxStatements Most statements to keep.
+     * @param maxStatementChars Longest SQL that will be cached.
+     * @param maxTotalChars Most SQL characters to keep across all cached statements.
+     * @param metrics Pool metrics to report hits, misses and evictions to, null for a standalone wrapper.
+     */
+    StatementCache(int maxStatements, int maxStatementChars, long maxTotalChars, PoolMetricsImpl metrics){
+        this.maxStatements = maxStatements;
+        this.maxStatementChars = maxStatementChars;
+        this.maxTotalChars = maxTotalChars;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return An empty cache with the same limits and metrics.
+     */
+    StatementCache emptyCopy(){
+        return new StatementCache(maxStatements, maxStatementChars, maxTotalChars, metrics);
+    }
+
+    PreparedStatement get(Connection connection, String sql) throws SQLException {
+        return get(connection, sql, sql, null);
+    }
+
+    PreparedStatement get(Connection connection, String sql, int statementConst) throws SQLException {
+        return get(connection, new ConstKey(sql, statementConst), sql, statementConst);
+    }
+
+    private PreparedStatement get(Connection connection, Object key, String sql, Integer statementConst)
+            throws SQLException {
+        lock.lock();
+        try{
+            PreparedStatement cached = statements.get(key);
+            // Callers are allowed to close what they get back, a closed statement is simply prepared again.
+            if(cached != null && !cached.isClosed()){
+                hits++;
+                if(metrics != null) metrics.recordStatementCacheHit();
+                return cached;
+            }
+            if(cached != null) remove(key, sql);
+            misses++;
+            if(metrics != null) metrics.recordStatementCacheMiss();
+            PreparedStatement prepared = statementConst == null ? connection.prepareStatement(sql)
+                    : connection.prepareStatement(sql, statementConst);
+            if(sql.length() <= maxStatementChars && maxStatements > 0){
+                statements.put(key, prepared);
+                totalChars += sql.length();
+                evict();
+            }
+            return prepared;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void evict(){
+        Iterator<Map.Entry<Object, PreparedStatement>> iterator = statements.entrySet().iterator();
+        while ((statements.size() > maxStatements || totalChars > maxTotalChars) && iterator.hasNext()){
+            Map.Entry<Object, PreparedStatement> eldest = iterator.next();
+            iterator.remove();
+            totalChars -= sqlOf(eldest.getKey()).length();
+            closeQuietly(eldest.getValue());
+            evictions++;
+            if(metrics != null) metrics.recordStatementCacheEviction();
+        }
+    }
+
+    private void remove(Object key, String sql){
+        if(statements.remove(key) != null) totalChars -= sql.length();
+    }
+
+    int size(){
+        lock.lock();
+        try{
+            return statements.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getHits(){
+        return hits;
+    }
+
+    long getMisses(){
+        return misses;
+    }
+
+    long getEvictions(){
+        return evictions;
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try{
+            statements.values().forEach(StatementCache::closeQuietly);
+            statements.clear();
+            totalChars = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static String sqlOf(Object key){
+        return key instanceof ConstKey constKey ? constKey.sql() : (String) key;
+    }
+
+    private static void closeQuietly(PreparedStatement statement){
+        try{
+            statement.close();
+        } catch (SQLException ignored){
+            // The statement is gone either way, nothing useful to do with this.
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.kovisoft.simple.connection.pool.pg;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Watches the ad-hoc SQL passed to getPreparedStatement and promotes strings used often enough into the
+ * pool's registered statements (keyed by the SQL itself), so callers that never register keys still end
+ * up on the cached statement path. Usage is counted in a FrequencySketch, borrowers only increment it and
+ * queue candidates, promotion and demotion happen on the management thread.
+ * Counts are halved every decay period, a promoted statement whose estimate falls below half the threshold
+ * is demoted again. Promotions never take room from registered statements, when registration needs room
+ * the coldest promoted statement makes way.
+ */
+final class StatementPromoter {
+
+    private static final int MAX_PENDING = 64;
+
+    private final Map<String, String> registered;
+    private final FrequencySketch sketch;
+    private final int threshold;
+    private final int demoteBelow;
+    private final int maxStatements;
+    private final int maxCharacters;
+    private final long decayNanos;
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final Set<String> promoted = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger version = new AtomicInteger();
+    private long nextDecay;
+
+    /**
+     * @param registered The pool's key to SQL map promoted statements are added to.
+     * @param threshold Uses within a decay period before SQL is promoted.
+     * @param maxStatements The pool's statement limit, promotions stop once it is reached.
+     * @param maxCharacters Longest SQL that can be promoted.
+     * @param decayMillis How often the usage counts are halved.
+     */
+    StatementPromoter(Map<String, String> registered, int threshold, int maxStatements, int maxCharacters,
+                      long decayMillis){
+        this.registered = registered;
+        this.threshold = Math.max(1, threshold);
+        // Never 0, a count can't fall below that so a low threshold would never demote.
+        this.demoteBelow = Math.max(1, this.threshold / 2);
+        this.maxStatements = maxStatements;
+        this.maxCharacters = maxCharacters;
+        this.decayNanos = decayMillis * 1_000_000L;
+        this.sketch = new FrequencySketch(maxStatements);
+        this.nextDecay = System.nanoTime() + decayNanos;
+    }
+
+    /**
+     * Counts one use of the SQL, called by borrowers on the ad-hoc and promoted lookup paths.
+     */
+    void record(String sql){
+        if(sql.length() > maxCharacters) return;
+        if(sketch.increment(sql) >= threshold && pending.size() < MAX_PENDING && !promoted.contains(sql)){
+            pending.add(sql);
+        }
+    }
+
+    boolean isPromoted(String sql){
+        return promoted.contains(sql);
+    }
+
+    /**
+     * Promotes queued candidates while there is room and, once per decay period, halves the counts and
+     * demotes statements that went cold. Only called from the management thread.
+     */
+    void maintain(){
+        boolean changed = false;
+        for(String sql : pending){
+            pending.remove(sql);
+            if(registered.size() >= maxStatements || registered.containsKey(sql)) continue;
+            registered.put(sql, sql);
+            promoted.add(sql);
+            changed = true;
+        }
+        long now = System.nanoTime();
+        if(now - nextDecay >= 0){
+            nextDecay = now + decayNanos;
+            sketch.halve();
+            for(String sql : promoted){
+                if(sketch.estimate(sql) < demoteBelow && demote(sql)) changed = true;
+            }
+        }
+        if(changed) version.incrementAndGet();
+    }
+
+    /**
+     * Demotes the coldest promoted statement so a registration can take its place.
+     * @return True if a statement was demoted.
+     */
+    boolean makeRoom(){
+        String coldest = null;
+        int coldestEstimate = Integer.MAX_VALUE;
+        for(String sql : promoted){
+            int estimate = sketch.estimate(sql);
+            if(estimate < coldestEstimate){
+                coldest = sql;
+                coldestEstimate = estimate;
+            }
+        }
+        if(coldest == null || !demote(coldest)) return false;
+        version.incrementAndGet();
+        return true;
+    }
+
+    private boolean demote(String sql){
+        if(!promoted.remove(sql)) return false;
+        registered.remove(sql, sql);
+        return true;
+    }
+
+    int getPromotedCount(){
+        return promoted.size();
+    }
+
+    /**
+     * @return Bumped whenever statements are promoted or demoted, connections compare it to know when to sync.
+     */
+    int getVersion(){
+        return version.get();
+    }
+}
@@ -0,0 +1,81 @@
+package com.kovisoft.simple.connection.pool.pg;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool wide view of the registered statements used in lazy preparation mode. Registration only records
+ * the SQL here, connections prepare a key the first time it is asked for and report every lookup so the
+ * pool knows which keys are hot. The hot list is recalculated at most once a second and versioned, so
+ * management only revisits a connection when the list actually changed.
+ */
+final class StatementRegistry {
+
+    private static final long HOT_REFRESH_NANOS = 1_000_000_000L;
+
+    private final Map<String, String> statements;
+    private final Map<String, Integer> constants;
+    private final Map<String, LongAdder> uses = new ConcurrentHashMap<>();
+    private volatile List<String> hottest = List.of();
+    private volatile int hotVersion = 0;
+    private long nextRefresh;
+
+    /**
+     * @param statements The pool's key to SQL map, read through so registrations are seen immediately.
+     * @param constants The pool's key to Statement constant map.
+     */
+    StatementRegistry(Map<String, String> statements, Map<String, Integer> constants){
+        this.statements = statements;
+        this.constants = constants;
+        this.nextRefresh = System.nanoTime();
+    }
+
+    String sqlFor(String key){
+        return statements.get(key);
+    }
+
+    Integer constantFor(String key){
+        return constants.get(key);
+    }
+
+    void recordUse(String key){
+        LongAdder counter = uses.get(key);
+        if(counter == null) counter = uses.computeIfAbsent(key, k -> new LongAdder());
+        counter.increment();
+    }
+
+    long getUses(String key){
+        LongAdder counter = uses.get(key);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * Recalculates the most used keys if the last calculation is older than a second.
+     * Only called from the management thread.
+     * @param limit How many keys to keep.
+     */
+    void refreshHottest(int limit){
+        long now = System.nanoTime();
+        if(limit <= 0 || now - nextRefresh < 0) return;
+        nextRefresh = now + HOT_REFRESH_NANOS;
+        List<String> next = statements.keySet().stream()
+                .sorted(Comparator.comparingLong(this::getUses).reversed())
+                .limit(limit)
+                .toList();
+        if(!next.equals(hottest)){
+            hottest = next;
+            hotVersion++;
+        }
+    }
+
+    List<String> getHottest(){
+        return hottest;
+    }
+
+    int getHotVersion(){
+        return hotVersion;
+    }
+}
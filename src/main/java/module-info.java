@@ -1,5 +1,6 @@
 module SimpleConnectionPool {
     requires java.sql;
+    requires java.management;
     requires org.postgresql.jdbc;
     requires Logger;
     exports com.kovisoft.simple.connection.pool.exports;
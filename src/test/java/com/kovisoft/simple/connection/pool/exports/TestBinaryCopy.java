@@ -0,0 +1,69 @@
+package com.kovisoft.simple.connection.pool.exports;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+
+public class TestBinaryCopy {
+
+    private record Row(int id, String name){}
+
+    @Test
+    public void testEncoderFramesRows() throws Exception {
+        CopyRowEncoder<Row> encoder = BinaryCopy.encoder(2, (row, out) -> {
+            BinaryCopy.writeInt(out, row.id());
+            BinaryCopy.writeText(out, row.name());
+        });
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        encoder.begin(out);
+        for(Row row : List.of(new Row(1, "a"), new Row(2, null))){
+            encoder.encode(row, out);
+        }
+        encoder.end(out);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        byte[] signature = new byte[11];
+        in.readFully(signature);
+        Assertions.assertEquals("PGCOPY\n", new String(signature, 0, 7));
+        Assertions.assertEquals(0, in.readInt());
+        Assertions.assertEquals(0, in.readInt());
+        Assertions.assertEquals(2, in.readShort());
+        Assertions.assertEquals(4, in.readInt());
+        Assertions.assertEquals(1, in.readInt());
+        Assertions.assertEquals(1, in.readInt());
+        Assertions.assertEquals('a', in.readByte());
+        Assertions.assertEquals(2, in.readShort());
+        Assertions.assertEquals(4, in.readInt());
+        Assertions.assertEquals(2, in.readInt());
+        Assertions.assertEquals(-1, in.readInt());
+        Assertions.assertEquals(-1, in.readShort());
+        Assertions.assertEquals(0, in.available());
+    }
+
+    @Test
+    public void testTemporalAndUuidEncoding() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        UUID uuid = UUID.randomUUID();
+        BinaryCopy.writeTimestamp(out, Instant.parse("2000-01-01T00:00:01Z"));
+        BinaryCopy.writeDate(out, LocalDate.of(1999, 12, 31));
+        BinaryCopy.writeUuid(out, uuid);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        Assertions.assertEquals(8, in.readInt());
+        Assertions.assertEquals(1_000_000L, in.readLong());
+        Assertions.assertEquals(4, in.readInt());
+        Assertions.assertEquals(-1, in.readInt());
+        Assertions.assertEquals(16, in.readInt());
+        Assertions.assertEquals(uuid, new UUID(in.readLong(), in.readLong()));
+    }
+}
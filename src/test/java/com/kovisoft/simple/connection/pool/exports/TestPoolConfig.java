@@ -3,6 +3,8 @@ package com.kovisoft.simple.connection.pool.exports;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+
 public class TestPoolConfig {
 
     private static final String url = "url";
@@ -34,10 +36,40 @@ public class TestPoolConfig {
         Assertions.assertEquals(configEmpty.getMinConnections(), configFull.getMinConnections());
         Assertions.assertEquals(configEmpty.getMaxConnections(), configFull.getMaxConnections());
         Assertions.assertEquals(configEmpty.getRequestsPerMinutePerConn(), configFull.getRequestsPerMinutePerConn());
+        Assertions.assertEquals(configEmpty.getSizingIntervalMillis(), configFull.getSizingIntervalMillis());
+        Assertions.assertEquals(configEmpty.getBorrowWaitTargetMillis(), configFull.getBorrowWaitTargetMillis());
         Assertions.assertEquals(configEmpty.getConnectionLifeSpan(), configFull.getConnectionLifeSpan());
+        Assertions.assertEquals(configEmpty.getConnectionLifeSpanJitterPercent(), configFull.getConnectionLifeSpanJitterPercent());
         Assertions.assertEquals(configEmpty.getConnectionCheckIntervals(), configFull.getConnectionCheckIntervals());
+        Assertions.assertEquals(configEmpty.getReclaimIntervalMaxMillis(), configFull.getReclaimIntervalMaxMillis());
+        Assertions.assertEquals(configEmpty.getConnectionCreatorThreads(), configFull.getConnectionCreatorThreads());
+        Assertions.assertEquals(configEmpty.getValidationIntervalMillis(), configFull.getValidationIntervalMillis());
+        Assertions.assertEquals(configEmpty.getValidationSkipWindowMillis(), configFull.getValidationSkipWindowMillis());
+        Assertions.assertEquals(configEmpty.getValidationTimeoutMillis(), configFull.getValidationTimeoutMillis());
+        Assertions.assertEquals(configEmpty.getValidationThreads(), configFull.getValidationThreads());
+        Assertions.assertEquals(configEmpty.isAsyncStartup(), configFull.isAsyncStartup());
+        Assertions.assertEquals(configEmpty.isRegisterMBean(), configFull.isRegisterMBean());
+        Assertions.assertEquals(configEmpty.getPoolName(), configFull.getPoolName());
+        Assertions.assertEquals(configEmpty.isBorrowEventsEnabled(), configFull.isBorrowEventsEnabled());
+        Assertions.assertEquals(configEmpty.getBorrowEventSampleRate(), configFull.getBorrowEventSampleRate());
         Assertions.assertEquals(configEmpty.getMaxCharacters(), configFull.getMaxCharacters());
         Assertions.assertEquals(configEmpty.getMaxCachedStatements(), configFull.getMaxCachedStatements());
+        Assertions.assertEquals(configEmpty.isLazyStatementPreparation(), configFull.isLazyStatementPreparation());
+        Assertions.assertEquals(configEmpty.getHotStatementPrepareCount(), configFull.getHotStatementPrepareCount());
+        Assertions.assertEquals(configEmpty.getStatementPromotionThreshold(), configFull.getStatementPromotionThreshold());
+        Assertions.assertEquals(configEmpty.getReplicaUrls(), configFull.getReplicaUrls());
+        Assertions.assertEquals(configEmpty.getMaxReplicaLagMillis(), configFull.getMaxReplicaLagMillis());
+        Assertions.assertEquals(configEmpty.getReplicaLagCheckIntervalMillis(), configFull.getReplicaLagCheckIntervalMillis());
+        Assertions.assertEquals(configEmpty.getLeakDetectionThresholdMillis(), configFull.getLeakDetectionThresholdMillis());
+        Assertions.assertEquals(configEmpty.getIdleReclaimGraceMillis(), configFull.getIdleReclaimGraceMillis());
+        Assertions.assertEquals(configEmpty.getLeakStackSampleRate(), configFull.getLeakStackSampleRate());
+        Assertions.assertEquals(configEmpty.getLeakReclaimPolicy(), configFull.getLeakReclaimPolicy());
+        Assertions.assertEquals(configEmpty.getHighPriorityReservedPercent(), configFull.getHighPriorityReservedPercent());
+        Assertions.assertEquals(configEmpty.getMaxWaiters(), configFull.getMaxWaiters());
+        Assertions.assertEquals(configEmpty.getCreationFailureThreshold(), configFull.getCreationFailureThreshold());
+        Assertions.assertEquals(configEmpty.getCreationBackoffMillis(), configFull.getCreationBackoffMillis());
+        Assertions.assertEquals(configEmpty.getCreationBackoffMaxMillis(), configFull.getCreationBackoffMaxMillis());
+        Assertions.assertEquals(configEmpty.isRejectUnreachableBorrows(), configFull.isRejectUnreachableBorrows());
 
         int defaultInt = 1;
         Assertions.assertDoesNotThrow(() -> configEmpty.setMinConnections(defaultInt));
@@ -49,18 +81,107 @@ public class TestPoolConfig {
         Assertions.assertDoesNotThrow(() -> configEmpty.setRequestsPerMinutePerConn(defaultInt));
         Assertions.assertEquals(defaultInt, configEmpty.getRequestsPerMinutePerConn());
 
+        Assertions.assertDoesNotThrow(() -> configEmpty.setSizingIntervalMillis(defaultInt));
+        Assertions.assertEquals(defaultInt, configEmpty.getSizingIntervalMillis());
+
+        Assertions.assertDoesNotThrow(() -> configEmpty.setBorrowWaitTargetMillis(defaultInt));
+        Assertions.assertEquals(defaultInt, configEmpty.getBorrowWaitTargetMillis());
+
         Assertions.assertDoesNotThrow(() -> configEmpty.setConnectionLifeSpan(defaultInt));
         Assertions.assertEquals(defaultInt, configEmpty.getConnectionLifeSpan());
 
+        Assertions.assertDoesNotThrow(() -> configEmpty.setConnectionLifeSpanJitterPercent(defaultInt));
+        Assertions.assertEquals(defaultInt, configEmpty.getConnectionLifeSpanJitterPercent());
+
         Assertions.assertDoesNotThrow(() -> configEmpty.setConnectionCheckIntervals(defaultInt));
         Assertions.assertEquals(defaultInt, configEmpty.getConnectionCheckIntervals());
 
+        Assertions.assertDoesNotThrow(() -> configEmpty.setReclaimIntervalMaxMillis(defaultInt));
+        Assertions.assertEquals(defaultInt, configEmpty.getReclaimIntervalMaxMillis());
+
+        Assertions.assertDoesNotThrow(() -> configEmpty.setConnectionCreatorThreads(defaultInt));
+        Assertions.assertEquals(defaultInt, configEmpty.getConnectionCreatorThreads());
+
+        Assertions.assertDoesNotThrow(() -> configEmpty.setValidationIntervalMillis(defaultInt));
+        Assertions.assertEquals(defaultInt, configEmpty.getValidationIntervalMillis());
+
+        Assertions.assertDoesNotThrow(() -> configEmpty.setValidationSkipWindowMillis(defaultInt));
+        Assertions.assertEquals(defaultInt, configEmpty.getValidationSkipWindowMillis());
+
+        Assertions.assertDoesNotThrow(() -> configEmpty.setValidationTimeoutMillis(defaultInt));
+        Assertions.assertEquals(defaultInt, configEmpty.getValidationTimeoutMillis());
+
+        Assertions.assertDoesNotThrow(() -> configEmpty.setValidationThreads(defaultInt));
+        Assertions.assertEquals(defaultInt, configEmpty.getValidationThreads());
+
+        Assertions.assertDoesNotThrow(() -> configEmpty.setAsyncStartup(true));
+        Assertions.assertTrue(configEmpty.isAsyncStartup());
+
+        Assertions.assertDoesNotThrow(() -> configEmpty.setRegisterMBean(false));
+        Assertions.assertFalse(configEmpty.isRegisterMBean());
+
+        Assertions.assertDoesNotThrow(() -> configEmpty.setPoolName(url));
+        Assertions.assertEquals(url, configEmpty.getPoolName());
+
+        Assertions.assertDoesNotThrow(() -> configEmpty.setBorrowEventsEnabled(true));
+        Assertions.assertTrue(configEmpty.isBorrowEventsEnabled());
+
+        Assertions.assertDoesNotThrow(() -> configEmpty.setBorrowEventSampleRate(defaultInt));
+        Assertions.assertEquals(defaultInt, configEmpty.getBorrowEventSampleRate());
+
         Assertions.assertDoesNotThrow(() -> configEmpty.setMaxCharacters(defaultInt));
         Assertions.assertEquals(defaultInt, configEmpty.getMaxCharacters());
 
         Assertions.assertDoesNotThrow(() -> configEmpty.setMaxCachedStatements(defaultInt));
         Assertions.assertEquals(defaultInt, configEmpty.getMaxCachedStatements());
 
+        Assertions.assertDoesNotThrow(() -> configEmpty.setLazyStatementPreparation(true));
+        Assertions.assertTrue(configEmpty.isLazyStatementPreparation());
+
+        Assertions.assertDoesNotThrow(() -> configEmpty.setHotStatementPrepareCount(defaultInt));
+        Assertions.assertEquals(defaultInt, configEmpty.getHotStatementPrepareCount());
+
+        Assertions.assertDoesNotThrow(() -> configEmpty.setStatementPromotionThreshold(defaultInt));
+        Assertions.assertEquals(defaultInt, configEmpty.getStatementPromotionThreshold());
+
+        Assertions.assertDoesNotThrow(() -> configEmpty.setReplicaUrls(List.of(url)));
+        Assertions.assertEquals(List.of(url), configEmpty.getReplicaUrls());
+
+        Assertions.assertDoesNotThrow(() -> configEmpty.setMaxReplicaLagMillis(defaultInt));
+        Assertions.assertEquals(defaultInt, configEmpty.getMaxReplicaLagMillis());
+
+        Assertions.assertDoesNotThrow(() -> configEmpty.setReplicaLagCheckIntervalMillis(defaultInt));
+        Assertions.assertEquals(defaultInt, configEmpty.getReplicaLagCheckIntervalMillis());
+
+        Assertions.assertDoesNotThrow(() -> configEmpty.setLeakDetectionThresholdMillis(defaultInt));
+        Assertions.assertEquals(defaultInt, configEmpty.getLeakDetectionThresholdMillis());
+        Assertions.assertDoesNotThrow(() -> configEmpty.setIdleReclaimGraceMillis(defaultInt));
+        Assertions.assertEquals(defaultInt, configEmpty.getIdleReclaimGraceMillis());
+
+        Assertions.assertDoesNotThrow(() -> configEmpty.setLeakStackSampleRate(defaultInt));
+        Assertions.assertEquals(defaultInt, configEmpty.getLeakStackSampleRate());
+
+        Assertions.assertDoesNotThrow(() -> configEmpty.setLeakReclaimPolicy(LeakReclaimPolicy.CLOSE_AND_REPLACE));
+        Assertions.assertEquals(LeakReclaimPolicy.CLOSE_AND_REPLACE, configEmpty.getLeakReclaimPolicy());
+
+        Assertions.assertDoesNotThrow(() -> configEmpty.setHighPriorityReservedPercent(defaultInt));
+        Assertions.assertEquals(defaultInt, configEmpty.getHighPriorityReservedPercent());
+
+        Assertions.assertDoesNotThrow(() -> configEmpty.setMaxWaiters(defaultInt));
+        Assertions.assertEquals(defaultInt, configEmpty.getMaxWaiters());
+
+        Assertions.assertDoesNotThrow(() -> configEmpty.setRejectUnreachableBorrows(true));
+        Assertions.assertTrue(configEmpty.isRejectUnreachableBorrows());
+
+        Assertions.assertDoesNotThrow(() -> configEmpty.setCreationFailureThreshold(defaultInt));
+        Assertions.assertEquals(defaultInt, configEmpty.getCreationFailureThreshold());
+
+        Assertions.assertDoesNotThrow(() -> configEmpty.setCreationBackoffMillis(defaultInt));
+        Assertions.assertEquals(defaultInt, configEmpty.getCreationBackoffMillis());
+
+        Assertions.assertDoesNotThrow(() -> configEmpty.setCreationBackoffMaxMillis(defaultInt));
+        Assertions.assertEquals(defaultInt, configEmpty.getCreationBackoffMaxMillis());
+
         Assertions.assertDoesNotThrow(() -> configEmpty.setUrl(url));
         Assertions.assertEquals(url, configEmpty.getUrl());
 
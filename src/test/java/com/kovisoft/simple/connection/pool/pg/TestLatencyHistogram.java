@@ -0,0 +1,37 @@
+package com.kovisoft.simple.connection.pool.pg;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class TestLatencyHistogram {
+
+    @Test
+    public void testBucketsAreContinuousAndBounded(){
+        for(long value = 0; value < 1 << 16; value++){
+            int index = LatencyHistogram.indexFor(value);
+            Assertions.assertTrue(LatencyHistogram.upperBound(index) >= value);
+            if(index > 0) Assertions.assertTrue(LatencyHistogram.upperBound(index - 1) < value);
+        }
+        Assertions.assertEquals(LatencyHistogram.indexFor(Long.MAX_VALUE), LatencyHistogram.indexFor(1L << 50));
+    }
+
+    @Test
+    public void testPercentilesWithinAccuracy(){
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assertions.assertEquals(0, histogram.percentile(0.99));
+        for(int i = 1; i <= 1000; i++){
+            histogram.record(i * 1000L);
+        }
+        Assertions.assertEquals(1000, histogram.getCount());
+        assertWithin(500_000, histogram.percentile(0.5));
+        assertWithin(990_000, histogram.percentile(0.99));
+        assertWithin(1_000_000, histogram.percentile(1));
+        histogram.reset();
+        Assertions.assertEquals(0, histogram.getCount());
+    }
+
+    private static void assertWithin(long expected, long actual){
+        Assertions.assertTrue(actual >= expected && actual <= expected * 1.125,
+                "Expected about " + expected + " but was " + actual);
+    }
+}
@@ -0,0 +1,209 @@
+package com.kovisoft.simple.connection.pool.pg;
+
+import com.kovisoft.simple.connection.pool.exports.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Registry pools against one simulated backend, every pool shares its manager connection.
+ */
+public class TestPoolRegistry {
+
+    private SimulatedBackend backend;
+    private PoolRegistryImpl registry;
+
+    private PoolConfig registryConfig(AtomicInteger desired){
+        PoolConfig config = new PoolConfig("simulated", "user", "pass");
+        config.setMinConnections(2);
+        config.setMaxConnections(10);
+        config.setConnectionFactory(backend);
+        config.setSizingIntervalMillis(20);
+        config.setConnectionCheckIntervals(20);
+        config.setSizingController(sample -> desired.get());
+        return config;
+    }
+
+    private static void awaitTrue(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline){
+            Thread.sleep(10);
+        }
+        Assertions.assertTrue(condition.getAsBoolean(), message);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if(registry != null) registry.close();
+        registry = null;
+    }
+
+    @Test
+    public void testPoolsShareOneManagerConnectionAndThreads() throws Exception {
+        backend = PoolFactory.createSimulatedBackend(new SimulatedBackendConfig());
+        registry = new PoolRegistryImpl(20, 1, 2);
+        AtomicInteger desired = new AtomicInteger(2);
+        SimplePgConnectionPool first = registry.getOrCreate("tenant-1", registryConfig(desired));
+        SimplePgConnectionPool second = registry.getOrCreate("tenant-2", registryConfig(desired));
+        registry.getOrCreate("tenant-3", registryConfig(desired));
+        Assertions.assertSame(first, registry.getOrCreate("tenant-1", registryConfig(desired)));
+        Assertions.assertEquals(1, registry.getManagerConnectionCount());
+        // Three pools settled on the two they ask for plus the one manager connection.
+        awaitTrue(() -> registry.getOpenConnections() == 6 && backend.getOpenConnections() == 7,
+                "Expected the pools to settle on 6 connections.");
+        ConnectionWrapper cw = second.borrowConnection();
+        Assertions.assertTrue(cw.getPreparedStatement("SELECT 1").executeQuery().next());
+        cw.release();
+
+        Assertions.assertTrue(registry.remove("tenant-2"));
+        Assertions.assertNull(registry.get("tenant-2"));
+        Assertions.assertEquals(4, registry.getOpenConnections());
+        Assertions.assertEquals(1, registry.getManagerConnectionCount());
+        Assertions.assertEquals(5, backend.getOpenConnections());
+    }
+
+    @Test
+    public void testMinimumsMustFitTheBudget() throws Exception {
+        backend = PoolFactory.createSimulatedBackend(new SimulatedBackendConfig());
+        registry = new PoolRegistryImpl(3, 1, 1);
+        registry.getOrCreate("tenant-1", registryConfig(new AtomicInteger(2)));
+        Assertions.assertThrows(SQLException.class,
+                () -> registry.getOrCreate("tenant-2", registryConfig(new AtomicInteger(2))));
+        Assertions.assertEquals(1, registry.keys().size());
+    }
+
+    @Test
+    public void testSlowPoolCreationOnlyHoldsUpItsOwnKey() throws Exception {
+        SimulatedBackendConfig slowConfig = new SimulatedBackendConfig();
+        slowConfig.setConnectLatencyMillis(300);
+        SimulatedBackend slowBackend = PoolFactory.createSimulatedBackend(slowConfig);
+        backend = PoolFactory.createSimulatedBackend(new SimulatedBackendConfig());
+        registry = new PoolRegistryImpl(20, 1, 4);
+        PoolConfig slow = registryConfig(new AtomicInteger(2));
+        slow.setConnectionFactory(slowBackend);
+        CompletableFuture<SimplePgConnectionPool> first = CompletableFuture.supplyAsync(() -> getOrCreate("slow", slow));
+        CompletableFuture<SimplePgConnectionPool> second = CompletableFuture.supplyAsync(() -> getOrCreate("slow", slow));
+        Thread.sleep(50);
+
+        long start = System.nanoTime();
+        registry.getOrCreate("fast", registryConfig(new AtomicInteger(2)));
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        Assertions.assertFalse(first.isDone(), "The slow pool should still be warming up");
+        Assertions.assertTrue(elapsedMillis < 250, "Waited on another key's creation for " + elapsedMillis + " ms");
+        // Both callers for the slow key get the one pool built for it.
+        Assertions.assertSame(first.join(), second.join());
+        Assertions.assertEquals(2, registry.keys().size());
+        Assertions.assertEquals(2, slowBackend.getOpenConnections() - 1);
+    }
+
+    @Test
+    public void testClosingAPoolWithACreationInFlightGivesEachPermitBackOnce() throws Exception {
+        backend = PoolFactory.createSimulatedBackend(new SimulatedBackendConfig());
+        registry = new PoolRegistryImpl(10, 1, 2);
+        AtomicInteger desired = new AtomicInteger(2);
+        SimplePgConnectionPoolImpl pool = (SimplePgConnectionPoolImpl) registry.getOrCreate("tenant",
+                registryConfig(desired));
+        awaitTrue(() -> pool.getBag().size() == 2, "Expected the pool to start on its minimum.");
+        backend.getConfig().setConnectLatencyMillis(300);
+        desired.set(4);
+        // The two new connections hold their permits while they are still opening.
+        awaitTrue(() -> registry.getOpenConnections() == 4, "Expected two connections to be opening.");
+        Assertions.assertEquals(2, pool.getBag().size());
+
+        Assertions.assertTrue(registry.remove("tenant"));
+        Thread.sleep(600);
+        Assertions.assertEquals(0, backend.getOpenConnections());
+        Assertions.assertEquals(0, registry.getOpenConnections(), "Permits were given back more than once");
+        Assertions.assertEquals(0, pool.getBag().size());
+    }
+
+    @Test
+    public void testSlowValidationDoesNotStallOtherPoolsTimers() throws Exception {
+        backend = PoolFactory.createSimulatedBackend(new SimulatedBackendConfig());
+        registry = new PoolRegistryImpl(20, 1, 2);
+        PoolConfig slow = registryConfig(new AtomicInteger(2));
+        slow.setValidationIntervalMillis(20);
+        slow.setValidationSkipWindowMillis(0);
+        // A partitioned server, every check blocks until it times out.
+        slow.setConnectionFactory(() -> {
+            Connection connection = backend.createConnection();
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> {
+                        if(method.getName().equals("isValid")) Thread.sleep(400);
+                        try{
+                            return method.invoke(connection, args);
+                        } catch (InvocationTargetException ex){
+                            throw ex.getCause();
+                        }
+                    });
+        });
+        registry.getOrCreate("slow", slow);
+        SimplePgConnectionPool fast = registry.getOrCreate("fast", registryConfig(new AtomicInteger(2)));
+        ConnectionWrapper first = fast.borrowConnection();
+        ConnectionWrapper second = fast.borrowConnection();
+        Thread.sleep(100);
+
+        long start = System.nanoTime();
+        CompletableFuture<ConnectionWrapper> waiting = fast.borrowAsync(Duration.ofMillis(50));
+        long elapsedMillis = (waiting.handle((cw, e) -> System.nanoTime()).join() - start) / 1_000_000;
+        Assertions.assertTrue(elapsedMillis < 300, "The borrow timeout fired after " + elapsedMillis + " ms");
+        Assertions.assertThrows(CompletionException.class, waiting::join);
+        first.release();
+        second.release();
+    }
+
+    private SimplePgConnectionPool getOrCreate(String key, PoolConfig config){
+        try{
+            return registry.getOrCreate(key, config);
+        } catch (SQLException e){
+            throw new CompletionException(e);
+        }
+    }
+
+    @Test
+    public void testBudgetIsRebalancedByDemandAndNeverExceeded() throws Exception {
+        backend = PoolFactory.createSimulatedBackend(new SimulatedBackendConfig());
+        registry = new PoolRegistryImpl(10, 1, 2);
+        AtomicInteger busyDemand = new AtomicInteger(8);
+        AtomicInteger quietDemand = new AtomicInteger(8);
+        SimplePgConnectionPoolImpl busy = (SimplePgConnectionPoolImpl) registry.getOrCreate("busy",
+                registryConfig(busyDemand));
+        SimplePgConnectionPoolImpl quiet = (SimplePgConnectionPoolImpl) registry.getOrCreate("quiet",
+                registryConfig(quietDemand));
+        AtomicBoolean watching = new AtomicBoolean(true);
+        AtomicInteger mostOpen = new AtomicInteger();
+        Thread watcher = new Thread(() -> {
+            while (watching.get()){
+                // Less the shared manager connection.
+                mostOpen.accumulateAndGet(backend.getOpenConnections() - 1, Math::max);
+                Thread.onSpinWait();
+            }
+        });
+        watcher.start();
+        try{
+            // Both want 8 of the 6 left after the minimums, an even split.
+            awaitTrue(() -> busy.getBag().size() == 5 && quiet.getBag().size() == 5,
+                    "Expected both pools to settle on 5 connections.");
+            quietDemand.set(2);
+            awaitTrue(() -> busy.getBag().size() == 8 && quiet.getBag().size() == 2,
+                    "Expected the busy pool to grow to 8 as the quiet one fell to 2.");
+            Assertions.assertEquals(8, busy.getConnectionShare());
+        } finally {
+            watching.set(false);
+            watcher.join();
+        }
+        Assertions.assertTrue(mostOpen.get() <= 10, "Budget exceeded, saw " + mostOpen.get() + " open");
+        Assertions.assertTrue(registry.getOpenConnections() <= 10);
+    }
+}
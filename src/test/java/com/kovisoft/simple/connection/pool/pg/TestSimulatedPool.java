@@ -0,0 +1,833 @@
+package com.kovisoft.simple.connection.pool.pg;
+
+import com.kovisoft.simple.connection.pool.exports.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the pool against the in-process simulated backend, so unlike the other pool tests
+ * this one needs no database.
+ */
+public class TestSimulatedPool {
+
+    private SimulatedBackend backend;
+    private SimplePgConnectionPoolImpl pool;
+
+    private PoolConfig simulatedConfig(SimulatedBackendConfig backendConfig){
+        backend = PoolFactory.createSimulatedBackend(backendConfig);
+        PoolConfig config = new PoolConfig("simulated", "user", "pass");
+        config.setMinConnections(2);
+        config.setMaxConnections(4);
+        config.setConnectionFactory(backend);
+        return config;
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if(pool != null) pool.shutDownPool();
+        pool = null;
+    }
+
+    @Test
+    public void testBorrowAndRelease() throws Exception {
+        pool = new SimplePgConnectionPoolImpl(simulatedConfig(new SimulatedBackendConfig()));
+        pool.whenReady().join();
+        ConnectionWrapper cw = pool.borrowConnection();
+        Assertions.assertTrue(cw.inUse());
+        Assertions.assertTrue(cw.getPreparedStatement("SELECT 1").executeQuery().next());
+        cw.release();
+        Assertions.assertFalse(cw.inUse());
+        // Same thread, nothing else borrowing, the fast path hands back the same wrapper.
+        Assertions.assertSame(cw, pool.borrowConnection());
+        cw.release();
+        Assertions.assertEquals(2, pool.getMetrics().getBorrowCount());
+        Assertions.assertEquals(2, pool.getMetrics().getIdleConnections());
+        // Two pooled connections plus the manager connection.
+        Assertions.assertEquals(3, backend.getOpenConnections());
+    }
+
+    @Test
+    public void testWithConnectionReturnsOnExceptionAndIsNeverReclaimed() throws Exception {
+        PoolConfig config = simulatedConfig(new SimulatedBackendConfig());
+        config.setRegisterMBean(false);
+        config.setIdleReclaimGraceMillis(20);
+        pool = new SimplePgConnectionPoolImpl(config);
+        pool.whenReady().join();
+        ConnectionWrapper[] used = new ConnectionWrapper[1];
+        IllegalStateException e = Assertions.assertThrows(IllegalStateException.class, () -> pool.withConnection(cw -> {
+            used[0] = cw;
+            throw new IllegalStateException("work failed");
+        }));
+        Assertions.assertEquals("work failed", e.getMessage());
+        Assertions.assertFalse(used[0].inUse());
+        Assertions.assertEquals(0, pool.getMetrics().getActiveConnections());
+
+        // Idle far longer than the reclaim grace, the borrow is still the callback's when it returns.
+        boolean stillHeld = pool.withConnection(cw -> {
+            cw.getPreparedStatement("SELECT 1").executeQuery();
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(200));
+            return cw.inUse();
+        });
+        Assertions.assertTrue(stillHeld);
+        Assertions.assertEquals(0, pool.getMetrics().getReclaimedCount());
+        Assertions.assertEquals(0, pool.getMetrics().getActiveConnections());
+    }
+
+    @Test
+    public void testInTransactionCommitsOrRollsBack() throws Exception {
+        PoolConfig config = simulatedConfig(new SimulatedBackendConfig());
+        config.setRegisterMBean(false);
+        Queue<String> transactionCalls = new ConcurrentLinkedQueue<>();
+        config.setConnectionFactory(() -> {
+            Connection connection = backend.createConnection();
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> {
+                        if(method.getName().equals("commit") || method.getName().equals("rollback")){
+                            transactionCalls.add(method.getName());
+                        }
+                        try{
+                            return method.invoke(connection, args);
+                        } catch (InvocationTargetException ex){
+                            throw ex.getCause();
+                        }
+                    });
+        });
+        pool = new SimplePgConnectionPoolImpl(config);
+        pool.whenReady().join();
+        Assertions.assertEquals(1, (int) pool.inTransaction(cw -> {
+            Assertions.assertFalse(cw.borrowConnection().getAutoCommit());
+            cw.getPreparedStatement("SELECT 1").executeQuery();
+            return 1;
+        }));
+        Assertions.assertEquals(List.of("commit"), List.copyOf(transactionCalls));
+        transactionCalls.clear();
+
+        SQLException e = Assertions.assertThrows(SQLException.class, () -> pool.inTransaction(cw -> {
+            cw.getPreparedStatement("SELECT 1").executeQuery();
+            throw new SQLException("work failed");
+        }));
+        Assertions.assertEquals("work failed", e.getMessage());
+        Assertions.assertEquals(List.of("rollback"), List.copyOf(transactionCalls));
+        Assertions.assertTrue(pool.withConnection(cw -> cw.borrowConnection().getAutoCommit()));
+        Assertions.assertEquals(0, pool.getMetrics().getActiveConnections());
+    }
+
+    @Test
+    public void testUnreleasedConnectionIsReclaimed() throws Exception {
+        PoolConfig config = simulatedConfig(new SimulatedBackendConfig());
+        config.setIdleReclaimGraceMillis(100);
+        pool = new SimplePgConnectionPoolImpl(config);
+        ConnectionWrapper cw = pool.borrowConnection();
+        cw.getPreparedStatement("SELECT 1").executeQuery();
+        long deadline = System.currentTimeMillis() + 5000;
+        // The reclaimed count is added after the pass, a moment after the wrapper flips back.
+        while ((cw.inUse() || pool.getMetrics().getReclaimedCount() == 0) && System.currentTimeMillis() < deadline){
+            Thread.sleep(10);
+        }
+        Assertions.assertFalse(cw.inUse());
+        Assertions.assertTrue(pool.getMetrics().getReclaimedCount() >= 1);
+    }
+
+    @Test
+    public void testPauseBetweenStatementsKeepsTheBorrow() throws Exception {
+        pool = new SimplePgConnectionPoolImpl(simulatedConfig(new SimulatedBackendConfig()));
+        pool.whenReady().join();
+        ConnectionWrapper cw = pool.borrowConnection();
+        Assertions.assertTrue(cw.getPreparedStatement("SELECT 1").executeQuery().next());
+        // Idle for many check intervals, well inside the default grace.
+        Thread.sleep(300);
+        Assertions.assertTrue(cw.inUse());
+        Assertions.assertTrue(cw.getPreparedStatement("SELECT 1").executeQuery().next());
+        Assertions.assertEquals(0, pool.getMetrics().getReclaimedCount());
+        cw.release();
+        Assertions.assertFalse(cw.inUse());
+    }
+
+    @Test
+    public void testInTransactionRollsBackAndRestoresAutoCommit() throws Exception {
+        pool = new SimplePgConnectionPoolImpl(simulatedConfig(new SimulatedBackendConfig()));
+        Connection[] used = new Connection[1];
+        Assertions.assertThrows(SQLException.class, () -> pool.inTransaction(cw -> {
+            used[0] = cw.borrowConnection();
+            Assertions.assertFalse(used[0].getAutoCommit());
+            throw new SQLException("boom");
+        }));
+        Assertions.assertTrue(used[0].getAutoCommit());
+        Assertions.assertEquals(1, (int) pool.withConnection(cw -> cw.getPreparedStatement("SELECT 1")
+                .executeQuery().next() ? 1 : 0));
+    }
+
+    @Test
+    public void testEventsReachListener() throws Exception {
+        CountDownLatch created = new CountDownLatch(2);
+        CountDownLatch borrowed = new CountDownLatch(1);
+        CountDownLatch released = new CountDownLatch(1);
+        PoolConfig config = simulatedConfig(new SimulatedBackendConfig());
+        config.setBorrowEventsEnabled(true);
+        config.setEventListener(new PoolEventListener() {
+            @Override
+            public void onCreate(ConnectionWrapper cw, long creationNanos) {
+                created.countDown();
+            }
+
+            @Override
+            public void onBorrow(ConnectionWrapper cw, long waitNanos) {
+                borrowed.countDown();
+            }
+
+            @Override
+            public void onRelease(ConnectionWrapper cw, long holdNanos) {
+                released.countDown();
+            }
+        });
+        pool = new SimplePgConnectionPoolImpl(config);
+        pool.borrowConnection().release();
+        Assertions.assertTrue(created.await(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(borrowed.await(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(released.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testLeakedTransactionIsReportedRolledBackAndReturned() throws Exception {
+        CompletableFuture<Exception> leakSite = new CompletableFuture<>();
+        PoolConfig config = simulatedConfig(new SimulatedBackendConfig());
+        config.setRegisterMBean(false);
+        config.setLeakDetectionThresholdMillis(100);
+        config.setLeakStackSampleRate(1);
+        config.setEventListener(new PoolEventListener() {
+            @Override
+            public void onLeak(ConnectionWrapper cw, long holdNanos, Exception borrowSite) {
+                leakSite.complete(borrowSite);
+            }
+        });
+        pool = new SimplePgConnectionPoolImpl(config);
+        ConnectionWrapper leaked = pool.borrowConnection();
+        // Idle in transaction, the idle reclaim alone would never take it back.
+        leaked.borrowConnection().setAutoCommit(false);
+        leaked.getPreparedStatement("SELECT 1").executeQuery();
+        Exception site = leakSite.get(5, TimeUnit.SECONDS);
+        Assertions.assertTrue(Arrays.stream(site.getStackTrace())
+                .anyMatch(frame -> frame.getMethodName().equals("testLeakedTransactionIsReportedRolledBackAndReturned")));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (leaked.inUse() && System.currentTimeMillis() < deadline){
+            Thread.sleep(10);
+        }
+        Assertions.assertFalse(leaked.inUse());
+        // The leaked handle is revoked, the connection itself went back rolled back.
+        Assertions.assertThrows(SQLException.class, () -> leaked.borrowConnection().getAutoCommit());
+        Assertions.assertTrue(pool.withConnection(cw -> cw.borrowConnection().getAutoCommit()));
+        Assertions.assertEquals(1, pool.getMetrics().getLeakCount());
+    }
+
+    @Test
+    public void testLateReleaseOfReclaimedConnectionLeavesNextBorrowerAlone() throws Exception {
+        PoolConfig config = simulatedConfig(new SimulatedBackendConfig());
+        config.setRegisterMBean(false);
+        config.setMinConnections(1);
+        config.setMaxConnections(1);
+        config.setLeakDetectionThresholdMillis(100);
+        config.setLeakStackSampleRate(0);
+        pool = new SimplePgConnectionPoolImpl(config);
+        pool.whenReady().join();
+        ConnectionWrapper leaked = pool.borrowConnection();
+        Connection leakedConnection = leaked.borrowConnection();
+        leakedConnection.setAutoCommit(false);
+        leaked.getPreparedStatement("SELECT 1").executeQuery();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (leaked.inUse() && System.currentTimeMillis() < deadline){
+            Thread.sleep(10);
+        }
+        Assertions.assertFalse(leaked.inUse());
+
+        // Same physical connection under a new wrapper, with the session the leaked borrower left rolled back.
+        ConnectionWrapper next = pool.borrowConnection(1000);
+        Assertions.assertNotSame(leaked, next);
+        Assertions.assertEquals(leaked.getPid(), next.getPid());
+        Assertions.assertTrue(next.borrowConnection().getAutoCommit());
+        next.borrowConnection().setAutoCommit(false);
+
+        // The leaked borrower finally lets go, the next borrower keeps its connection and its session.
+        leaked.release();
+        leaked.close();
+        Assertions.assertTrue(next.inUse());
+        Assertions.assertFalse(next.borrowConnection().getAutoCommit());
+        Assertions.assertTrue(next.getPreparedStatement("SELECT 1").executeQuery().next());
+        Assertions.assertTrue(leakedConnection.isClosed());
+        Assertions.assertThrows(SQLException.class, () -> leakedConnection.setAutoCommit(true));
+        Assertions.assertThrows(SQLException.class, () -> leaked.getPreparedStatement("SELECT 1"));
+        Assertions.assertTrue(leaked.isClosed());
+
+        next.release();
+        Assertions.assertEquals(1, pool.getBag().size());
+        Assertions.assertSame(next, pool.borrowConnection());
+    }
+
+    @Test
+    public void testStatementsKeptFromBeforeReclaimCantRunOnTheNextBorrower() throws Exception {
+        PoolConfig config = simulatedConfig(new SimulatedBackendConfig());
+        config.setRegisterMBean(false);
+        config.setMinConnections(1);
+        config.setMaxConnections(1);
+        config.setLeakDetectionThresholdMillis(100);
+        config.setLeakStackSampleRate(0);
+        pool = new SimplePgConnectionPoolImpl(config);
+        pool.whenReady().join();
+        pool.addPreparedStatementsToPool(Map.of("one", "SELECT 1"));
+        ConnectionWrapper leaked = pool.borrowConnection();
+        PreparedStatement registered = leaked.getPreparedStatement("one");
+        PreparedStatement adHoc = leaked.getPreparedStatement("SELECT 2");
+        PreparedStatement direct = leaked.borrowConnection().prepareStatement("SELECT 3");
+        leaked.borrowConnection().setAutoCommit(false);
+        registered.executeQuery();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (leaked.inUse() && System.currentTimeMillis() < deadline){
+            Thread.sleep(10);
+        }
+        Assertions.assertFalse(leaked.inUse());
+
+        ConnectionWrapper next = pool.borrowConnection(1000);
+        Assertions.assertEquals(leaked.getPid(), next.getPid());
+        PreparedStatement nextRegistered = next.getPreparedStatement("one");
+        Assertions.assertNotSame(registered, nextRegistered);
+        // Everything the leaked borrower kept is dead, none of it runs on the next borrower's session.
+        Assertions.assertThrows(SQLException.class, registered::executeQuery);
+        Assertions.assertThrows(SQLException.class, adHoc::executeQuery);
+        Assertions.assertThrows(SQLException.class, direct::executeQuery);
+        Assertions.assertTrue(registered.isClosed());
+        Assertions.assertTrue(nextRegistered.executeQuery().next());
+        Assertions.assertTrue(next.getPreparedStatement("SELECT 2").executeQuery().next());
+        next.release();
+    }
+
+    @Test
+    public void testLeakedConnectionIsClosedAndReplaced() throws Exception {
+        CountDownLatch evicted = new CountDownLatch(1);
+        PoolConfig config = simulatedConfig(new SimulatedBackendConfig());
+        config.setRegisterMBean(false);
+        config.setLeakDetectionThresholdMillis(100);
+        config.setLeakStackSampleRate(0);
+        config.setLeakReclaimPolicy(LeakReclaimPolicy.CLOSE_AND_REPLACE);
+        config.setEventListener(new PoolEventListener() {
+            @Override
+            public void onEvict(ConnectionWrapper cw, EvictionReason reason) {
+                if(reason == EvictionReason.LEAKED) evicted.countDown();
+            }
+        });
+        pool = new SimplePgConnectionPoolImpl(config);
+        pool.whenReady().join();
+        ConnectionWrapper leaked = pool.borrowConnection();
+        leaked.borrowConnection().setAutoCommit(false);
+        leaked.getPreparedStatement("SELECT 1").executeQuery();
+        Assertions.assertTrue(evicted.await(5, TimeUnit.SECONDS));
+        // The event goes out as it leaves the pool, closing and the replacement follow.
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((!leaked.isClosed() || pool.getBag().size() < 2) && System.currentTimeMillis() < deadline){
+            Thread.sleep(10);
+        }
+        Assertions.assertTrue(leaked.isClosed());
+        Assertions.assertEquals(2, pool.getBag().size());
+    }
+
+    @Test
+    public void testReleaseResetsOnlyWhatTheBorrowerChanged() throws Exception {
+        PoolConfig config = simulatedConfig(new SimulatedBackendConfig());
+        config.setRegisterMBean(false);
+        // Keep the reclaimer's queries out of the count.
+        config.setConnectionCheckIntervals(60_000);
+        config.setReclaimIntervalMaxMillis(60_000);
+        pool = new SimplePgConnectionPoolImpl(config);
+        pool.whenReady().join();
+        ConnectionWrapper cw = pool.borrowConnection();
+        cw.getPreparedStatement("SELECT 1").executeQuery();
+        long queries = backend.getQueriesExecuted();
+        cw.release();
+        Assertions.assertEquals(queries, backend.getQueriesExecuted());
+
+        cw = pool.borrowConnection();
+        Connection conn = cw.borrowConnection();
+        int isolation = conn.getTransactionIsolation();
+        conn.setAutoCommit(false);
+        conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        conn.setReadOnly(true);
+        cw.getPreparedStatement("SET statement_timeout = 5").execute();
+        queries = backend.getQueriesExecuted();
+        cw.release();
+        // RESET ALL is the only query, the rollback and property resets aren't queries here.
+        Assertions.assertEquals(queries + 1, backend.getQueriesExecuted());
+        Assertions.assertTrue(conn.getAutoCommit());
+        Assertions.assertEquals(isolation, conn.getTransactionIsolation());
+        Assertions.assertFalse(conn.isReadOnly());
+
+        Assertions.assertTrue(SessionStateTracker.changesSession("  set search_path TO app"));
+        Assertions.assertTrue(SessionStateTracker.changesSession("RESET ALL"));
+        Assertions.assertFalse(SessionStateTracker.changesSession("SET LOCAL statement_timeout = 5"));
+        Assertions.assertFalse(SessionStateTracker.changesSession("SELECT * FROM settings"));
+    }
+
+    @Test
+    public void testOverloadedBorrowsAreRejectedWithoutWaiting() throws Exception {
+        PoolConfig config = simulatedConfig(new SimulatedBackendConfig());
+        config.setRegisterMBean(false);
+        config.setMinConnections(1);
+        config.setMaxConnections(1);
+        config.setConnectionCheckIntervals(60_000);
+        config.setReclaimIntervalMaxMillis(60_000);
+        config.setSizingIntervalMillis(1);
+        config.setMaxWaiters(1);
+        config.setRejectUnreachableBorrows(true);
+        pool = new SimplePgConnectionPoolImpl(config);
+        pool.whenReady().join();
+        // Held about 40 ms each, management is run by hand so the estimate is built from these.
+        for(int i = 0; i < 3; i++){
+            ConnectionWrapper cw = pool.borrowConnection();
+            Thread.sleep(40);
+            cw.release();
+        }
+        pool.managePool();
+        // The startup management pass may have sized once mid hold, averaging in a shorter partial interval.
+        Assertions.assertTrue(pool.getBag().getMeanHoldNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+
+        ConnectionWrapper held = pool.borrowConnection();
+        long start = System.nanoTime();
+        PoolOverloadedException unreachable = Assertions.assertThrows(PoolOverloadedException.class,
+                () -> pool.borrowConnection(5));
+        Assertions.assertEquals(PoolOverloadedException.Reason.WAIT_EXCEEDS_TIMEOUT, unreachable.getReason());
+        Assertions.assertTrue(unreachable.getEstimatedWaitMillis() >= 20);
+        // A borrower willing to wait is queued and takes the only place.
+        CompletableFuture<ConnectionWrapper> waiter = pool.borrowAsync(Duration.ofSeconds(5));
+        PoolOverloadedException full = Assertions.assertThrows(PoolOverloadedException.class,
+                () -> pool.borrowConnection(5_000));
+        Assertions.assertEquals(PoolOverloadedException.Reason.TOO_MANY_WAITERS, full.getReason());
+        Assertions.assertEquals(1, full.getWaiters());
+        CompletionException async = Assertions.assertThrows(CompletionException.class,
+                () -> pool.borrowAsync(Duration.ofSeconds(5)).join());
+        Assertions.assertInstanceOf(PoolOverloadedException.class, async.getCause());
+        Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1), "Rejections should not wait");
+
+        held.release();
+        Assertions.assertSame(held, waiter.get(5, TimeUnit.SECONDS));
+        waiter.join().release();
+        Assertions.assertEquals(3, pool.getMetrics().getBorrowRejectedCount());
+        Assertions.assertEquals(0, pool.getMetrics().getBorrowTimeoutCount());
+    }
+
+    @Test
+    public void testReservedShareAndHighPriorityServedFirst() throws Exception {
+        PoolConfig config = simulatedConfig(new SimulatedBackendConfig());
+        config.setRegisterMBean(false);
+        config.setMinConnections(4);
+        config.setConnectionCheckIntervals(60_000);
+        config.setReclaimIntervalMaxMillis(60_000);
+        // One of the four connections is only lent to HIGH borrowers.
+        config.setHighPriorityReservedPercent(25);
+        pool = new SimplePgConnectionPoolImpl(config);
+        pool.whenReady().join();
+        ConnectionWrapper low1 = pool.borrowConnection(Priority.LOW);
+        ConnectionWrapper low2 = pool.borrowConnection(Priority.LOW);
+        ConnectionWrapper normal = pool.borrowConnection(Priority.NORMAL);
+        PoolTimeoutException timeout = Assertions.assertThrows(PoolTimeoutException.class,
+                () -> pool.borrowConnection(Priority.LOW, 20));
+        Assertions.assertTrue(timeout.getMessage().contains("LOW"));
+        ConnectionWrapper high = pool.borrowConnection(Priority.HIGH);
+
+        CompletableFuture<ConnectionWrapper> lowWaiter = pool.borrowAsync(Priority.LOW, Duration.ofSeconds(5));
+        CompletableFuture<ConnectionWrapper> highWaiter = pool.borrowAsync(Priority.HIGH, Duration.ofSeconds(5));
+        Assertions.assertEquals(1, pool.getMetrics().getPendingBorrowers(Priority.LOW));
+        Assertions.assertEquals(1, pool.getMetrics().getPendingBorrowers(Priority.HIGH));
+        // Queued second but served first.
+        low1.release();
+        Assertions.assertSame(low1, highWaiter.get(5, TimeUnit.SECONDS));
+        Assertions.assertFalse(lowWaiter.isDone());
+        // HIGH borrowers don't count against the shared slots, the one low1 gave back goes to the LOW waiter.
+        high.release();
+        Assertions.assertSame(high, lowWaiter.get(5, TimeUnit.SECONDS));
+
+        low2.release();
+        lowWaiter.join().release();
+        highWaiter.join().release();
+        normal.release();
+        Assertions.assertEquals(1, pool.getMetrics().getBorrowTimeoutCount(Priority.LOW));
+        Assertions.assertEquals(0, pool.getMetrics().getBorrowTimeoutCount(Priority.HIGH));
+        Assertions.assertEquals(2, pool.getMetrics().getBorrowCount(Priority.HIGH));
+        Assertions.assertEquals(3, pool.getMetrics().getBorrowCount(Priority.LOW));
+        Assertions.assertEquals(1, pool.getMetrics().getBorrowCount(Priority.NORMAL));
+    }
+
+    @Test
+    public void testLazyStatementsPreparedOnFirstUseAndWhenHot() throws Exception {
+        PoolConfig config = simulatedConfig(new SimulatedBackendConfig());
+        config.setLazyStatementPreparation(true);
+        config.setHotStatementPrepareCount(1);
+        config.setRegisterMBean(false);
+        pool = new SimplePgConnectionPoolImpl(config, Map.of("hot", "SELECT 'hot'", "cold", "SELECT 'cold'"));
+        pool.whenReady().join();
+        ConnectionWrapperImpl[] wrappers = pool.getBag().values();
+        for(ConnectionWrapperImpl cw : wrappers){
+            // Only the pid lookup, registration did not prepare anything.
+            Assertions.assertEquals(1, cw.countStatements());
+        }
+        ConnectionWrapper borrowed = pool.borrowConnection();
+        Assertions.assertTrue(borrowed.getPreparedStatement("hot").executeQuery().next());
+        Assertions.assertSame(borrowed.getPreparedStatement("hot"), borrowed.getPreparedStatement("hot"));
+        borrowed.release();
+        // The hot list refreshes at most once a second, then management pre-prepares it on idle connections.
+        long deadline = System.currentTimeMillis() + 5000;
+        while (Arrays.stream(pool.getBag().values()).anyMatch(cw -> cw.countStatements() < 2)
+                && System.currentTimeMillis() < deadline){
+            Thread.sleep(50);
+        }
+        for(ConnectionWrapperImpl cw : pool.getBag().values()){
+            Assertions.assertEquals(2, cw.countStatements());
+        }
+    }
+
+    @Test
+    public void testHotAdHocSqlIsPromoted() throws Exception {
+        PoolConfig config = simulatedConfig(new SimulatedBackendConfig());
+        config.setStatementPromotionThreshold(3);
+        config.setRegisterMBean(false);
+        pool = new SimplePgConnectionPoolImpl(config);
+        pool.whenReady().join();
+        pool.withConnection(cw -> {
+            for(int i = 0; i < 5; i++){
+                cw.getPreparedStatement("SELECT 'adhoc'").executeQuery();
+            }
+            return null;
+        });
+        // Promotion happens on the next management pass, idle connections then prepare it.
+        long deadline = System.currentTimeMillis() + 5000;
+        while (Arrays.stream(pool.getBag().values()).anyMatch(cw -> cw.countStatements() < 2)
+                && System.currentTimeMillis() < deadline){
+            Thread.sleep(20);
+        }
+        for(ConnectionWrapperImpl cw : pool.getBag().values()){
+            // The pid lookup plus the promoted statement.
+            Assertions.assertEquals(2, cw.countStatements());
+        }
+    }
+
+    @Test
+    public void testExpiringConnectionIsReplacedBeforeItIsRetired() throws Exception {
+        PoolConfig config = simulatedConfig(new SimulatedBackendConfig());
+        config.setMaxConnections(2);
+        // Management is driven by hand below.
+        config.setConnectionCheckIntervals(60_000);
+        config.setRegisterMBean(false);
+        pool = new SimplePgConnectionPoolImpl(config);
+        pool.whenReady().join();
+        Thread.sleep(100);
+        ConnectionBag bag = pool.getBag();
+        ConnectionWrapperImpl victim = bag.values()[0];
+        bag.remove(victim);
+        victim.close();
+        ConnectionWrapperImpl shortLived = new ConnectionWrapperImpl(backend, TimeUnit.MILLISECONDS.toNanos(300));
+        bag.add(shortLived);
+        long opened = backend.getConnectionsOpened();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (Arrays.asList(bag.values()).contains(shortLived) && System.currentTimeMillis() < deadline){
+            pool.managePool();
+            Assertions.assertTrue(bag.size() >= 2, "Rotation dropped capacity to " + bag.size());
+            Thread.sleep(10);
+        }
+        Assertions.assertFalse(Arrays.asList(bag.values()).contains(shortLived));
+        Assertions.assertEquals(2, bag.size());
+        Assertions.assertEquals(opened + 1, backend.getConnectionsOpened());
+    }
+
+    @Test
+    public void testValidationOnlyChecksIdleConnections() throws Exception {
+        SimulatedBackendConfig backendConfig = new SimulatedBackendConfig();
+        PoolConfig config = simulatedConfig(backendConfig);
+        config.setMaxConnections(2);
+        config.setValidationIntervalMillis(20);
+        config.setValidationSkipWindowMillis(0);
+        config.setRegisterMBean(false);
+        pool = new SimplePgConnectionPoolImpl(config);
+        pool.whenReady().join();
+        ConnectionWrapper held = pool.borrowConnection();
+        // Inside a transaction so the reclaimer leaves it with the borrower.
+        held.borrowConnection().setAutoCommit(false);
+        held.getPreparedStatement("SELECT 1").executeQuery();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getMetrics().getValidationCount() < 3 && System.currentTimeMillis() < deadline){
+            Thread.sleep(10);
+        }
+        Assertions.assertTrue(pool.getMetrics().getValidationCount() >= 3);
+        backendConfig.setAvailable(false);
+        while (pool.getMetrics().getValidationEvictionCount() == 0 && System.currentTimeMillis() < deadline){
+            Thread.sleep(10);
+        }
+        Assertions.assertTrue(pool.getMetrics().getValidationEvictionCount() >= 1);
+        // The borrowed connection was never checked out from under its borrower.
+        Assertions.assertTrue(held.inUse());
+        Assertions.assertTrue(Arrays.asList(pool.getBag().values()).contains(held));
+    }
+
+    @Test
+    public void testCircuitOpensWhileServerIsDownAndRecovers() throws Exception {
+        SimulatedBackendConfig backendConfig = new SimulatedBackendConfig();
+        PoolConfig config = simulatedConfig(backendConfig);
+        config.setMaxConnections(2);
+        config.setValidationIntervalMillis(20);
+        config.setValidationSkipWindowMillis(0);
+        config.setCreationFailureThreshold(3);
+        config.setCreationBackoffMillis(400);
+        config.setCreationBackoffMaxMillis(800);
+        config.setRegisterMBean(false);
+        pool = new SimplePgConnectionPoolImpl(config);
+        pool.whenReady().join();
+        Assertions.assertEquals(CircuitState.CLOSED, pool.getCircuitState());
+
+        backendConfig.setAvailable(false);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getCircuitState() != CircuitState.OPEN && System.currentTimeMillis() < deadline){
+            Thread.sleep(5);
+        }
+        Assertions.assertEquals(CircuitState.OPEN, pool.getCircuitState());
+        // Jittered to at least half the backoff, so nothing is attempted for the next 200 ms.
+        long failures = pool.getMetrics().getConnectionCreationFailures();
+        Thread.sleep(100);
+        Assertions.assertEquals(failures, pool.getMetrics().getConnectionCreationFailures());
+        while (pool.getBag().size() > 0 && System.currentTimeMillis() < deadline){
+            Thread.sleep(5);
+        }
+        long start = System.nanoTime();
+        PoolUnavailableException e = Assertions.assertThrows(PoolUnavailableException.class,
+                () -> pool.borrowConnection(2_000));
+        Assertions.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500), "Borrow should fail fast");
+        Assertions.assertNotEquals(CircuitState.CLOSED, e.getCircuitState());
+        Assertions.assertNotNull(e.getCause());
+        CompletionException async = Assertions.assertThrows(CompletionException.class,
+                () -> pool.borrowAsync(Duration.ofSeconds(2)).join());
+        Assertions.assertInstanceOf(PoolUnavailableException.class, async.getCause());
+
+        backendConfig.setAvailable(true);
+        while ((pool.getCircuitState() != CircuitState.CLOSED || pool.getBag().size() < 2)
+                && System.currentTimeMillis() < deadline){
+            Thread.sleep(5);
+        }
+        Assertions.assertEquals(CircuitState.CLOSED, pool.getCircuitState());
+        Assertions.assertEquals(2, pool.getBag().size());
+        Assertions.assertTrue(pool.getMetrics().getCircuitOpenCount() >= 1);
+        ConnectionWrapper cw = pool.borrowConnection();
+        Assertions.assertTrue(cw.getPreparedStatement("SELECT 1").executeQuery().next());
+        cw.release();
+    }
+
+    @Test
+    public void testBorrowTimeoutIsBoundedAndSaysWhy() throws Exception {
+        PoolConfig config = simulatedConfig(new SimulatedBackendConfig());
+        config.setMinConnections(1);
+        config.setMaxConnections(1);
+        config.setRegisterMBean(false);
+        pool = new SimplePgConnectionPoolImpl(config);
+        pool.whenReady().join();
+        ConnectionWrapper held = pool.borrowConnection();
+        held.borrowConnection().setAutoCommit(false);
+        held.getPreparedStatement("SELECT 1").executeQuery();
+        long start = System.nanoTime();
+        PoolTimeoutException e = Assertions.assertThrows(PoolTimeoutException.class, () -> pool.borrowConnection(100));
+        long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assertions.assertEquals(PoolTimeoutException.Reason.EXHAUSTED, e.getReason());
+        Assertions.assertTrue(waitedMillis >= 100 && waitedMillis < 1000, "waited " + waitedMillis);
+        Assertions.assertEquals(1, pool.getMetrics().getBorrowTimeoutCount());
+        Assertions.assertEquals(0, pool.getBag().getWaiterCount());
+        held.borrowConnection().setAutoCommit(true);
+        held.release();
+    }
+
+    @Test
+    public void testWaitersAreServedInArrivalOrder() throws Exception {
+        PoolConfig config = simulatedConfig(new SimulatedBackendConfig());
+        config.setMinConnections(1);
+        config.setMaxConnections(1);
+        config.setRegisterMBean(false);
+        pool = new SimplePgConnectionPoolImpl(config);
+        pool.whenReady().join();
+        ConnectionWrapper held = pool.borrowConnection();
+        held.borrowConnection().setAutoCommit(false);
+        held.getPreparedStatement("SELECT 1").executeQuery();
+        Queue<Integer> served = new ConcurrentLinkedQueue<>();
+        Thread[] waiters = new Thread[4];
+        for(int i = 0; i < waiters.length; i++){
+            final int order = i;
+            waiters[i] = Thread.ofPlatform().start(() -> {
+                try{
+                    ConnectionWrapper cw = pool.borrowConnection(5000);
+                    served.add(order);
+                    cw.release();
+                } catch (Exception e){
+                    served.add(-1);
+                }
+            });
+            long deadline = System.currentTimeMillis() + 5000;
+            while (pool.getBag().getWaiterCount() <= i && System.currentTimeMillis() < deadline){
+                Thread.sleep(1);
+            }
+        }
+        held.borrowConnection().setAutoCommit(true);
+        held.release();
+        for(Thread waiter : waiters) waiter.join(5000);
+        Assertions.assertEquals(List.of(0, 1, 2, 3), List.copyOf(served));
+    }
+
+    @Test
+    public void testBorrowAsyncCompletesOnReleaseTimesOutAndCancels() throws Exception {
+        PoolConfig config = simulatedConfig(new SimulatedBackendConfig());
+        config.setMinConnections(1);
+        config.setMaxConnections(1);
+        config.setRegisterMBean(false);
+        pool = new SimplePgConnectionPoolImpl(config);
+        pool.whenReady().join();
+        ConnectionWrapper held = pool.borrowAsync(Duration.ofSeconds(1)).join();
+        held.borrowConnection().setAutoCommit(false);
+        held.getPreparedStatement("SELECT 1").executeQuery();
+
+        CompletableFuture<ConnectionWrapper> first = pool.borrowAsync(Duration.ofSeconds(5));
+        CompletableFuture<ConnectionWrapper> timesOut = pool.borrowAsync(Duration.ofMillis(50));
+        CompletableFuture<ConnectionWrapper> cancelled = pool.borrowAsync(Duration.ofSeconds(5));
+        Assertions.assertFalse(first.isDone());
+        CompletionException e = Assertions.assertThrows(CompletionException.class, timesOut::join);
+        Assertions.assertInstanceOf(PoolTimeoutException.class, e.getCause());
+        cancelled.cancel(false);
+        Assertions.assertEquals(1, pool.getBag().getWaiterCount());
+
+        held.borrowConnection().setAutoCommit(true);
+        held.release();
+        Assertions.assertSame(held, first.get(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(held.inUse());
+        held.release();
+        Assertions.assertEquals(0, pool.getBag().getWaiterCount());
+        Assertions.assertEquals(1, pool.getMetrics().getBorrowTimeoutCount());
+    }
+
+    @Test
+    public void testThousandsOfAsyncBorrowsShareOneConnection() throws Exception {
+        PoolConfig config = simulatedConfig(new SimulatedBackendConfig());
+        config.setMinConnections(1);
+        config.setMaxConnections(1);
+        config.setRegisterMBean(false);
+        pool = new SimplePgConnectionPoolImpl(config);
+        pool.whenReady().join();
+        ConnectionWrapper held = pool.borrowConnection();
+        held.borrowConnection().setAutoCommit(false);
+        held.getPreparedStatement("SELECT 1").executeQuery();
+        int threadsBefore = Thread.activeCount();
+        CompletableFuture<?>[] borrows = new CompletableFuture<?>[5000];
+        for(int i = 0; i < borrows.length; i++){
+            // Released straight from the callback, on whichever thread completed the borrow.
+            borrows[i] = pool.borrowAsync(Duration.ofSeconds(10)).thenAccept(ConnectionWrapper::release);
+        }
+        Assertions.assertEquals(borrows.length, pool.getBag().getWaiterCount());
+        Assertions.assertTrue(Thread.activeCount() <= threadsBefore + 1);
+        held.borrowConnection().setAutoCommit(true);
+        held.release();
+        CompletableFuture.allOf(borrows).get(10, TimeUnit.SECONDS);
+        Assertions.assertEquals(0, pool.getBag().getWaiterCount());
+        Assertions.assertEquals(borrows.length + 1, pool.getMetrics().getBorrowCount());
+    }
+
+    @Test
+    public void testCopyNeedsAPostgresConnection() throws Exception {
+        PoolConfig config = simulatedConfig(new SimulatedBackendConfig());
+        config.setRegisterMBean(false);
+        pool = new SimplePgConnectionPoolImpl(config);
+        ConnectionWrapper cw = pool.borrowConnection();
+        // The simulated backend doesn't speak the COPY protocol, the wrapper says so instead of failing oddly.
+        Assertions.assertThrows(SQLException.class,
+                () -> cw.copyIn("COPY t FROM STDIN", new ByteArrayInputStream(new byte[0])));
+        Assertions.assertThrows(SQLException.class, () -> cw.copyOut("COPY t TO STDOUT", new ByteArrayOutputStream()));
+        Assertions.assertTrue(cw.getPreparedStatement("SELECT 1").executeQuery().next());
+        cw.release();
+    }
+
+    @Test
+    public void testReadOnlyBorrowsGoToHealthyReplicas() throws Exception {
+        PoolConfig config = simulatedConfig(new SimulatedBackendConfig());
+        SimulatedBackendConfig replicaConfig = new SimulatedBackendConfig();
+        replicaConfig.setFirstBackendPid(50000);
+        config.setReplicaConnectionFactories(List.of(PoolFactory.createSimulatedBackend(replicaConfig)));
+        config.setReplicaLagCheckIntervalMillis(10);
+        config.setMaxReplicaLagMillis(1000);
+        config.setRegisterMBean(false);
+        pool = new SimplePgConnectionPoolImpl(config);
+        pool.whenReady().join();
+        pool.getReplicas().getFirst().whenReady().join();
+
+        ConnectionWrapper read = pool.borrowReadOnly();
+        Assertions.assertTrue(read.getPid() >= 50000);
+        read.release();
+        ConnectionWrapper write = pool.borrowConnection(AccessMode.READ_WRITE, 50);
+        Assertions.assertTrue(write.getPid() < 50000);
+        write.release();
+
+        replicaConfig.setReplicationLagMillis(5000);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getReplicas().getFirst().getReplicaLagMillis() < 5000 && System.currentTimeMillis() < deadline){
+            Thread.sleep(5);
+        }
+        // Too far behind, reads fall back to the primary until it catches up.
+        read = pool.borrowReadOnly();
+        Assertions.assertTrue(read.getPid() < 50000);
+        read.release();
+    }
+
+    @Test
+    public void testReadOnlyBorrowFallsBackToPrimaryWithinTheDeadline() throws Exception {
+        PoolConfig config = simulatedConfig(new SimulatedBackendConfig());
+        SimulatedBackendConfig replicaConfig = new SimulatedBackendConfig();
+        replicaConfig.setFirstBackendPid(50000);
+        config.setReplicaConnectionFactories(List.of(PoolFactory.createSimulatedBackend(replicaConfig)));
+        config.setMinConnections(1);
+        config.setMaxConnections(1);
+        config.setRegisterMBean(false);
+        pool = new SimplePgConnectionPoolImpl(config);
+        pool.whenReady().join();
+        SimplePgConnectionPoolImpl replica = pool.getReplicas().getFirst();
+        replica.whenReady().join();
+
+        // The replica's only connection is taken, so the read times out there and goes to the primary.
+        ConnectionWrapper replicaHeld = replica.borrowConnection(1000);
+        ConnectionWrapper read = pool.borrowConnection(AccessMode.READ_ONLY, 100);
+        Assertions.assertTrue(read.getPid() < 50000);
+
+        // With the primary taken too the read fails once, after the one 100 ms budget rather than two of them.
+        long start = System.nanoTime();
+        Assertions.assertThrows(PoolTimeoutException.class, () -> pool.borrowConnection(AccessMode.READ_ONLY, 100));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assertions.assertTrue(elapsedMillis < 190, "Fallback should share the deadline, took " + elapsedMillis);
+        read.release();
+        replicaHeld.release();
+    }
+
+    @Test
+    public void testAsyncStartupReportsFailedWarmUp() throws Exception {
+        SimulatedBackendConfig backendConfig = new SimulatedBackendConfig();
+        PoolConfig config = simulatedConfig(backendConfig);
+        config.setAsyncStartup(true);
+        // The manager connection opens before warm up, so the backend only starts failing afterward.
+        backendConfig.setMaxServerConnections(1);
+        pool = new SimplePgConnectionPoolImpl(config);
+        Assertions.assertThrows(CompletionException.class, () -> pool.whenReady().join());
+    }
+}
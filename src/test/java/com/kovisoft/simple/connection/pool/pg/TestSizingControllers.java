@@ -0,0 +1,67 @@
+package com.kovisoft.simple.connection.pool.pg;
+
+import com.kovisoft.simple.connection.pool.exports.PoolSizingSample;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class TestSizingControllers {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * One second of steady traffic, no waiting.
+     */
+    private static PoolSizingSample sample(long now, long borrowsPerSecond, long holdMillis, int currentTarget){
+        return new PoolSizingSample(now, SECOND, borrowsPerSecond, 0, 0, borrowsPerSecond,
+                borrowsPerSecond * TimeUnit.MILLISECONDS.toNanos(holdMillis), currentTarget, 0, 0,
+                currentTarget, 2, 50);
+    }
+
+    @Test
+    public void testLittlesLawSizesForLoadPlusReserve(){
+        LittlesLawSizingController controller = new LittlesLawSizingController(5);
+        // 200/s held 50ms each is 10 busy on average, plus a reserve of sqrt(10).
+        int target = controller.targetConnections(sample(0, 200, 50, 2));
+        Assertions.assertEquals(14, target);
+    }
+
+    @Test
+    public void testGrowsWhenBorrowersWait(){
+        LittlesLawSizingController controller = new LittlesLawSizingController(5);
+        PoolSizingSample waiting = new PoolSizingSample(0, SECOND, 10, 3, 10 * SECOND, 10, 0, 4, 4, 6, 4, 2, 50);
+        Assertions.assertEquals(10, controller.targetConnections(waiting));
+    }
+
+    @Test
+    public void testShrinkWaitsForTheDelayThenStepsDown(){
+        LittlesLawSizingController controller = new LittlesLawSizingController(5, 1000, 10_000, 1.0);
+        int target = controller.targetConnections(sample(0, 200, 50, 2));
+        Assertions.assertEquals(14, target);
+        long now = 0;
+        // Traffic stops, the smoothed load takes a few seconds to fall and the delay holds the size.
+        for(int i = 0; i < 9; i++){
+            now += SECOND;
+            Assertions.assertEquals(14, controller.targetConnections(sample(now, 0, 50, 14)));
+        }
+        int shrunk = 14;
+        for(int i = 0; i < 10; i++){
+            now += SECOND;
+            shrunk = controller.targetConnections(sample(now, 0, 50, shrunk));
+        }
+        Assertions.assertTrue(shrunk < 3, "Expected the pool to shrink, target " + shrunk);
+    }
+
+    @Test
+    public void testRequestsPerMinuteOnlyDecidesOncePerMinute(){
+        RequestsPerMinuteSizingController controller = new RequestsPerMinuteSizingController(20);
+        int target = 5;
+        for(int i = 0; i < 59; i++){
+            target = controller.targetConnections(sample(i * SECOND, 2, 10, target));
+            Assertions.assertEquals(5, target);
+        }
+        // 120 requests in the minute at 20 per connection.
+        Assertions.assertEquals(6, controller.targetConnections(sample(59 * SECOND, 2, 10, target)));
+    }
+}
@@ -0,0 +1,79 @@
+package com.kovisoft.simple.connection.pool.pg;
+
+import com.kovisoft.simple.connection.pool.exports.SimulatedBackendConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+
+public class TestStatementCache {
+
+    private Connection connection;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        connection = new SimulatedPgBackend(new SimulatedBackendConfig()).createConnection();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        connection.close();
+    }
+
+    @Test
+    public void testRepeatedSqlIsAHit() throws Exception {
+        PoolMetricsImpl metrics = new PoolMetricsImpl();
+        StatementCache cache = new StatementCache(10, 100, 1000, metrics);
+        PreparedStatement first = cache.get(connection, "SELECT 1");
+        Assertions.assertSame(first, cache.get(connection, "SELECT 1"));
+        Assertions.assertNotSame(first, cache.get(connection, "SELECT 1", Statement.RETURN_GENERATED_KEYS));
+        Assertions.assertEquals(1, cache.getHits());
+        Assertions.assertEquals(2, cache.getMisses());
+        Assertions.assertEquals(1, metrics.getStatementCacheHits());
+        Assertions.assertEquals(2, metrics.getStatementCacheMisses());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvictedAndClosed() throws Exception {
+        StatementCache cache = new StatementCache(2, 100, 1000, null);
+        PreparedStatement a = cache.get(connection, "SELECT 'a'");
+        PreparedStatement b = cache.get(connection, "SELECT 'b'");
+        cache.get(connection, "SELECT 'a'");
+        cache.get(connection, "SELECT 'c'");
+        Assertions.assertEquals(2, cache.size());
+        Assertions.assertEquals(1, cache.getEvictions());
+        Assertions.assertTrue(b.isClosed());
+        Assertions.assertFalse(a.isClosed());
+    }
+
+    @Test
+    public void testCharacterLimits() throws Exception {
+        StatementCache cache = new StatementCache(10, 10, 20, null);
+        PreparedStatement tooLong = cache.get(connection, "SELECT 'too long'");
+        Assertions.assertEquals(0, cache.size());
+        Assertions.assertFalse(tooLong.isClosed());
+        cache.get(connection, "SELECT 'a'");
+        cache.get(connection, "SELECT 'b'");
+        cache.get(connection, "SELECT 'c'");
+        Assertions.assertEquals(2, cache.size());
+        Assertions.assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testClosedStatementIsPreparedAgain() throws Exception {
+        StatementCache cache = new StatementCache(10, 100, 1000, null);
+        PreparedStatement first = cache.get(connection, "SELECT 1");
+        first.close();
+        PreparedStatement second = cache.get(connection, "SELECT 1");
+        Assertions.assertNotSame(first, second);
+        Assertions.assertFalse(second.isClosed());
+        Assertions.assertEquals(1, cache.size());
+        cache.close();
+        Assertions.assertTrue(second.isClosed());
+        Assertions.assertEquals(0, cache.size());
+    }
+}
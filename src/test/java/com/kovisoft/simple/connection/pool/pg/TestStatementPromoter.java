@@ -0,0 +1,82 @@
+package com.kovisoft.simple.connection.pool.pg;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class TestStatementPromoter {
+
+    @Test
+    public void testSketchNeverUnderCountsAndHalves(){
+        FrequencySketch sketch = new FrequencySketch(16);
+        for(int i = 0; i < 100; i++){
+            sketch.increment("SELECT " + i);
+        }
+        for(int i = 0; i < 10; i++){
+            sketch.increment("SELECT hot");
+        }
+        Assertions.assertTrue(sketch.estimate("SELECT hot") >= 10);
+        Assertions.assertTrue(sketch.estimate("SELECT 5") >= 1);
+        sketch.halve();
+        Assertions.assertTrue(sketch.estimate("SELECT hot") >= 5);
+    }
+
+    @Test
+    public void testHotSqlIsPromotedAndColdSqlDemoted(){
+        Map<String, String> registered = new ConcurrentHashMap<>();
+        // Decays on every maintain call.
+        StatementPromoter promoter = new StatementPromoter(registered, 4, 10, 100, 0);
+        promoter.record("SELECT 'hot'");
+        promoter.record("SELECT 'hot'");
+        promoter.maintain();
+        Assertions.assertTrue(registered.isEmpty());
+        for(int i = 0; i < 4; i++){
+            promoter.record("SELECT 'hot'");
+        }
+        int version = promoter.getVersion();
+        promoter.maintain();
+        Assertions.assertEquals("SELECT 'hot'", registered.get("SELECT 'hot'"));
+        Assertions.assertTrue(promoter.isPromoted("SELECT 'hot'"));
+        Assertions.assertNotEquals(version, promoter.getVersion());
+        for(int i = 0; i < 4 && !registered.isEmpty(); i++){
+            promoter.maintain();
+        }
+        Assertions.assertTrue(registered.isEmpty());
+        Assertions.assertEquals(0, promoter.getPromotedCount());
+    }
+
+    @Test
+    public void testThresholdOfOneStillDemotes(){
+        Map<String, String> registered = new ConcurrentHashMap<>();
+        // Decays on every maintain call, two uses survive the first halving.
+        StatementPromoter promoter = new StatementPromoter(registered, 1, 10, 100, 0);
+        promoter.record("SELECT 'once'");
+        promoter.record("SELECT 'once'");
+        promoter.maintain();
+        Assertions.assertTrue(promoter.isPromoted("SELECT 'once'"));
+        for(int i = 0; i < 4 && !registered.isEmpty(); i++){
+            promoter.maintain();
+        }
+        Assertions.assertTrue(registered.isEmpty());
+        Assertions.assertEquals(0, promoter.getPromotedCount());
+    }
+
+    @Test
+    public void testLimitsAndMakeRoom(){
+        Map<String, String> registered = new ConcurrentHashMap<>(Map.of("key", "SELECT 'registered'"));
+        StatementPromoter promoter = new StatementPromoter(registered, 1, 2, 20, 60_000);
+        promoter.record("SELECT 'a'");
+        promoter.record("SELECT 'this one is far too long'");
+        promoter.maintain();
+        Assertions.assertEquals(2, registered.size());
+        promoter.record("SELECT 'b'");
+        promoter.maintain();
+        // Full, registered statements are never pushed out by promotions.
+        Assertions.assertFalse(registered.containsKey("SELECT 'b'"));
+        Assertions.assertTrue(promoter.makeRoom());
+        Assertions.assertEquals(Map.of("key", "SELECT 'registered'"), registered);
+        Assertions.assertFalse(promoter.makeRoom());
+    }
+}